@@ -0,0 +1,98 @@
+package Benchmark;
+
+import Entities.Conversation;
+import Entities.Event;
+import Entities.Message;
+import Entities.Room;
+import Entities.ScheduleEntry;
+import Entities.User;
+import Gateways.CalendarAdapter;
+import Gateways.GsonFactory;
+import Util.UserType;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Compares per-record encode/decode time of the hand-written entity adapters registered by
+ * {@link GsonFactory} with Gson's reflective adapters, and checks that both write the same JSON. Each time is
+ * the median of {@value #MEASURED_ROUNDS} rounds, after {@value #WARMUP_ROUNDS} rounds of warm-up.
+ * <p>
+ * Usage: java Benchmark.AdapterBenchmark [iterations]
+ */
+public class AdapterBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Gson reflective = new GsonBuilder()
+                .registerTypeHierarchyAdapter(Calendar.class, new CalendarAdapter(true))
+                .create();
+        Gson adapters = GsonFactory.compact();
+
+        Event event = new Event("Keynote");
+        event.setEventCapacity(500);
+        event.setDescription("Opening keynote of the conference");
+        event.setSpeaker("speaker1");
+        for (int i = 0; i < 200; i++) {
+            event.addAttendeeToEvent("attendee" + i);
+        }
+        Room room = new Room("Main Hall");
+        room.setRoomCapacity(500);
+        Conversation conversation = new Conversation("alice", "bob");
+        for (int i = 0; i < 100; i++) {
+            conversation.addMessage(new Message("alice", "bob", "Message number " + i + " of the conversation"));
+        }
+
+        System.out.printf("%-14s %14s %14s %14s %14s%n", "entity", "refl. encode", "adapt. encode",
+                "refl. decode", "adapt. decode");
+        run("User", new User("Alice", "alice", "secret", UserType.VIP), User.class, reflective, adapters, iterations);
+        run("Room", room, Room.class, reflective, adapters, iterations);
+        run("Event", event, Event.class, reflective, adapters, iterations);
+        run("ScheduleEntry", new ScheduleEntry("Keynote", "Main Hall", Calendar.getInstance(), 60),
+                ScheduleEntry.class, reflective, adapters, iterations);
+        run("Message", new Message("alice", "bob", "Hello"), Message.class, reflective, adapters, iterations);
+        run("Conversation", conversation, Conversation.class, reflective, adapters, iterations / 10);
+    }
+
+    private static <T> void run(String name, T obj, Class<T> type, Gson reflective, Gson adapters, int iterations) {
+        String json = reflective.toJson(obj);
+        if (!json.equals(adapters.toJson(obj)) || !json.equals(adapters.toJson(adapters.fromJson(json, type)))) {
+            throw new IllegalStateException(name + " adapter does not match the reflective adapter");
+        }
+
+        // medians over the measured rounds, alternating which Gson goes first so neither always runs on
+        // code the JIT compiled for the other
+        double[][] rounds = new double[4][MEASURED_ROUNDS];
+        Gson[] gsons = {reflective, adapters};
+        for (int round = -WARMUP_ROUNDS; round < MEASURED_ROUNDS; round++) {
+            for (int turn = 0; turn < 2; turn++) {
+                int g = (turn + Math.max(round, 0)) % 2;
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    gsons[g].toJson(obj);
+                }
+                double encode = (System.nanoTime() - start) / 1e3 / iterations;
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    gsons[g].fromJson(json, type);
+                }
+                double decode = (System.nanoTime() - start) / 1e3 / iterations;
+                if (round >= 0) {
+                    rounds[g][round] = encode;
+                    rounds[2 + g][round] = decode;
+                }
+            }
+        }
+        double[] times = new double[4];
+        for (int i = 0; i < 4; i++) {
+            Arrays.sort(rounds[i]);
+            times[i] = rounds[i][MEASURED_ROUNDS / 2];
+        }
+        System.out.printf("%-14s %11.2f us %11.2f us %11.2f us %11.2f us%n", name, times[0], times[1], times[2], times[3]);
+    }
+}
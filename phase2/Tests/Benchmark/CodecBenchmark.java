@@ -0,0 +1,67 @@
+package Benchmark;
+
+import Entities.Conversation;
+import Entities.Event;
+import Entities.Message;
+import Entities.ScheduleEntry;
+import Gateways.RecordCodec;
+
+import java.util.Calendar;
+
+/**
+ * Compares record size and encode/decode time of the record codecs on typical entities.
+ * <p>
+ * Usage: java Benchmark.CodecBenchmark [iterations]
+ */
+public class CodecBenchmark {
+    private static final String[] CODECS = {"pretty", "compact", "binary"};
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        Event event = new Event("Keynote");
+        event.setEventCapacity(500);
+        event.setDescription("Opening keynote of the conference");
+        event.setSpeaker("speaker1");
+        for (int i = 0; i < 200; i++) {
+            event.addAttendeeToEvent("attendee" + i);
+        }
+        ScheduleEntry entry = new ScheduleEntry("Keynote", "Main Hall", Calendar.getInstance(), 60);
+        Conversation conversation = new Conversation("alice", "bob");
+        for (int i = 0; i < 100; i++) {
+            conversation.addMessage(new Message("alice", "bob", "Message number " + i + " of the conversation"));
+        }
+
+        run("Event", event, Event.class, iterations);
+        run("ScheduleEntry", entry, ScheduleEntry.class, iterations);
+        run("Conversation", conversation, Conversation.class, iterations / 10);
+    }
+
+    private static <T> void run(String name, T obj, Class<T> type, int iterations) {
+        System.out.printf("%s (%d iterations)%n", name, iterations);
+        for (String codecName : CODECS) {
+            RecordCodec<T> codec = RecordCodec.forName(codecName, type);
+            byte[] data = codec.encode(obj);
+
+            // warm up
+            for (int i = 0; i < iterations; i++) {
+                codec.decode(codec.encode(obj), data.length);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                codec.encode(obj);
+            }
+            long encode = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                codec.decode(data, data.length);
+            }
+            long decode = System.nanoTime() - start;
+
+            System.out.printf("  %-8s %7d bytes  encode %8.2f us  decode %8.2f us%n",
+                    codecName, data.length, encode / 1e3 / iterations, decode / 1e3 / iterations);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package Benchmark;
+
+import Entities.Conversation;
+import Entities.Message;
+import Gateways.CompressedCodec;
+import Gateways.JsonDatabase;
+import Gateways.RecordCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Measures what compressing conversations costs and saves: record size and encode/decode time of each codec
+ * with and without {@link CompressedCodec}, then the bytes and time spent appending messages one at a time
+ * to a conversation stored in a JsonDatabase, which rewrites the whole conversation every time.
+ * <p>
+ * Usage: java Benchmark.CompressionBenchmark [iterations]
+ */
+public class CompressionBenchmark {
+    private static final String[] CODECS = {"pretty", "compact", "binary"};
+    private static final int[] SIZES = {10, 100, 1000};
+    private static final int THRESHOLD = 1024;
+    private static final String[] WORDS = {"the", "talk", "room", "is", "moved", "to", "after", "lunch", "see",
+            "you", "there", "thanks", "for", "coming", "slides", "will", "be", "posted", "tomorrow", "can", "we",
+            "meet", "before", "keynote", "speaker", "schedule", "question", "about", "event", "great"};
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        System.out.printf("%-8s %8s %10s %10s %12s %12s %12s %12s%n", "codec", "messages", "bytes", "deflated",
+                "encode us", "+deflate us", "decode us", "+inflate us");
+        for (int size : SIZES) {
+            Conversation conversation = conversation(size);
+            for (String codecName : CODECS) {
+                run(codecName, size, conversation, Math.max(iterations * 10 / size, 20));
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-16s %8s %14s %10s%n", "codec", "messages", "bytes written", "ms");
+        for (String codecName : CODECS) {
+            append(RecordCodec.forName(codecName, Conversation.class), 1000);
+            append(new CompressedCodec<>(RecordCodec.forName(codecName, Conversation.class), Conversation.class,
+                    THRESHOLD), 1000);
+        }
+    }
+
+    private static void run(String codecName, int size, Conversation conversation, int iterations) {
+        RecordCodec<Conversation> plain = RecordCodec.forName(codecName, Conversation.class);
+        RecordCodec<Conversation> compressed = new CompressedCodec<>(plain, Conversation.class, 0);
+        byte[] plainData = plain.encode(conversation);
+        byte[] compressedData = compressed.encode(conversation);
+
+        // warm up
+        for (int i = 0; i < iterations; i++) {
+            plain.decode(plain.encode(conversation), plainData.length);
+            compressed.decode(compressed.encode(conversation), compressedData.length);
+        }
+
+        System.out.printf("%-8s %8d %10d %10d %12.2f %12.2f %12.2f %12.2f%n", codecName, size,
+                plainData.length, compressedData.length,
+                encodeTime(plain, conversation, iterations), encodeTime(compressed, conversation, iterations),
+                decodeTime(plain, plainData, iterations), decodeTime(compressed, compressedData, iterations));
+    }
+
+    private static double encodeTime(RecordCodec<Conversation> codec, Conversation conversation, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            codec.encode(conversation);
+        }
+        return (System.nanoTime() - start) / 1e3 / iterations;
+    }
+
+    private static double decodeTime(RecordCodec<Conversation> codec, byte[] data, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            codec.decode(data, data.length);
+        }
+        return (System.nanoTime() - start) / 1e3 / iterations;
+    }
+
+    /**
+     * Sends messages one at a time, the way MessageManager.sendMessage does: every message rewrites the
+     * whole conversation.
+     */
+    private static void append(RecordCodec<Conversation> codec, int messages) throws IOException {
+        String root = Files.createTempDirectory("compression-benchmark").toString();
+        JsonDatabase<Conversation> database = new JsonDatabase<>(root, "Messages", Conversation.class, codec);
+        File file = new File(root, "Messages/Messages-alice-bob.json");
+        Random random = new Random(1);
+        Conversation conversation = new Conversation("alice", "bob");
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            conversation.addMessage(message(random, i));
+            database.write(conversation, "alice-bob");
+            bytes += file.length();
+        }
+        long time = System.nanoTime() - start;
+        System.out.printf("%-16s %8d %14d %10.1f%n", codec.getName(), messages, bytes, time / 1e6);
+        deleteRecursively(new File(root));
+    }
+
+    private static Conversation conversation(int size) {
+        Random random = new Random(1);
+        Conversation conversation = new Conversation("alice", "bob");
+        for (int i = 0; i < size; i++) {
+            conversation.addMessage(message(random, i));
+        }
+        return conversation;
+    }
+
+    private static Message message(Random random, int i) {
+        StringBuilder body = new StringBuilder();
+        int words = 3 + random.nextInt(15);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) body.append(' ');
+            body.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return i % 2 == 0 ? new Message("alice", "bob", body.toString()) : new Message("bob", "alice", body.toString());
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,107 @@
+package Benchmark;
+
+import Entities.Event;
+import Gateways.IGateway;
+import Gateways.JsonDatabase;
+import Gateways.LogDatabase;
+import Gateways.RecordCodec;
+import Gateways.SqlDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the cost of {@link IGateway#exists} for stored and missing ids on every engine, and on
+ * SqlDatabase with and without its Bloom filter of ids (the filter is off once process sharing is enabled).
+ * Each time is the median of {@value #MEASURED_ROUNDS} rounds, after {@value #WARMUP_ROUNDS} rounds of
+ * warm-up. SqlDatabase is left out unless sqlite-jdbc is in phase2/lib.
+ * <p>
+ * Usage: java Benchmark.ExistsBenchmark [number of events]
+ */
+public class ExistsBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        String root = Files.createTempDirectory("exists-benchmark").toString();
+        String url = "jdbc:sqlite:" + root + "/conference.db";
+
+        IGateway<Event> json = new JsonDatabase<>(root, "Event", Event.class);
+        IGateway<Event> log = new LogDatabase<>(root, "Event", Event.class);
+        Map<String, Event> batch = new HashMap<>();
+        for (int i = 0; i < events; i++) {
+            Event event = new Event("event" + i);
+            event.setEventCapacity(100);
+            batch.put(event.getName(), event);
+        }
+        json.writeAll(batch);
+        log.writeAll(batch);
+
+        System.out.printf("%d events; ns per call, median of %d rounds%n", events, MEASURED_ROUNDS);
+        System.out.printf("%-22s %10s %10s%n", "gateway", "hit", "miss");
+        if (SqlDatabase.hasDriver(url)) {
+            SqlDatabase<Event> sql = new SqlDatabase<>(url, "Event", Event.class,
+                    RecordCodec.forName("compact", Event.class));
+            sql.writeAll(batch);
+            SqlDatabase<Event> unfiltered = new SqlDatabase<>(url, "Event", Event.class,
+                    RecordCodec.forName("compact", Event.class));
+            unfiltered.enableProcessSharing();
+            run("SqlDatabase", sql, events);
+            run("SqlDatabase no filter", unfiltered, events);
+        } else {
+            System.out.println("SqlDatabase skipped: sqlite-jdbc is not in phase2/lib");
+        }
+        run("LogDatabase", log, events);
+        // last, once its directory watcher has caught up with the files just written
+        run("JsonDatabase", json, events);
+        deleteRecursively(new File(root));
+    }
+
+    private static void run(String name, IGateway<Event> gateway, int events) {
+        double[] hits = new double[MEASURED_ROUNDS];
+        double[] misses = new double[MEASURED_ROUNDS];
+        for (int round = -WARMUP_ROUNDS; round < MEASURED_ROUNDS; round++) {
+            double hit = time(gateway, "event", events, true);
+            double miss = time(gateway, "missing", events, false);
+            if (round >= 0) {
+                hits[round] = hit;
+                misses[round] = miss;
+            }
+        }
+        System.out.printf("%-22s %10.0f %10.0f%n", name, median(hits), median(misses));
+    }
+
+    /**
+     * @return ns per call of exists for prefix0 ... prefix(count - 1), checking every answer.
+     */
+    private static double time(IGateway<Event> gateway, String prefix, int count, boolean expected) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            if (gateway.exists(prefix + i) != expected) {
+                throw new IllegalStateException("wrong answer for " + prefix + i);
+            }
+        }
+        return (double) (System.nanoTime() - start) / count;
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,76 @@
+package Benchmark;
+
+import Entities.Event;
+import Gateways.IGateway;
+import Gateways.JsonDatabase;
+import Gateways.LogDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.function.Predicate;
+
+/**
+ * Compares full-scan throughput of filterStream on JsonDatabase (one file per record) and LogDatabase
+ * (memory-mapped segments).
+ * <p>
+ * Usage: java Benchmark.ScanBenchmark [number of events]
+ */
+public class ScanBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        String root = Files.createTempDirectory("scan-benchmark").toString();
+
+        IGateway<Event> json = new JsonDatabase<>(root, "Event", Event.class);
+        IGateway<Event> log = new LogDatabase<>(root, "Event", Event.class);
+        for (int i = 0; i < events; i++) {
+            Event event = makeEvent(i);
+            json.write(event, event.getName());
+            log.write(event, event.getName());
+        }
+        // the json cache would otherwise answer the scan from memory
+        ((JsonDatabase<Event>) json).getCache().clear();
+
+        System.out.printf("%d events%n", events);
+        run("JsonDatabase", json, events);
+        run("LogDatabase", log, events);
+        deleteRecursively(new File(root));
+    }
+
+    private static void run(String name, IGateway<Event> gateway, int events) {
+        Predicate<Event> vip = Event::isVIPOnly;
+        long best = Long.MAX_VALUE;
+        long matched = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            matched = gateway.filterStream(vip).count();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-13s best of %d: %8.1f ms, %10.0f records/s (%d matched)%n",
+                name, ROUNDS, best / 1e6, events / (best / 1e9), matched);
+    }
+
+    private static Event makeEvent(int i) {
+        Event event = new Event("event" + i);
+        event.setEventCapacity(100);
+        event.setVIPOnly(i % 10 == 0);
+        event.setDescription("Benchmark event number " + i);
+        event.setSpeaker("speaker" + (i % 50));
+        for (int a = 0; a < 40; a++) {
+            event.addAttendeeToEvent("attendee" + ((i + a) % 2000));
+        }
+        return event;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,72 @@
+package Benchmark;
+
+import Gateways.JsonDatabase;
+import Gateways.RecordCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the flat and sharded JsonDatabase layouts as a collection grows: the time to list the ids of a
+ * newly opened collection, and the latency of reads that miss the cache.
+ * <p>
+ * Usage: java Benchmark.ShardBenchmark [largest number of records]
+ */
+public class ShardBenchmark {
+    private static final int READS = 2000;
+
+    public static void main(String[] args) throws IOException {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        System.out.printf("%-8s %8s %12s %14s%n", "layout", "records", "list ms", "read us/op");
+        for (int records = 1000; records <= largest; records *= 5) {
+            run(false, records);
+            run(true, records);
+        }
+    }
+
+    private static void run(boolean sharded, int records) throws IOException {
+        String root = Files.createTempDirectory("shard-benchmark").toString();
+        RecordCodec<String> codec = RecordCodec.forName("compact", String.class);
+        JsonDatabase<String> writer = new JsonDatabase<>(root, "Record", String.class, codec, sharded);
+        Map<String, String> batch = new HashMap<>();
+        for (int i = 0; i < records; i++) {
+            batch.put("record" + i, "value of record " + i);
+            if (batch.size() == 1000) {
+                writer.writeAll(batch);
+                batch.clear();
+            }
+        }
+        writer.writeAll(batch);
+
+        // another path to the same directory, so the database gets its own id index and cache
+        JsonDatabase<String> reader = new JsonDatabase<>(root + "/.", "Record", String.class, codec, sharded);
+        long start = System.nanoTime();
+        int listed = reader.getIds().size();
+        long list = System.nanoTime() - start;
+
+        Random random = new Random(1);
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            reader.read("record" + random.nextInt(records));
+            reader.getCache().clear();
+        }
+        long read = System.nanoTime() - start;
+
+        System.out.printf("%-8s %8d %12.1f %14.1f%n", sharded ? "sharded" : "flat", listed, list / 1e6, read / 1e3 / READS);
+        deleteRecursively(new File(root));
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
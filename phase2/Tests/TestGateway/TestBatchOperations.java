@@ -0,0 +1,136 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.IGateway;
+import Gateways.JsonDatabase;
+import Gateways.LogDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Batch reads and writes, on every file-based engine.
+ */
+public class TestBatchOperations {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JsonDatabase<Event> json;
+    private LogDatabase<Event> log;
+
+    @Before
+    public void setUp() {
+        json = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+        log = new LogDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+    }
+
+    @After
+    public void tearDown() {
+        log.close();
+    }
+
+    private List<IGateway<Event>> gateways() {
+        return Arrays.asList(json, log);
+    }
+
+    private static Event event(String name, int capacity) {
+        Event event = new Event(name);
+        event.setEventCapacity(capacity);
+        return event;
+    }
+
+    @Test
+    public void testReadAllKeepsOrderOfIds() {
+        for (IGateway<Event> gateway : gateways()) {
+            gateway.write(event("Keynote", 1), "Keynote");
+            gateway.write(event("Workshop", 2), "Workshop");
+            gateway.write(event("Panel", 3), "Panel");
+
+            Map<String, Event> read = gateway.readAll(
+                    Arrays.asList("Panel", "Missing", "Keynote", "Panel", "Workshop"));
+
+            assertEquals(Arrays.asList("Panel", "Keynote", "Workshop"), Arrays.asList(read.keySet().toArray()));
+            assertEquals(3, read.get("Panel").getEventCapacity());
+            assertEquals(1, read.get("Keynote").getEventCapacity());
+            assertTrue(gateway.readAll(Collections.emptyList()).isEmpty());
+            assertTrue(gateway.readAll(Collections.singletonList("Missing")).isEmpty());
+        }
+    }
+
+    @Test
+    public void testReadAllSeesLatestWrites() {
+        for (IGateway<Event> gateway : gateways()) {
+            gateway.write(event("Keynote", 1), "Keynote");
+            gateway.write(event("Workshop", 2), "Workshop");
+            gateway.write(event("Keynote", 10), "Keynote");
+            gateway.delete("Workshop");
+
+            Map<String, Event> read = gateway.readAll(Arrays.asList("Workshop", "Keynote"));
+
+            assertEquals(Collections.singletonList("Keynote"), Arrays.asList(read.keySet().toArray()));
+            assertEquals(10, read.get("Keynote").getEventCapacity());
+        }
+    }
+
+    @Test
+    public void testWriteAllWritesEveryObject() throws InterruptedException {
+        for (IGateway<Event> gateway : gateways()) {
+            gateway.addIndex("capacity", Event::getEventCapacity);
+            gateway.write(event("Keynote", 1000), "Keynote");
+            long version = gateway.version("Keynote");
+            List<String> published = new CopyOnWriteArrayList<>();
+            gateway.addListener((id, kind) -> published.add(id + " " + kind));
+
+            Map<String, Event> batch = new LinkedHashMap<>();
+            for (int i = 0; i < 50; i++) {
+                batch.put("Event" + i, event("Event" + i, i));
+            }
+            batch.put("Keynote", event("Keynote", 100));
+            gateway.writeAll(batch);
+            gateway.writeAll(Collections.emptyMap());
+
+            assertEquals(51, gateway.getIds().size());
+            assertEquals(100, gateway.read("Keynote").getEventCapacity());
+            assertEquals(7, gateway.read("Event7").getEventCapacity());
+            assertNotEquals(version, gateway.version("Keynote"));
+            assertEquals(Collections.singletonList("Keynote"), gateway.lookup("capacity", 100));
+            assertTrue(gateway.lookup("capacity", 1000).isEmpty());
+            awaitPublished(published, 51);
+            assertEquals(51, new HashSet<>(published).size());
+            assertTrue(published.contains("Keynote WRITTEN"));
+        }
+    }
+
+    @Test
+    public void testWriteAllIsDurable() {
+        Map<String, Event> batch = new HashMap<>();
+        batch.put("Keynote", event("Keynote", 1));
+        batch.put("Workshop", event("Workshop", 2));
+        log.writeAll(batch);
+        log.close();
+
+        log = new LogDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+        assertEquals(Arrays.asList("Keynote", "Workshop"), log.getIds(null, 10));
+        assertEquals(2, log.read("Workshop").getEventCapacity());
+    }
+
+    private static void awaitPublished(List<String> published, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (published.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+}
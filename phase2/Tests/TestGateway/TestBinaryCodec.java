@@ -0,0 +1,103 @@
+package TestGateway;
+
+import Entities.Conversation;
+import Entities.Event;
+import Entities.Message;
+import Entities.ScheduleEntry;
+import Gateways.BinaryCodec;
+import Gateways.GsonFactory;
+import Gateways.JsonDatabase;
+import Gateways.RecordCodec;
+import Gateways.ShardLayout;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+public class TestBinaryCodec {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Event event() {
+        Event event = new Event("Keynote");
+        event.setEventCapacity(50);
+        event.setSpeaker("speaker1");
+        for (int i = 0; i < 40; i++) {
+            event.addAttendeeToEvent("attendee" + i);
+        }
+        return event;
+    }
+
+    private static Conversation conversation() {
+        Conversation conversation = new Conversation("alice", "bob");
+        for (int i = 0; i < 200; i++) {
+            conversation.addMessage(new Message("alice", "bob", "Message \u00e9 number " + i));
+        }
+        return conversation;
+    }
+
+    /**
+     * Reads the binary form back as a tree, to compare it with the tree Gson would have built.
+     */
+    private static <T> void assertSameTree(T obj, Class<T> type) {
+        RecordCodec<T> codec = new BinaryCodec<>(type);
+        byte[] data = codec.encode(obj);
+        assertEquals(BinaryCodec.MAGIC, data[0]);
+        JsonElement expected = GsonFactory.compact().toJsonTree(obj);
+        assertEquals(expected, JsonParser.parseReader(codec.reader(data, data.length)));
+    }
+
+    @Test
+    public void testEncodeMatchesJsonTree() {
+        assertSameTree(event(), Event.class);
+        assertSameTree(new Event("Empty"), Event.class);
+        assertSameTree(conversation(), Conversation.class);
+        assertSameTree(new ScheduleEntry("Keynote", "Main Hall", Calendar.getInstance(), 60), ScheduleEntry.class);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        RecordCodec<Event> events = new BinaryCodec<>(Event.class);
+        byte[] data = events.encode(event());
+        Event event = events.decode(data, data.length);
+        assertEquals("Keynote", event.getName());
+        assertEquals(50, event.getEventCapacity());
+        assertEquals(event().getAttendees(), event.getAttendees());
+        assertNull(event.getDescription());
+
+        RecordCodec<Conversation> conversations = new BinaryCodec<>(Conversation.class);
+        data = conversations.encode(conversation());
+        Conversation conversation = conversations.decode(data, data.length);
+        assertEquals(200, conversation.getMessages().size());
+        assertEquals("Message \u00e9 number 199", conversation.getMessages().get(199).getBody());
+    }
+
+    @Test
+    public void testReadingOtherCodecRewritesRecordLater() throws Exception {
+        String root = folder.getRoot().getPath();
+        JsonDatabase<Event> pretty = new JsonDatabase<>(root, "Event", Event.class);
+        pretty.write(event(), "Keynote");
+        pretty.getCache().invalidate("Keynote");
+
+        JsonDatabase<Event> binary = new JsonDatabase<>(root, "Event", Event.class, new BinaryCodec<>(Event.class));
+        long version = binary.version("Keynote");
+        assertEquals(event().getAttendees(), binary.read("Keynote").getAttendees());
+
+        File file = new ShardLayout(new File(root, "Event"), "Event", false).file("Keynote");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Files.readAllBytes(file.toPath())[0] != BinaryCodec.MAGIC) {
+            assertTrue("record was not rewritten", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(version, binary.version("Keynote"));
+        binary.getCache().invalidate("Keynote");
+        assertEquals(event().getAttendees(), binary.read("Keynote").getAttendees());
+    }
+}
@@ -0,0 +1,118 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.JsonDatabase;
+import Gateways.RecordCache;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class TestChangeListeners {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JsonDatabase<Event> database;
+    private final List<String> published = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+        database.addMultiIndex("attendees", Event::getAttendees);
+        // loads the id index, so that the watcher's events update it
+        assertTrue(database.getIds().isEmpty());
+    }
+
+    private static Event event(String name, String... attendees) {
+        Event event = new Event(name);
+        event.setEventCapacity(10);
+        for (String attendee : attendees) {
+            event.addAttendeeToEvent(attendee);
+        }
+        return event;
+    }
+
+    /**
+     * Writes a record the way another process would, without this process's cache or indexes knowing.
+     */
+    private void writeBehindBack(Event event) throws IOException {
+        File other = folder.newFolder();
+        new JsonDatabase<>(other.getPath(), "Event", Event.class).write(event, event.getName());
+        File source = new File(other, "Event/Event-" + event.getName() + ".json");
+        File target = new File(folder.getRoot(), "Event/Event-" + event.getName() + ".json");
+        Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void awaitPublished(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (published.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void testOwnChangesArePublishedOnce() throws InterruptedException {
+        database.addListener((id, kind) -> published.add(id + " " + kind));
+
+        database.write(event("Keynote"), "Keynote");
+        assertTrue(database.update("Keynote", event -> event.addAttendeeToEvent("alice")));
+        database.delete("Keynote");
+        // the watcher sees all three files change meanwhile
+        Thread.sleep(1000);
+
+        assertEquals(Arrays.asList("Keynote WRITTEN", "Keynote WRITTEN", "Keynote DELETED"), published);
+    }
+
+    @Test
+    public void testUncachedOwnWriteIsAnEcho() throws InterruptedException {
+        database.addListener((id, kind) -> published.add(id + " " + kind));
+        Event big = event("Big");
+        char[] description = new char[(int) RecordCache.DEFAULT_MAX_BYTES + 1];
+        Arrays.fill(description, 'x');
+        big.setDescription(new String(description));
+
+        // too large for the cache, so only the file's stamp tells the watcher it is this process's own
+        database.write(big, "Big");
+        Thread.sleep(1000);
+
+        assertEquals(Collections.singletonList("Big WRITTEN"), published);
+        assertNull(database.getCache().peek("Big"));
+    }
+
+    @Test
+    public void testOtherProcessChangesArePublishedAfterRefresh() throws IOException, InterruptedException {
+        database.write(event("Keynote", "alice"), "Keynote");
+        assertEquals(Collections.singleton("alice"), database.read("Keynote").getAttendees());
+        database.addListener((id, kind) -> published.add(id + " " + kind + " "
+                + database.lookup("attendees", "bob") + " " + database.read(id).getAttendees()));
+
+        writeBehindBack(event("Keynote", "bob"));
+        awaitPublished(1);
+
+        assertEquals(Collections.singletonList("Keynote WRITTEN [Keynote] [bob]"), published);
+        assertTrue(database.lookup("attendees", "alice").isEmpty());
+    }
+
+    @Test
+    public void testOtherProcessDeleteIsPublishedAfterRefresh() throws IOException, InterruptedException {
+        database.write(event("Keynote", "alice"), "Keynote");
+        database.addListener((id, kind) -> published.add(id + " " + kind + " " + database.exists(id) + " "
+                + database.lookup("attendees", "alice")));
+
+        Files.delete(new File(folder.getRoot(), "Event/Event-Keynote.json").toPath());
+        awaitPublished(1);
+
+        assertEquals(Collections.singletonList("Keynote DELETED false []"), published);
+    }
+}
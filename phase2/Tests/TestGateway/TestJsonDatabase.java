@@ -0,0 +1,230 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.JsonDatabase;
+import Gateways.RecordCodec;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TestJsonDatabase {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JsonDatabase<Event> database;
+
+    @Before
+    public void setUp() {
+        database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+    }
+
+    private static Event event(String name, boolean vip) {
+        Event event = new Event(name);
+        event.setVIPOnly(vip);
+        event.setEventCapacity(10);
+        return event;
+    }
+
+    @Test
+    public void testIdPages() {
+        for (String name : Arrays.asList("Panel", "Keynote", "Workshop", "Demo")) {
+            database.write(event(name, false), name);
+        }
+
+        assertEquals(Arrays.asList("Demo", "Keynote"), database.getIds(null, 2));
+        assertEquals(Arrays.asList("Panel", "Workshop"), database.getIds("Keynote", 2));
+        assertEquals(Arrays.asList("Panel", "Workshop"), database.getIds("Lunch", 5));
+        assertTrue(database.getIds("Workshop", 2).isEmpty());
+
+        database.delete("Keynote");
+        assertEquals(Arrays.asList("Demo", "Panel"), database.getIds(null, 2));
+    }
+
+    @Test
+    public void testPageBoundaries() {
+        database.addIndex("VIPOnly", Event::isVIPOnly);
+        for (String name : Arrays.asList("Panel", "Keynote", "Workshop", "Demo")) {
+            database.write(event(name, true), name);
+        }
+
+        assertTrue(database.getIds(null, 0).isEmpty());
+        assertTrue(database.getIds("Keynote", 0).isEmpty());
+        assertTrue(database.getIds("Zoo", 2).isEmpty());
+        assertEquals(Arrays.asList("Demo", "Keynote", "Panel", "Workshop"), database.getIds("Breakfast", 10));
+        assertEquals(Collections.singletonList("Workshop"), database.getIds("Panel", 1));
+
+        assertTrue(database.lookup("VIPOnly", true, null, 0).isEmpty());
+        assertTrue(database.lookup("VIPOnly", true, "Zoo", 2).isEmpty());
+        assertTrue(database.lookup("VIPOnly", false, null, 2).isEmpty());
+        assertEquals(Arrays.asList("Keynote", "Panel"), database.lookup("VIPOnly", true, "Demo", 2));
+        assertEquals(Collections.singletonList("Workshop"), database.lookup("VIPOnly", true, "Panel", 2));
+    }
+
+    @Test
+    public void testIdsAreListedFromDirectory() throws IOException {
+        File root = folder.newFolder();
+        File directory = new File(root, "Event");
+        assertTrue(directory.mkdirs());
+        RecordCodec<Event> codec = RecordCodec.forName("pretty", Event.class);
+        for (String name : Arrays.asList("Workshop", "Keynote")) {
+            Files.write(new File(directory, "Event-" + name + ".json").toPath(), codec.encode(event(name, false)));
+        }
+        // left over from an interrupted write, and not a record at all
+        Files.write(new File(directory, ".Event-123.tmp").toPath(), new byte[]{'{'});
+        Files.write(new File(directory, "notes.txt").toPath(), new byte[0]);
+
+        JsonDatabase<Event> listed = new JsonDatabase<>(root.getPath(), "Event", Event.class);
+        assertEquals(Arrays.asList("Keynote", "Workshop"), listed.getIds());
+        assertTrue(listed.exists("Keynote"));
+        assertFalse(listed.exists("notes"));
+
+        listed.delete("Keynote");
+        listed.write(event("Demo", false), "Demo");
+        assertEquals(Arrays.asList("Demo", "Workshop"), listed.getIds());
+    }
+
+    @Test
+    public void testOverwritesAreAtomic() throws Exception {
+        Event small = event("Keynote", false);
+        Event large = event("Keynote", false);
+        large.setEventCapacity(10000);
+        for (int i = 0; i < 2000; i++) {
+            large.addAttendeeToEvent("attendee" + i);
+        }
+        database.write(small, "Keynote");
+        File file = new File(folder.getRoot(), "Event/Event-Keynote.json");
+        RecordCodec<Event> codec = RecordCodec.forName("pretty", Event.class);
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = pool.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    database.write(i % 2 == 0 ? large : small, "Keynote");
+                }
+            });
+            // straight from the file, past the cache: always a whole old or new record
+            while (!writer.isDone()) {
+                byte[] data = Files.readAllBytes(file.toPath());
+                int attendees = codec.decode(data, data.length).getAttendees().size();
+                assertTrue(attendees == 0 || attendees == 2000);
+            }
+            writer.get();
+        } finally {
+            pool.shutdown();
+        }
+
+        String[] left = new File(folder.getRoot(), "Event").list();
+        assertEquals(Collections.singletonList("Event-Keynote.json"), Arrays.asList(left));
+    }
+
+    @Test
+    public void testReadsFromDiskDecodeWholeRecords() {
+        Event big = event("Big", false);
+        char[] description = new char[100_000];
+        Arrays.fill(description, 'x');
+        big.setDescription(new String(description));
+        Event text = event("Text", false);
+        // a line break, which reading line by line used to drop, and characters of several UTF-8 bytes
+        text.setDescription("Caf\u00e9 \u2615\nsecond line \ud83c\udf89");
+        database.write(big, "Big");
+        database.write(text, "Text");
+        database.getCache().clear();
+
+        // the small record after the big one reuses the grown read buffer
+        assertEquals(100_000, database.read("Big").getDescription().length());
+        assertEquals("Caf\u00e9 \u2615\nsecond line \ud83c\udf89", database.read("Text").getDescription());
+        assertEquals(2, database.getCache().size());
+        assertEquals("Caf\u00e9 \u2615\nsecond line \ud83c\udf89", database.read("Text").getDescription());
+        assertNull(database.read("Missing"));
+    }
+
+    @Test
+    public void testScanPages() {
+        for (String name : Arrays.asList("Panel", "Keynote", "Workshop", "Demo")) {
+            database.write(event(name, !"Panel".equals(name)), name);
+        }
+
+        assertEquals(Arrays.asList("Demo", "Keynote"),
+                Arrays.asList(database.scan(null, 2, Event::isVIPOnly).keySet().toArray()));
+        assertEquals(Collections.singletonList("Workshop"),
+                Arrays.asList(database.scan("Keynote", 2, Event::isVIPOnly).keySet().toArray()));
+    }
+
+    @Test
+    public void testConcurrentUpdateAllLosesNoChange() throws Exception {
+        List<String> ids = Arrays.asList("Keynote", "Workshop", "Panel");
+        database.write(event("Keynote", false), "Keynote");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        String attendee = "attendee" + thread + "-" + i;
+                        database.updateAll(ids, (id, event) -> {
+                            Event changed = event == null ? event(id, false) : event;
+                            changed.setEventCapacity(1000);
+                            changed.addAttendeeToEvent(attendee);
+                            return changed;
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        for (String id : ids) {
+            assertEquals(200, database.read(id).getAttendees().size());
+        }
+    }
+
+    @Test
+    public void testFailedWriteChangesNothing() throws InterruptedException {
+        // a non-empty directory where the record's file should go cannot be renamed over
+        assertTrue(new File(folder.getRoot(), "Blocked/Blocked-Keynote.json/blocker").mkdirs());
+        JsonDatabase<Event> blocked = new JsonDatabase<>(folder.getRoot().getPath(), "Blocked", Event.class);
+        blocked.addIndex("VIPOnly", Event::isVIPOnly);
+        long version = blocked.version("Keynote");
+        List<String> published = new CopyOnWriteArrayList<>();
+        blocked.addListener((id, kind) -> published.add(id));
+
+        try {
+            blocked.write(event("Keynote", true), "Keynote");
+            fail("write should report the failed write");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getMessage().contains("Keynote"));
+        }
+        try {
+            blocked.compareAndWrite("Keynote", version, event("Keynote", true));
+            fail("compareAndWrite should report the failed write");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        Thread.sleep(200);
+
+        assertEquals(version, blocked.version("Keynote"));
+        assertTrue(blocked.lookup("VIPOnly", true).isEmpty());
+        assertTrue(published.isEmpty());
+    }
+}
@@ -0,0 +1,214 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.JsonDatabase;
+import Gateways.LockStripes;
+import Gateways.RecordCodec;
+import com.google.gson.stream.JsonReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.*;
+
+public class TestLockStripes {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Event event(String name) {
+        Event event = new Event(name);
+        event.setEventCapacity(1000);
+        return event;
+    }
+
+    /**
+     * @return an id in a different stripe than id.
+     */
+    private static String otherStripe(LockStripes stripes, String id) {
+        for (int i = 0; ; i++) {
+            if (stripes.get("Event" + i) != stripes.get(id)) return "Event" + i;
+        }
+    }
+
+    @Test
+    public void testUpdateRunsChangeOncePerUpdate() throws Exception {
+        JsonDatabase<Event> database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+        database.write(event("Keynote"), "Keynote");
+        AtomicInteger changes = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        String attendee = "attendee" + thread + "-" + i;
+                        assertTrue(database.update("Keynote", event -> {
+                            changes.incrementAndGet();
+                            return event.addAttendeeToEvent(attendee);
+                        }));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(200, changes.get());
+        assertEquals(200, database.read("Keynote").getAttendees().size());
+    }
+
+    @Test
+    public void testUpdateBlocksOnlyItsOwnStripe() throws Exception {
+        JsonDatabase<Event> database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+        String other = otherStripe(LockStripes.forDirectory(new File(folder.getRoot(), "Event")), "Keynote");
+        database.write(event("Keynote"), "Keynote");
+        database.write(event(other), other);
+        CountDownLatch changing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> slow = pool.submit(() -> database.update("Keynote", event -> {
+                changing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return event.addAttendeeToEvent("alice");
+            }));
+            assertTrue(changing.await(5, TimeUnit.SECONDS));
+
+            // another record is written and read while the update holds its stripe
+            database.write(event(other), other);
+            assertNotNull(database.read(other));
+            // the record being updated is not read half way through
+            Future<Event> read = pool.submit(() -> database.read("Keynote"));
+            try {
+                read.get(200, TimeUnit.MILLISECONDS);
+                fail("read should wait for the update");
+            } catch (TimeoutException e) {
+                // waiting for the write lock
+            }
+
+            release.countDown();
+            slow.get(5, TimeUnit.SECONDS);
+            assertEquals(Collections.singleton("alice"), read.get(5, TimeUnit.SECONDS).getAttendees());
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLockAllInAnyOrderDoesNotDeadlock() throws Exception {
+        LockStripes stripes = new LockStripes();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            ids.add("Event" + i);
+        }
+        List<String> reversed = new ArrayList<>(ids);
+        Collections.reverse(reversed);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<String> order : Arrays.asList(ids, reversed)) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        List<Lock> locks = stripes.lockAll(order);
+                        stripes.unlockAll(locks);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A codec that fails to write while failing is set, the way a full disk would.
+     */
+    private static class FailingCodec implements RecordCodec<Event> {
+        private final RecordCodec<Event> codec = RecordCodec.forName("pretty", Event.class);
+        private final AtomicBoolean failing = new AtomicBoolean();
+
+        @Override
+        public String getName() {
+            return codec.getName();
+        }
+
+        @Override
+        public byte[] encode(Event obj) {
+            if (failing.get()) throw new UncheckedIOException(new IOException("No space left on device"));
+            return codec.encode(obj);
+        }
+
+        @Override
+        public Event decode(byte[] data, int length) {
+            return codec.decode(data, length);
+        }
+
+        @Override
+        public JsonReader reader(byte[] data, int length) {
+            return codec.reader(data, length);
+        }
+
+        @Override
+        public boolean wrote(byte[] data, int length) {
+            return codec.wrote(data, length);
+        }
+    }
+
+    @Test
+    public void testFailedUpdateChangesNothing() throws InterruptedException {
+        FailingCodec codec = new FailingCodec();
+        JsonDatabase<Event> database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class, codec);
+        database.addMultiIndex("attendees", Event::getAttendees);
+        database.write(event("Keynote"), "Keynote");
+        long version = database.version("Keynote");
+        List<String> published = new CopyOnWriteArrayList<>();
+        database.addListener((id, kind) -> published.add(id));
+
+        codec.failing.set(true);
+        try {
+            database.update("Keynote", event -> event.addAttendeeToEvent("alice"));
+            fail("update should report the failed write");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        Thread.sleep(200);
+
+        assertEquals(version, database.version("Keynote"));
+        assertTrue(database.read("Keynote").getAttendees().isEmpty());
+        assertTrue(database.lookup("attendees", "alice").isEmpty());
+        assertTrue(published.isEmpty());
+
+        codec.failing.set(false);
+        assertTrue(database.update("Keynote", event -> event.addAttendeeToEvent("alice")));
+        assertEquals(Collections.singletonList("Keynote"), database.lookup("attendees", "alice"));
+    }
+}
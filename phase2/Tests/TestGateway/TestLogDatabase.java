@@ -0,0 +1,275 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.LogDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TestLogDatabase {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogDatabase<Event> database;
+
+    @Before
+    public void setUp() {
+        database = open();
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    private LogDatabase<Event> open() {
+        return new LogDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+    }
+
+    private static Event event(String name, String... attendees) {
+        Event event = new Event(name);
+        event.setEventCapacity(10);
+        for (String attendee : attendees) {
+            event.addAttendeeToEvent(attendee);
+        }
+        return event;
+    }
+
+    /**
+     * Writes a record "Big" that fills the active segment, so that the next append starts a new one.
+     */
+    private void fillSegment() {
+        Event big = event("Big");
+        char[] description = new char[4 * 1024 * 1024];
+        Arrays.fill(description, 'x');
+        big.setDescription(new String(description));
+        database.write(big, "Big");
+    }
+
+    /**
+     * Fills the active segment and puts a non-empty directory where the next one goes, so that appending
+     * fails until the directory is removed.
+     *
+     * @return the directory.
+     */
+    private File blockNextSegment() {
+        fillSegment();
+        File next = new File(folder.getRoot(), "Event-log/segment-000002.data");
+        assertTrue(new File(next, "blocker").mkdirs());
+        return next;
+    }
+
+    @Test
+    public void testReopenRestoresRecords() {
+        database.write(event("Keynote", "alice"), "Keynote");
+        database.write(event("Workshop"), "Workshop");
+        database.write(event("Keynote", "alice", "bob"), "Keynote");
+        database.delete("Workshop");
+        database.close();
+
+        database = open();
+        assertEquals(new HashSet<>(Arrays.asList("alice", "bob")), database.read("Keynote").getAttendees());
+        assertNull(database.read("Workshop"));
+        assertEquals(Arrays.asList("Keynote"), database.getIds());
+    }
+
+    @Test
+    public void testCorruptHintsAreRebuilt() throws IOException {
+        database.write(event("Keynote", "alice"), "Keynote");
+        database.write(event("Workshop"), "Workshop");
+        fillSegment();
+        // makes segment 1 immutable, writing its hint file
+        database.write(event("Panel"), "Panel");
+        database.close();
+
+        // cut after the first entry (Keynote), where a hint file without a trailer would look complete
+        File hints = new File(folder.getRoot(), "Event-log/segment-000001.hint");
+        byte[] whole = Files.readAllBytes(hints.toPath());
+        Files.write(hints.toPath(), Arrays.copyOf(whole, 2 + "Keynote".length() + 8 + 4));
+
+        database = open();
+        assertEquals(Arrays.asList("Big", "Keynote", "Panel", "Workshop"), database.getIds(null, 10));
+        assertNotNull(database.read("Workshop"));
+        assertArrayEquals(whole, Files.readAllBytes(hints.toPath()));
+
+        database.close();
+        Files.write(hints.toPath(), new byte[]{1, 2, 3});
+        database = open();
+        assertEquals(Arrays.asList("Big", "Keynote", "Panel", "Workshop"), database.getIds(null, 10));
+    }
+
+    @Test
+    public void testIdPages() {
+        for (String name : Arrays.asList("Panel", "Keynote", "Workshop", "Demo")) {
+            database.write(event(name), name);
+        }
+
+        assertEquals(Arrays.asList("Demo", "Keynote"), database.getIds(null, 2));
+        assertEquals(Arrays.asList("Panel", "Workshop"), database.getIds("Keynote", 2));
+        assertEquals(Arrays.asList("Panel", "Workshop"), database.getIds("Lunch", 5));
+        assertTrue(database.getIds("Workshop", 2).isEmpty());
+        assertEquals(Arrays.asList("Panel", "Workshop"),
+                Arrays.asList(database.scan("Lunch", 5, e -> true).keySet().toArray()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSecondOpenOfDirectoryFails() {
+        open();
+    }
+
+    @Test
+    public void testCompactionKeepsLatestRecords() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            database.write(event("Event" + i, "v1"), "Event" + i);
+        }
+        for (int i = 0; i < 20; i += 2) {
+            database.write(event("Event" + i, "v2"), "Event" + i);
+        }
+        database.delete("Event1");
+        database.compact();
+
+        for (int i = 0; i < 20; i++) {
+            Event event = database.read("Event" + i);
+            if (i == 1) {
+                assertNull(event);
+            } else {
+                assertEquals(i % 2 == 0 ? "v2" : "v1", event.getAttendees().iterator().next());
+            }
+        }
+        assertEquals(19, database.getIds().size());
+
+        database.close();
+        database = open();
+        assertEquals(19, database.getIds().size());
+        assertEquals("v2", database.read("Event0").getAttendees().iterator().next());
+        assertNull(database.read("Event1"));
+    }
+
+    @Test
+    public void testEmptyIdSurvivesCompactionAndReopen() throws IOException {
+        database.write(event("", "alice"), "");
+        database.write(event("Keynote"), "Keynote");
+        database.compact();
+        database.close();
+
+        database = open();
+        assertNotNull(database.read(""));
+        assertEquals(new HashSet<>(Arrays.asList("", "Keynote")), new HashSet<>(database.getIds()));
+    }
+
+    @Test
+    public void testConcurrentUpdatesRetryOnConflict() throws Exception {
+        List<String> ids = Arrays.asList("Keynote", "Workshop");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        String attendee = "attendee" + thread + "-" + i;
+                        // the default compare-and-write retry loops
+                        database.updateAll(ids, (id, event) -> {
+                            Event changed = event == null ? event(id) : event;
+                            changed.setEventCapacity(1000);
+                            changed.addAttendeeToEvent(attendee);
+                            return changed;
+                        });
+                        database.update("Keynote", event -> event.addAttendeeToEvent(attendee + "-again"));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(400, database.read("Keynote").getAttendees().size());
+        assertEquals(200, database.read("Workshop").getAttendees().size());
+    }
+
+    @Test
+    public void testFailedUpdateChangesNothing() throws InterruptedException {
+        database.write(event("Keynote", "alice"), "Keynote");
+        File next = blockNextSegment();
+        long version = database.version("Keynote");
+        List<String> published = new CopyOnWriteArrayList<>();
+        database.addListener((id, kind) -> published.add(id));
+
+        try {
+            database.update("Keynote", event -> event.addAttendeeToEvent("bob"));
+            fail("update should report the failed append");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        Thread.sleep(200);
+
+        assertEquals(version, database.version("Keynote"));
+        assertEquals(Collections.singleton("alice"), database.read("Keynote").getAttendees());
+        assertTrue(published.isEmpty());
+
+        assertTrue(new File(next, "blocker").delete() && next.delete());
+        assertTrue(database.update("Keynote", event -> event.addAttendeeToEvent("bob")));
+        assertEquals(new HashSet<>(Arrays.asList("alice", "bob")), database.read("Keynote").getAttendees());
+    }
+
+    @Test
+    public void testFailedAppendChangesNothing() throws InterruptedException {
+        database.addMultiIndex("attendees", Event::getAttendees);
+        database.write(event("Keynote", "alice"), "Keynote");
+        File next = blockNextSegment();
+        long version = database.version("Keynote");
+        List<String> published = new CopyOnWriteArrayList<>();
+        database.addListener((id, kind) -> published.add(id));
+
+        try {
+            database.write(event("Keynote", "bob"), "Keynote");
+            fail("write should report the failed append");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        try {
+            database.compareAndWrite("Keynote", version, event("Keynote", "bob"));
+            fail("compareAndWrite should report the failed append");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        try {
+            database.delete("Keynote");
+            fail("delete should report the failed append");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        Thread.sleep(200);
+
+        assertEquals(version, database.version("Keynote"));
+        assertEquals(Collections.singleton("alice"), database.read("Keynote").getAttendees());
+        assertEquals(Collections.singletonList("Keynote"), database.lookup("attendees", "alice"));
+        assertTrue(database.lookup("attendees", "bob").isEmpty());
+        assertTrue(published.isEmpty());
+
+        assertTrue(new File(next, "blocker").delete() && next.delete());
+        assertTrue(database.compareAndWrite("Keynote", version, event("Keynote", "bob")));
+        assertEquals(Collections.singleton("bob"), database.read("Keynote").getAttendees());
+    }
+}
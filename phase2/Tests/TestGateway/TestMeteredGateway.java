@@ -0,0 +1,141 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.GatewayMetrics;
+import Gateways.JsonDatabase;
+import Gateways.LatencyHistogram;
+import Gateways.MeteredGateway;
+import Gateways.OperationStats;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class TestMeteredGateway {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    @Rule
+    public TestName test = new TestName();
+
+    private GatewayMetrics metrics;
+    private MeteredGateway<Event> gateway;
+
+    @Before
+    public void setUp() {
+        // metrics are kept per collection for the whole JVM, so each test measures its own
+        metrics = GatewayMetrics.forCollection("Event-" + test.getMethodName());
+        gateway = new MeteredGateway<>(new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class),
+                metrics);
+    }
+
+    private static Event event(String name) {
+        Event event = new Event(name);
+        event.setEventCapacity(10);
+        return event;
+    }
+
+    private long count(String operation) {
+        OperationStats stats = metrics.getOperations().get(operation);
+        return stats == null ? 0 : stats.getCount();
+    }
+
+    @Test
+    public void testCountsEveryOperation() {
+        gateway.addIndex("capacity", Event::getEventCapacity);
+        for (String name : Arrays.asList("Keynote", "Workshop", "Panel")) {
+            gateway.write(event(name), name);
+        }
+        gateway.read("Keynote");
+        gateway.read("Missing");
+        gateway.readAll(Arrays.asList("Keynote", "Panel"));
+        gateway.exists("Keynote");
+        gateway.getIds();
+        gateway.getIds(null, 2);
+        gateway.lookup("capacity", 10);
+        gateway.update("Keynote", event -> event.addAttendeeToEvent("alice"));
+        gateway.delete("Panel");
+
+        Map<String, OperationStats> operations = metrics.getOperations();
+        assertEquals(3, count("WRITE"));
+        assertEquals(2, count("READ"));
+        assertEquals(1, count("READ_ALL"));
+        assertEquals(1, count("EXISTS"));
+        assertEquals(2, count("GET_IDS"));
+        assertEquals(1, count("LOOKUP"));
+        assertEquals(1, count("UPDATE"));
+        assertEquals(1, count("DELETE"));
+        // operations never called are left out
+        assertFalse(operations.containsKey("WRITE_ALL"));
+        assertFalse(operations.containsKey("PARALLEL_SCAN"));
+        for (OperationStats stats : operations.values()) {
+            assertTrue(stats.getMaxMicros() > 0);
+            assertTrue(stats.getP50Micros() <= stats.getP99Micros());
+        }
+    }
+
+    @Test
+    public void testFailedCallsAreCounted() {
+        try {
+            gateway.lookup("missing index", 10);
+            fail("lookup on an unknown index should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(1, count("LOOKUP"));
+    }
+
+    @Test
+    public void testStreamsAreTimedWhenConsumed() {
+        gateway.write(event("Keynote"), "Keynote");
+        gateway.write(event("Workshop"), "Workshop");
+
+        try (Stream<Event> events = gateway.filterStream(event -> true)) {
+            assertEquals(0, count("FILTER_STREAM"));
+            assertEquals(2, events.count());
+        }
+        assertEquals(1, count("FILTER_STREAM"));
+    }
+
+    @Test
+    public void testBytesAndCacheOfDecoratedGateway() {
+        gateway.write(event("Keynote"), "Keynote");
+        gateway.read("Keynote");
+        gateway.read("Keynote");
+
+        assertTrue(metrics.getBytesWritten() > 0);
+        assertEquals(2, metrics.getCacheHits());
+        assertEquals(0, metrics.getCacheMisses());
+        assertEquals(1.0, metrics.getCacheHitRatio(), 0);
+
+        String dump = metrics.dump();
+        assertTrue(dump, dump.startsWith("[Event-" + test.getMethodName() + "]"));
+        assertTrue(dump, dump.contains("READ"));
+        assertTrue(GatewayMetrics.dumpAll().contains(dump));
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(50), 0);
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1_000);
+        }
+        histogram.record(1_000_000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals((99 * 1 + 1000) / 100.0, histogram.getMeanMicros(), 1e-9);
+        assertEquals(1000, histogram.getMaxMicros(), 0);
+        // within the first bucket, under 2 microseconds
+        assertEquals(2, histogram.getPercentileMicros(50), 0);
+        assertEquals(2, histogram.getPercentileMicros(99), 0);
+        // the last bucket reaches 1024 microseconds, but nothing took longer than the maximum
+        assertEquals(1000, histogram.getPercentileMicros(100), 0);
+    }
+}
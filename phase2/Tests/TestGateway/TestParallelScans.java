@@ -0,0 +1,87 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.JsonDatabase;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TestParallelScans {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JsonDatabase<Event> database;
+
+    @Before
+    public void setUp() {
+        database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+        Map<String, Event> events = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            Event event = new Event(String.format("Event%03d", i));
+            event.setEventCapacity(i);
+            event.setVIPOnly(i % 3 == 0);
+            events.put(event.getName(), event);
+        }
+        database.writeAll(events);
+    }
+
+    @Test
+    public void testOrderedScanMatchesSequentialScan() {
+        List<String> sequential = database.filterList(Event::isVIPOnly).stream()
+                .map(Event::getName).collect(Collectors.toList());
+        List<String> parallel = database.parallelFilterList(Event::isVIPOnly, true).stream()
+                .map(Event::getName).collect(Collectors.toList());
+
+        assertEquals(67, parallel.size());
+        assertEquals(sequential, parallel);
+        assertEquals(67, database.parallelFilterList(Event::isVIPOnly, false).size());
+    }
+
+    @Test
+    public void testScansRunInScanPool() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        database.parallelFilterList(event -> {
+            threads.add(Thread.currentThread().getName());
+            return true;
+        }, false);
+
+        assertFalse(threads.isEmpty());
+        for (String thread : threads) {
+            assertTrue(thread, thread.startsWith("gateway-scan-"));
+        }
+    }
+
+    @Test
+    public void testFindStopsAtMatch() {
+        Optional<Event> first = database.parallelFind(event -> event.getEventCapacity() > 100, true);
+        assertEquals("Event101", first.get().getName());
+        assertTrue(database.parallelFind(event -> event.getEventCapacity() > 100, false).isPresent());
+
+        assertTrue(database.parallelAnyMatch(event -> event.getEventCapacity() == 199));
+        assertFalse(database.parallelAnyMatch(event -> event.getEventCapacity() > 199));
+    }
+
+    @Test
+    public void testPredicateExceptionsArePassedOn() {
+        try {
+            database.parallelFilterList(event -> {
+                throw new IllegalArgumentException("bad predicate");
+            }, false);
+            fail("the predicate's exception should be passed on");
+        } catch (IllegalArgumentException e) {
+            // rethrown from a worker thread, possibly as a copy wrapping the original
+            assertTrue(e.getMessage().contains("bad predicate"));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.JsonDatabase;
+import Gateways.Projection;
+import Gateways.RecordCodec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TestProjection {
+    private static final Projection.Field<Integer> CAPACITY = Projection.Field.value("eventCapacity", Integer.class);
+    private static final Projection.Field<Integer> ATTENDEES = Projection.Field.size("attendees");
+    private static final Projection.Field<Integer> SPEAKERS = Projection.Field.size("speakers");
+    private static final Projection.Field<Boolean> VIP = Projection.Field.value("VIPOnly", boolean.class);
+    private static final Projection.Field<String> NAME = Projection.Field.value("name", String.class);
+    private static final Projection.Field<String> MISSING = Projection.Field.value("missing", String.class);
+    private static final Projection.Field<Integer> MISSING_SIZE = Projection.Field.size("missingList");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Event event() {
+        Event event = new Event("Keynote");
+        event.setEventCapacity(3);
+        event.setVIPOnly(true);
+        event.addAttendeeToEvent("alice");
+        event.addAttendeeToEvent("bob");
+        return event;
+    }
+
+    private static void assertProjected(Projection.Values values) {
+        assertEquals(Integer.valueOf(3), values.get(CAPACITY));
+        assertEquals(Integer.valueOf(2), values.get(ATTENDEES));
+        assertEquals(Integer.valueOf(0), values.get(SPEAKERS));
+        assertTrue(values.get(VIP));
+        assertEquals("Keynote", values.get(NAME));
+        assertNull(values.get(MISSING));
+        assertEquals(Integer.valueOf(-1), values.get(MISSING_SIZE));
+    }
+
+    @Test
+    public void testFieldsOfEveryCodecInOnePass() {
+        for (String name : Arrays.asList("pretty", "compact", "binary")) {
+            RecordCodec<Event> codec = RecordCodec.forName(name, Event.class);
+            byte[] data = codec.encode(event());
+            assertProjected(Projection.fields(codec.reader(data, data.length),
+                    CAPACITY, ATTENDEES, SPEAKERS, VIP, NAME, MISSING, MISSING_SIZE));
+        }
+    }
+
+    @Test
+    public void testFieldsOfObjectByReflection() {
+        assertProjected(Projection.fieldsOf(event(), CAPACITY, ATTENDEES, SPEAKERS, VIP, NAME, MISSING, MISSING_SIZE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSameFieldTwiceIsRejected() {
+        Projection.fieldsOf(event(), ATTENDEES, Projection.Field.value("attendees", Object.class));
+    }
+
+    @Test
+    public void testDatabaseReadsFields() {
+        JsonDatabase<Event> database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+        database.write(event(), "Keynote");
+
+        assertProjected(database.readFields("Keynote", CAPACITY, ATTENDEES, SPEAKERS, VIP, NAME, MISSING,
+                MISSING_SIZE));
+        assertNull(database.readFields("Workshop", CAPACITY));
+        assertEquals(Integer.valueOf(3), database.readField("Keynote", "eventCapacity", Integer.class));
+        assertEquals(2, database.readFieldSize("Keynote", "attendees"));
+    }
+}
@@ -0,0 +1,93 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.JsonDatabase;
+import Gateways.RecordCache;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class TestRecordCache {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] bytes(int length) {
+        return new byte[length];
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        RecordCache cache = new RecordCache(2, 1000);
+        cache.put("Keynote", bytes(10));
+        cache.put("Workshop", bytes(10));
+        // Keynote is now more recently used than Workshop
+        assertNotNull(cache.get("Keynote"));
+        cache.put("Panel", bytes(10));
+
+        assertNotNull(cache.peek("Keynote"));
+        assertNull(cache.peek("Workshop"));
+        assertNotNull(cache.peek("Panel"));
+        assertEquals(2, cache.size());
+        assertEquals(20, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testBoundedByBytes() {
+        RecordCache cache = new RecordCache(100, 25);
+        cache.put("Keynote", bytes(10));
+        cache.put("Workshop", bytes(10));
+        cache.put("Panel", bytes(10));
+
+        assertNull(cache.peek("Keynote"));
+        assertEquals(20, cache.getBytes());
+
+        // bigger than the whole cache: not cached, and nothing evicted for it
+        cache.put("Big", bytes(26));
+        assertNull(cache.peek("Big"));
+        assertFalse(cache.fits(26));
+        assertEquals(2, cache.size());
+
+        // replacing a record counts only its new size
+        cache.put("Panel", bytes(5));
+        assertEquals(15, cache.getBytes());
+        cache.invalidate("Panel");
+        assertEquals(10, cache.getBytes());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testCountsHitsAndMisses() {
+        RecordCache cache = new RecordCache(10, 1000);
+        cache.put("Keynote", bytes(10));
+        cache.get("Keynote");
+        cache.get("Keynote");
+        cache.get("Workshop");
+        // peek is not a read
+        cache.peek("Workshop");
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        cache.clear();
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testDatabaseReadsHandOutFreshObjects() {
+        JsonDatabase<Event> database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+        Event keynote = new Event("Keynote");
+        keynote.setEventCapacity(10);
+        database.write(keynote, "Keynote");
+        long hits = database.getCache().getHits();
+
+        Event read = database.read("Keynote");
+        read.addAttendeeToEvent("alice");
+
+        assertTrue(database.read("Keynote").getAttendees().isEmpty());
+        assertEquals(hits + 2, database.getCache().getHits());
+    }
+}
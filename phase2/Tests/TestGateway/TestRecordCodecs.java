@@ -0,0 +1,149 @@
+package TestGateway;
+
+import Entities.Conversation;
+import Entities.Event;
+import Entities.Message;
+import Gateways.CompressedCodec;
+import Gateways.GsonFactory;
+import Gateways.JsonDatabase;
+import Gateways.RecordCodec;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips through every codec, compressed or not.
+ */
+public class TestRecordCodecs {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static <T> List<RecordCodec<T>> codecs(Class<T> type) {
+        return Arrays.asList(RecordCodec.forName("pretty", type), RecordCodec.forName("compact", type),
+                RecordCodec.forName("binary", type),
+                new CompressedCodec<>(RecordCodec.forName("compact", type), type, 0),
+                new CompressedCodec<>(RecordCodec.forName("binary", type), type, 0),
+                new CompressedCodec<>(RecordCodec.forName("pretty", type), type, Integer.MAX_VALUE));
+    }
+
+    private static Event event() {
+        Event event = new Event("Keynote \u00e9");
+        event.setEventCapacity(50);
+        event.setVIPOnly(true);
+        event.setDescription("first line\nsecond line \ud83c\udf89");
+        for (int i = 0; i < 40; i++) {
+            event.addAttendeeToEvent("attendee" + i);
+        }
+        return event;
+    }
+
+    private static Conversation conversation() {
+        Conversation conversation = new Conversation("alice", "bob");
+        for (int i = 0; i < 200; i++) {
+            conversation.addMessage(new Message("alice", "bob", "Message \u00e9 number " + i));
+        }
+        return conversation;
+    }
+
+    /**
+     * Entities do not define equals, so objects are compared by the JSON tree Gson makes of them.
+     */
+    private static <T> void assertRoundTrip(RecordCodec<T> codec, T obj) {
+        byte[] data = codec.encode(obj);
+        // decoding must stop at length, whatever follows in the buffer
+        byte[] padded = Arrays.copyOf(data, data.length + 16);
+        Arrays.fill(padded, data.length, padded.length, (byte) '}');
+
+        assertTrue(codec.getName(), codec.wrote(padded, data.length));
+        assertEquals(codec.getName(), GsonFactory.compact().toJsonTree(obj),
+                GsonFactory.compact().toJsonTree(codec.decode(padded, data.length)));
+        assertEquals(codec.getName(), GsonFactory.compact().toJsonTree(obj),
+                JsonParser.parseReader(codec.reader(padded, data.length)));
+    }
+
+    @Test
+    public void testEveryCodecRoundTrips() {
+        for (RecordCodec<Event> codec : codecs(Event.class)) {
+            assertRoundTrip(codec, event());
+            assertRoundTrip(codec, new Event("Empty"));
+        }
+        for (RecordCodec<Conversation> codec : codecs(Conversation.class)) {
+            assertRoundTrip(codec, conversation());
+            assertRoundTrip(codec, new Conversation("alice", "bob"));
+        }
+    }
+
+    @Test
+    public void testReadersSkipToFields() throws IOException {
+        for (RecordCodec<Event> codec : codecs(Event.class)) {
+            byte[] data = codec.encode(event());
+            JsonReader reader = codec.reader(data, data.length);
+            reader.beginObject();
+            boolean found = false;
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("eventCapacity")) {
+                    assertEquals(codec.getName(), 50, reader.nextInt());
+                    found = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            assertTrue(codec.getName(), found);
+        }
+    }
+
+    @Test
+    public void testCompressionThreshold() {
+        Conversation conversation = conversation();
+        RecordCodec<Conversation> compact = RecordCodec.forName("compact", Conversation.class);
+        byte[] plain = compact.encode(conversation);
+
+        byte[] compressed = new CompressedCodec<>(compact, Conversation.class, plain.length).encode(conversation);
+        assertTrue(CompressedCodec.isCompressed(compressed, compressed.length));
+        assertTrue(compressed.length < plain.length / 2);
+
+        // below the threshold, stored exactly as the inner codec wrote it
+        byte[] small = new CompressedCodec<>(compact, Conversation.class, plain.length + 1).encode(conversation);
+        assertArrayEquals(plain, small);
+        assertFalse(CompressedCodec.isCompressed(small, small.length));
+    }
+
+    @Test
+    public void testCompressedPayloadsOfOtherCodecsAreRead() {
+        CompressedCodec<Event> compressed = new CompressedCodec<>(RecordCodec.forName("compact", Event.class),
+                Event.class, 0);
+        // compressed by a collection that used another inner codec before switching
+        for (String name : Arrays.asList("binary", "compact", "pretty")) {
+            byte[] data = new CompressedCodec<>(RecordCodec.forName(name, Event.class), Event.class, 0)
+                    .encode(event());
+            assertTrue(name, CompressedCodec.isCompressed(data, data.length));
+            assertEquals(name, GsonFactory.compact().toJsonTree(event()),
+                    GsonFactory.compact().toJsonTree(compressed.decode(data, data.length)));
+        }
+    }
+
+    @Test
+    public void testDatabaseRoundTripsThroughCompression() {
+        JsonDatabase<Conversation> database = new JsonDatabase<>(folder.getRoot().getPath(), "Conversation",
+                Conversation.class, new CompressedCodec<>(RecordCodec.forName("compact", Conversation.class),
+                Conversation.class, 1024));
+        Conversation large = conversation();
+        Conversation small = new Conversation("alice", "carol");
+        database.write(large, "alice-bob");
+        database.write(small, "alice-carol");
+        database.getCache().clear();
+
+        assertEquals(GsonFactory.compact().toJsonTree(large),
+                GsonFactory.compact().toJsonTree(database.read("alice-bob")));
+        assertEquals(GsonFactory.compact().toJsonTree(small),
+                GsonFactory.compact().toJsonTree(database.read("alice-carol")));
+    }
+}
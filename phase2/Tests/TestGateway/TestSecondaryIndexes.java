@@ -0,0 +1,77 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.JsonDatabase;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class TestSecondaryIndexes {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JsonDatabase<Event> database;
+
+    @Before
+    public void setUp() {
+        database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+    }
+
+    private static Event event(String name, boolean vip, String... attendees) {
+        Event event = new Event(name);
+        event.setVIPOnly(vip);
+        event.setEventCapacity(10);
+        for (String attendee : attendees) {
+            event.addAttendeeToEvent(attendee);
+        }
+        return event;
+    }
+
+    @Test
+    public void testIndexesFollowWritesAndDeletes() {
+        database.write(event("Keynote", true, "alice"), "Keynote");
+        database.write(event("Workshop", false, "alice", "bob"), "Workshop");
+        database.addIndex("VIPOnly", Event::isVIPOnly);
+        database.addMultiIndex("attendees", Event::getAttendees);
+
+        assertEquals(Collections.singletonList("Keynote"), database.lookup("VIPOnly", true));
+        assertEquals(Arrays.asList("Keynote", "Workshop"), database.lookup("attendees", "alice"));
+
+        database.write(event("Workshop", true, "bob"), "Workshop");
+        database.write(event("Panel", false, "carol"), "Panel");
+        database.delete("Keynote");
+
+        assertEquals(Collections.singletonList("Workshop"), database.lookup("VIPOnly", true));
+        assertEquals(Collections.singletonList("Panel"), database.lookup("VIPOnly", false));
+        assertTrue(database.lookup("attendees", "alice").isEmpty());
+        assertEquals(Collections.singletonList("Workshop"), database.lookup("attendees", "bob"));
+        assertEquals(Collections.singletonList("Workshop"), database.lookup("attendees", "bob", null, 1));
+        assertTrue(database.lookup("attendees", "bob", "Workshop", 1).isEmpty());
+    }
+
+    @Test
+    public void testDeleteDuringBuildIsNotIndexed() {
+        database.write(event("Keynote", true), "Keynote");
+        database.write(event("Workshop", true), "Workshop");
+        AtomicBoolean deleted = new AtomicBoolean();
+        JsonDatabase<Event> deleting = new JsonDatabase<Event>(folder.getRoot().getPath(), "Event", Event.class) {
+            @Override
+            public Event read(String id) {
+                Event event = super.read(id);
+                // deleted by another thread after the build read it, but before the build indexed it
+                if ("Workshop".equals(id) && deleted.compareAndSet(false, true)) delete(id);
+                return event;
+            }
+        };
+        deleting.addIndex("VIPOnly", Event::isVIPOnly);
+
+        assertEquals(Collections.singletonList("Keynote"), deleting.lookup("VIPOnly", true));
+    }
+}
@@ -0,0 +1,140 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.JsonDatabase;
+import Gateways.RecordCodec;
+import Gateways.ShardLayout;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TestShardLayout {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Event event(String name) {
+        Event event = new Event(name);
+        event.setEventCapacity(10);
+        return event;
+    }
+
+    @Test
+    public void testFlatPaths() {
+        File directory = new File("Messages");
+        ShardLayout layout = new ShardLayout(directory, "Messages", false);
+
+        assertFalse(layout.isSharded());
+        assertEquals(new File(directory, "Messages-alice-bob.json"), layout.file("alice-bob"));
+        assertEquals(layout.file("alice-bob"), layout.flatFile("alice-bob"));
+    }
+
+    @Test
+    public void testShardedPaths() {
+        File directory = new File("Messages");
+        ShardLayout layout = new ShardLayout(directory, "Messages", true);
+
+        File file = layout.file("alice-bob");
+        File leaf = file.getParentFile();
+        assertEquals("Messages-alice-bob.json", file.getName());
+        assertEquals(layout.shardOf("alice-bob"), leaf);
+        assertTrue(leaf.getName().matches("[0-9a-f]{2}"));
+        assertTrue(leaf.getParentFile().getName().matches("[0-9a-f]"));
+        assertEquals(directory, leaf.getParentFile().getParentFile());
+        // the same id always goes to the same shard, and the flat file is where it was before sharding
+        assertEquals(file, new ShardLayout(directory, "Messages", true).file("alice-bob"));
+        assertEquals(new File(directory, "Messages-alice-bob.json"), layout.flatFile("alice-bob"));
+
+        Set<File> shards = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            shards.add(layout.shardOf("user" + i));
+        }
+        assertTrue(shards.size() > 500);
+    }
+
+    @Test
+    public void testIdsOfFileNames() {
+        ShardLayout layout = new ShardLayout(new File("Messages"), "Messages", true);
+
+        assertEquals("alice-bob", layout.idOf("Messages-alice-bob.json"));
+        assertNull(layout.idOf(".Messages-123.tmp"));
+        assertNull(layout.idOf("Messages-alice.json.tmp"));
+        assertNull(layout.idOf("Events-alice.json"));
+        assertNull(layout.idOf("7"));
+    }
+
+    @Test
+    public void testLayoutNames() {
+        assertFalse(ShardLayout.isSharded(ShardLayout.FLAT));
+        assertTrue(ShardLayout.isSharded(ShardLayout.SHARDED));
+        try {
+            ShardLayout.isSharded("nested");
+            fail("unknown layouts should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testShardedDatabaseListsEveryShard() {
+        JsonDatabase<Event> database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class,
+                RecordCodec.forName("pretty", Event.class), true);
+        ShardLayout layout = new ShardLayout(new File(folder.getRoot(), "Event"), "Event", true);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            names.add(String.format("Event%03d", i));
+            database.write(event(names.get(i)), names.get(i));
+        }
+        database.delete("Event050");
+        names.remove("Event050");
+
+        assertEquals(names, database.getIds());
+        assertEquals(Arrays.asList("Event098", "Event099"), database.getIds("Event097", 10));
+        assertTrue(layout.file("Event007").exists());
+        assertFalse(layout.file("Event050").exists());
+        assertFalse(layout.flatFile("Event007").exists());
+        assertEquals("Event007", database.read("Event007").getName());
+    }
+
+    @Test
+    public void testFlatRecordsAreMigrated() throws IOException, InterruptedException {
+        File directory = new File(folder.getRoot(), "Event");
+        assertTrue(directory.mkdirs());
+        ShardLayout layout = new ShardLayout(directory, "Event", true);
+        RecordCodec<Event> codec = RecordCodec.forName("pretty", Event.class);
+        for (String name : Arrays.asList("Keynote", "Workshop", "Panel")) {
+            Files.write(layout.flatFile(name).toPath(), codec.encode(event(name)));
+        }
+
+        JsonDatabase<Event> database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class,
+                codec, true);
+        // readable before and after being moved
+        assertEquals("Keynote", database.read("Keynote").getName());
+        assertEquals(Arrays.asList("Keynote", "Panel", "Workshop"), database.getIds());
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (directory.list((dir, name) -> name.endsWith(".json")).length > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        for (String name : Arrays.asList("Keynote", "Workshop", "Panel")) {
+            assertFalse(layout.flatFile(name).exists());
+            assertTrue(layout.file(name).exists());
+            assertEquals(name, database.read(name).getName());
+        }
+        assertEquals(Arrays.asList("Keynote", "Panel", "Workshop"), database.getIds());
+        database.delete("Panel");
+        assertEquals(Collections.singletonList("Workshop"), database.getIds("Keynote", 5));
+    }
+}
@@ -0,0 +1,157 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.JsonDatabase;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Two processes sharing one database directory: the test and another JVM running {@link #main}.
+ */
+public class TestSharedProcesses {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JsonDatabase<Event> database;
+
+    @Before
+    public void setUp() throws IOException {
+        database = open(folder.getRoot().getPath());
+        database.addMultiIndex("attendees", Event::getAttendees);
+        database.addIndex("VIPOnly", Event::isVIPOnly);
+    }
+
+    private static JsonDatabase<Event> open(String root) throws IOException {
+        JsonDatabase<Event> database = new JsonDatabase<>(root, "Event", Event.class);
+        database.enableProcessLocks();
+        return database;
+    }
+
+    private static Event event(String name, boolean vip, String... attendees) {
+        Event event = new Event(name);
+        event.setVIPOnly(vip);
+        event.setEventCapacity(200);
+        for (String attendee : attendees) {
+            event.addAttendeeToEvent(attendee);
+        }
+        return event;
+    }
+
+    /**
+     * The other process. Opens the database in args[0] and runs one command on it:
+     * "write name attendee..." writes a VIP event, "delete name" deletes it and "signup name prefix n" signs
+     * up n attendees, one update each.
+     */
+    public static void main(String[] args) throws IOException {
+        JsonDatabase<Event> database = open(args[0]);
+        String name = args[2];
+        switch (args[1]) {
+            case "write":
+                database.write(event(name, true, Arrays.copyOfRange(args, 3, args.length)), name);
+                break;
+            case "delete":
+                database.delete(name);
+                break;
+            case "signup":
+                for (int i = 0; i < Integer.parseInt(args[4]); i++) {
+                    String attendee = args[3] + i;
+                    database.update(name, event -> event.addAttendeeToEvent(attendee));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(args[1]);
+        }
+    }
+
+    private Process start(String... args) throws IOException {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                TestSharedProcesses.class.getName(), folder.getRoot().getPath()));
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    private static void finish(Process process) throws InterruptedException {
+        assertTrue("other process timed out", process.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(0, process.exitValue());
+    }
+
+    private void run(String... args) throws IOException, InterruptedException {
+        finish(start(args));
+    }
+
+    /**
+     * Waits until the watcher has caught up with the other process.
+     */
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void testOtherProcessChangesReachIndexes() throws IOException, InterruptedException {
+        database.write(event("Keynote", false, "alice"), "Keynote");
+        assertEquals(Collections.singletonList("Keynote"), database.getIds());
+        long version = database.version("Keynote");
+        Set<String> published = Collections.synchronizedSet(new HashSet<>());
+        database.addListener((id, kind) -> published.add(id));
+
+        run("write", "Keynote", "bob");
+        run("write", "Workshop", "carol");
+        await(() -> published.containsAll(Arrays.asList("Keynote", "Workshop")));
+
+        assertEquals(Arrays.asList("Keynote", "Workshop"), database.getIds());
+        assertEquals(Collections.singleton("bob"), database.read("Keynote").getAttendees());
+        assertTrue(database.lookup("attendees", "alice").isEmpty());
+        assertEquals(Collections.singletonList("Keynote"), database.lookup("attendees", "bob"));
+        assertEquals(Collections.singletonList("Workshop"), database.lookup("attendees", "carol"));
+        assertEquals(Arrays.asList("Keynote", "Workshop"), database.lookup("VIPOnly", true));
+        assertTrue(database.lookup("VIPOnly", false).isEmpty());
+        assertNotEquals(version, database.version("Keynote"));
+        assertFalse(database.compareAndWrite("Keynote", version, event("Keynote", false, "alice")));
+
+        published.clear();
+        run("delete", "Workshop");
+        await(() -> published.contains("Workshop"));
+
+        assertEquals(Collections.singletonList("Keynote"), database.getIds());
+        assertFalse(database.exists("Workshop"));
+        assertTrue(database.lookup("attendees", "carol").isEmpty());
+        assertEquals(Collections.singletonList("Keynote"), database.lookup("VIPOnly", true));
+    }
+
+    @Test
+    public void testUpdatesAreAtomicAcrossProcesses() throws IOException, InterruptedException {
+        database.write(event("Keynote", false), "Keynote");
+
+        Process other = start("signup", "Keynote", "other", "50");
+        for (int i = 0; i < 50; i++) {
+            String attendee = "local" + i;
+            assertTrue(database.update("Keynote", event -> event.addAttendeeToEvent(attendee)));
+        }
+        finish(other);
+
+        assertEquals(100, database.read("Keynote").getAttendees().size());
+        await(() -> !database.lookup("attendees", "other49").isEmpty());
+        assertEquals(Collections.singletonList("Keynote"), database.lookup("attendees", "other49"));
+        assertEquals(Collections.singletonList("Keynote"), database.lookup("attendees", "local49"));
+    }
+}
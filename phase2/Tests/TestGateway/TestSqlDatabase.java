@@ -0,0 +1,176 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.RecordCodec;
+import Gateways.SqlDatabase;
+import Gateways.VersionTable;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestSqlDatabase {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String url;
+    private SqlDatabase<Event> database;
+
+    @Before
+    public void setUp() {
+        url = "jdbc:sqlite:" + folder.getRoot().getPath() + "/conference.db";
+        // not vendored, see SqlDatabase
+        Assume.assumeTrue("sqlite-jdbc is not in phase2/lib", SqlDatabase.hasDriver(url));
+        database = open();
+    }
+
+    private SqlDatabase<Event> open() {
+        return new SqlDatabase<>(url, "Event", Event.class, RecordCodec.forName("compact", Event.class));
+    }
+
+    private static Event event(String name, boolean vip, String... attendees) {
+        Event event = new Event(name);
+        event.setVIPOnly(vip);
+        event.setEventCapacity(10);
+        for (String attendee : attendees) {
+            event.addAttendeeToEvent(attendee);
+        }
+        return event;
+    }
+
+    @Test
+    public void testWriteReadDelete() {
+        database.write(event("Keynote", false, "alice"), "Keynote");
+        Map<String, Event> events = new HashMap<>();
+        events.put("Workshop", event("Workshop", false));
+        events.put("Panel", event("Panel", true));
+        database.writeAll(events);
+
+        assertEquals(Collections.singleton("alice"), database.read("Keynote").getAttendees());
+        assertEquals(new HashSet<>(Arrays.asList("Keynote", "Workshop", "Panel")), new HashSet<>(database.getIds()));
+        assertEquals(Arrays.asList("Panel", "Keynote"), Arrays.asList(
+                database.readAll(Arrays.asList("Panel", "Missing", "Keynote")).keySet().toArray()));
+        assertEquals(1, database.readFieldSize("Keynote", "attendees"));
+
+        assertNotNull(database.delete("Workshop"));
+        assertNull(database.read("Workshop"));
+        assertNull(database.delete("Workshop"));
+        assertFalse(database.exists("Workshop"));
+    }
+
+    @Test
+    public void testIdPages() {
+        for (String name : Arrays.asList("Panel", "Keynote", "Workshop", "Demo")) {
+            database.write(event(name, false), name);
+        }
+
+        assertEquals(Arrays.asList("Demo", "Keynote"), database.getIds(null, 2));
+        assertEquals(Arrays.asList("Panel", "Workshop"), database.getIds("Keynote", 2));
+        assertEquals(Arrays.asList("Panel", "Workshop"), database.getIds("Lunch", 5));
+        assertTrue(database.getIds("Workshop", 2).isEmpty());
+    }
+
+    @Test
+    public void testCompareAndWrite() {
+        assertTrue(database.compareAndWrite("Keynote", VersionTable.ABSENT, event("Keynote", false)));
+        assertFalse(database.compareAndWrite("Keynote", VersionTable.ABSENT, event("Keynote", false)));
+
+        long version = database.version("Keynote");
+        assertTrue(database.compareAndWrite("Keynote", version, event("Keynote", false, "alice")));
+        assertFalse(database.compareAndWrite("Keynote", version, event("Keynote", false, "bob")));
+        assertEquals(Collections.singleton("alice"), database.read("Keynote").getAttendees());
+
+        assertTrue(database.update("Keynote", event -> event.addAttendeeToEvent("bob")));
+        assertEquals(new HashSet<>(Arrays.asList("alice", "bob")), database.read("Keynote").getAttendees());
+    }
+
+    @Test
+    public void testIndexesFollowWritesAndDeletes() {
+        database.addIndex("VIPOnly", Event::isVIPOnly);
+        database.addMultiIndex("attendees", Event::getAttendees);
+        database.write(event("Keynote", true, "alice"), "Keynote");
+        database.write(event("Workshop", false, "alice", "bob"), "Workshop");
+        database.write(event("Panel", true, "bob"), "Panel");
+
+        assertEquals(Arrays.asList("Keynote", "Panel"), database.lookup("VIPOnly", true));
+        assertEquals(Arrays.asList("Keynote", "Workshop"), database.lookup("attendees", "alice"));
+        assertEquals(Collections.singletonList("Panel"), database.lookup("VIPOnly", true, "Keynote", 5));
+
+        database.write(event("Keynote", false, "bob"), "Keynote");
+        database.delete("Panel");
+        assertTrue(database.lookup("VIPOnly", true).isEmpty());
+        assertEquals(Collections.singletonList("Workshop"), database.lookup("attendees", "alice"));
+        assertEquals(Arrays.asList("Keynote", "Workshop"), database.lookup("attendees", "bob"));
+    }
+
+    @Test
+    public void testIndexesAreRebuiltWhenRegistered() {
+        database.addIndex("VIPOnly", Event::isVIPOnly);
+        database.addMultiIndex("attendees", Event::getAttendees);
+        database.write(event("Keynote", true, "alice"), "Keynote");
+
+        // written by a program that does not use the indexes
+        SqlDatabase<Event> unindexed = open();
+        unindexed.write(event("Keynote", false, "bob"), "Keynote");
+        unindexed.write(event("Workshop", true, "alice"), "Workshop");
+
+        SqlDatabase<Event> reopened = open();
+        reopened.addIndex("VIPOnly", Event::isVIPOnly);
+        reopened.addMultiIndex("attendees", Event::getAttendees);
+        assertEquals(Collections.singletonList("Workshop"), reopened.lookup("VIPOnly", true));
+        assertEquals(Collections.singletonList("Workshop"), reopened.lookup("attendees", "alice"));
+        assertEquals(Collections.singletonList("Keynote"), reopened.lookup("attendees", "bob"));
+    }
+
+    @Test
+    public void testWritesLeaveUnregisteredIndexesAlone() {
+        database.addMultiIndex("attendees", Event::getAttendees);
+        database.write(event("Keynote", true, "alice"), "Keynote");
+
+        SqlDatabase<Event> other = open();
+        other.addIndex("VIPOnly", Event::isVIPOnly);
+        other.write(event("Keynote", true, "alice"), "Keynote");
+
+        assertEquals(Collections.singletonList("Keynote"), database.lookup("attendees", "alice"));
+        assertEquals(Collections.singletonList("Keynote"), other.lookup("VIPOnly", true));
+    }
+
+    @Test
+    public void testExists() {
+        for (int i = 0; i < 100; i++) {
+            database.write(event("Event" + i, false), "Event" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(database.exists("Event" + i));
+            assertFalse(database.exists("Missing" + i));
+        }
+
+        // inserted behind the Bloom filter's back
+        database.enableProcessSharing();
+        open().write(event("Late", false), "Late");
+        assertTrue(database.exists("Late"));
+        assertFalse(database.exists("Missing"));
+    }
+
+    @Test
+    public void testApplyJournaled() throws IOException {
+        database.addMultiIndex("attendees", Event::getAttendees);
+        database.write(event("Old", false, "alice"), "Old");
+
+        database.applyJournaled(Collections.singletonMap("Keynote", event("Keynote", false, "alice")),
+                Collections.singletonList("Old"));
+        assertNull(database.read("Old"));
+        assertNotNull(database.read("Keynote"));
+        assertEquals(Collections.singletonList("Keynote"), database.lookup("attendees", "alice"));
+    }
+}
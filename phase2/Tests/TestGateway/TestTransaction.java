@@ -0,0 +1,237 @@
+package TestGateway;
+
+import Entities.Event;
+import Gateways.GatewayFactory;
+import Gateways.GsonFactory;
+import Gateways.IGateway;
+import Gateways.JsonDatabase;
+import Gateways.ShardLayout;
+import Gateways.Transaction;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class TestTransaction {
+    private static final File JOURNAL = new File(Transaction.JOURNAL);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String first;
+    private String second;
+    private IGateway<Event> events;
+    private IGateway<Event> others;
+
+    @Before
+    public void setUp() throws IOException {
+        first = "TransactionEvents" + System.nanoTime();
+        second = "TransactionOthers" + System.nanoTime();
+        events = GatewayFactory.create(first, Event.class);
+        others = GatewayFactory.create(second, Event.class);
+        // every test leaves the journal fully applied, so it can be cleared
+        try (RandomAccessFile journal = new RandomAccessFile(JOURNAL, "rw")) {
+            journal.setLength(0);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        delete(new File(JsonDatabase.DIRECTORY_ROOT, first));
+        delete(new File(JsonDatabase.DIRECTORY_ROOT, second));
+    }
+
+    private static void delete(File directory) throws IOException {
+        if (!directory.exists()) return;
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static Event event(String name, String... attendees) {
+        Event event = new Event(name);
+        event.setEventCapacity(500);
+        for (String attendee : attendees) {
+            event.addAttendeeToEvent(attendee);
+        }
+        return event;
+    }
+
+    /**
+     * @return the state byte of the journal record starting at position: 0 if journaled, 1 if applied.
+     */
+    private static int state(long position) throws IOException {
+        try (RandomAccessFile journal = new RandomAccessFile(JOURNAL, "r")) {
+            journal.seek(position + 8);
+            return journal.read();
+        }
+    }
+
+    private static long recordLength(long position) throws IOException {
+        try (RandomAccessFile journal = new RandomAccessFile(JOURNAL, "r")) {
+            journal.seek(position);
+            return 9 + journal.readInt();
+        }
+    }
+
+    @Test
+    public void testCommitAppliesEveryOperation() throws IOException {
+        events.write(event("Old"), "Old");
+        new Transaction()
+                .write(events, event("Keynote", "alice"), "Keynote")
+                .write(others, event("Workshop"), "Workshop")
+                .delete(events, "Old")
+                .commit();
+
+        assertTrue(events.read("Keynote").getAttendees().contains("alice"));
+        assertNotNull(others.read("Workshop"));
+        assertNull(events.read("Old"));
+        assertEquals(1, state(0));
+    }
+
+    @Test
+    public void testUnappliedRecordIsAppliedByNextCommit() throws IOException {
+        // a record journaled by a program that stopped before applying it
+        JsonObject op = new JsonObject();
+        op.addProperty("collection", first);
+        op.addProperty("type", Event.class.getName());
+        op.addProperty("id", "Recovered");
+        op.add("value", GsonFactory.compact().toJsonTree(event("Recovered", "bob")));
+        JsonArray ops = new JsonArray();
+        ops.add(op);
+        byte[] body = ops.toString().getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        try (RandomAccessFile journal = new RandomAccessFile(JOURNAL, "rw")) {
+            journal.writeInt(body.length);
+            journal.writeInt((int) crc.getValue());
+            journal.write(0);
+            journal.write(body);
+            // torn tail of a record that was never committed
+            journal.write(new byte[]{0, 0, 1});
+        }
+
+        new Transaction().write(others, event("Next"), "Next").commit();
+
+        assertTrue(events.read("Recovered").getAttendees().contains("bob"));
+        assertNotNull(others.read("Next"));
+        assertEquals(1, state(0));
+        long second = recordLength(0);
+        assertEquals(1, state(second));
+        assertEquals(second + recordLength(second), JOURNAL.length());
+    }
+
+    @Test
+    public void testFailedApplyKeepsRecord() throws IOException {
+        // a non-empty directory where the record's file goes cannot be replaced
+        File blocked = new ShardLayout(new File(JsonDatabase.DIRECTORY_ROOT, first), first, false).file("Blocked");
+        assertTrue(new File(blocked, "file").mkdirs());
+
+        Transaction transaction = new Transaction()
+                .write(events, event("Blocked"), "Blocked")
+                .write(others, event("Fine"), "Fine");
+        try {
+            transaction.commit();
+            fail("commit should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, state(0));
+
+        delete(blocked);
+        new Transaction().write(others, event("Next"), "Next").commit();
+
+        assertNotNull(events.read("Blocked"));
+        assertNotNull(others.read("Fine"));
+        assertNotNull(others.read("Next"));
+        assertEquals(1, state(0));
+    }
+
+    @Test
+    public void testCheckpointClearsJournal() throws IOException {
+        String[] attendees = new String[200];
+        for (int i = 0; i < attendees.length; i++) {
+            attendees[i] = "attendee" + i;
+        }
+        long previous = 0;
+        int commits = 0;
+        while (JOURNAL.length() >= previous) {
+            assertTrue("journal never checkpointed", commits < 1000);
+            previous = JOURNAL.length();
+            new Transaction().write(events, event("Event" + commits, attendees), "Event" + commits).commit();
+            commits++;
+        }
+
+        assertEquals(0, JOURNAL.length());
+        assertTrue(commits > 1);
+        for (int i = 0; i < commits; i++) {
+            assertEquals(200, events.read("Event" + i).getAttendees().size());
+        }
+    }
+
+    /**
+     * A program run in another JVM, in the working directory of a test, so that it recovers the journal of
+     * that directory alone. "commit" commits a transaction writing Keynote, writes Keynote again outside any
+     * transaction and then stops without running its shutdown hooks, as if it crashed. "recover" only opens
+     * the collection, which recovers the journal.
+     */
+    public static void main(String[] args) {
+        IGateway<Event> events = GatewayFactory.create("Event", Event.class);
+        if (args[0].equals("commit")) {
+            try {
+                new Transaction().write(events, event("Keynote", "alice"), "Keynote").commit();
+            } catch (IOException e) {
+                e.printStackTrace();
+                Runtime.getRuntime().halt(1);
+            }
+            events.write(event("Keynote", "bob"), "Keynote");
+            Runtime.getRuntime().halt(0);
+        }
+    }
+
+    private void runInFolder(String command) throws IOException, InterruptedException {
+        // the folder is the other JVM's working directory, so the class path must not be relative to this one's
+        List<String> classPath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(new File(entry).getAbsolutePath());
+        }
+        Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", String.join(File.pathSeparator, classPath), TestTransaction.class.getName(), command)
+                .directory(folder.getRoot()).inheritIO().start();
+        assertTrue("other process timed out", process.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(0, process.exitValue());
+    }
+
+    @Test
+    public void testRecoveryKeepsLaterWrites() throws IOException, InterruptedException {
+        runInFolder("commit");
+        File journal = new File(folder.getRoot(), Transaction.JOURNAL);
+        assertTrue("the crash should leave the record in the journal", journal.length() > 0);
+
+        runInFolder("recover");
+
+        assertEquals(0, journal.length());
+        JsonDatabase<Event> recovered = new JsonDatabase<>(
+                new File(folder.getRoot(), JsonDatabase.DIRECTORY_ROOT).getPath(), "Event", Event.class);
+        assertEquals(Collections.singleton("bob"), recovered.read("Keynote").getAttendees());
+    }
+}
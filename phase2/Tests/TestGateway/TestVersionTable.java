@@ -0,0 +1,106 @@
+package TestGateway;
+
+import Gateways.VersionTable;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestVersionTable {
+    private final VersionTable versions = new VersionTable();
+
+    @Test
+    public void testDeletesDropStamps() {
+        for (int i = 0; i < 1000; i++) {
+            versions.write("Event" + i, () -> { });
+            versions.delete("Event" + i, () -> { });
+        }
+        assertEquals(0, versions.size());
+
+        versions.write("Keynote", () -> { });
+        long written = versions.get("Keynote", true);
+        versions.delete("Keynote", () -> { });
+        assertEquals(VersionTable.ABSENT, versions.get("Keynote", false));
+        assertFalse(versions.compareAndWrite("Keynote", written, () -> false, () -> { }));
+
+        // written again: newer than any version read before the delete
+        assertTrue(versions.compareAndWrite("Keynote", VersionTable.ABSENT, () -> false, () -> { }));
+        assertTrue(versions.get("Keynote", true) > written);
+        assertFalse(versions.compareAndWrite("Keynote", written, () -> true, () -> { }));
+    }
+
+    @Test
+    public void testFailedDeleteKeepsStamp() {
+        versions.write("Keynote", () -> { });
+        long written = versions.get("Keynote", true);
+        try {
+            versions.delete("Keynote", () -> {
+                throw new IllegalStateException("delete failed");
+            });
+            fail("the failure should be passed on");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(written, versions.get("Keynote", true));
+    }
+
+    @Test
+    public void testCompareAndWriteChecksVersion() {
+        assertEquals(VersionTable.ABSENT, versions.get("Keynote", false));
+        assertEquals(VersionTable.INITIAL, versions.get("Keynote", true));
+
+        assertTrue(versions.compareAndWrite("Keynote", VersionTable.ABSENT, () -> false, () -> { }));
+        long written = versions.get("Keynote", true);
+        assertNotEquals(VersionTable.INITIAL, written);
+
+        versions.write("Keynote", () -> { });
+        assertFalse(versions.compareAndWrite("Keynote", written, () -> true, () -> fail("stale version written")));
+        assertTrue(versions.compareAndWrite("Keynote", versions.get("Keynote", true), () -> true, () -> { }));
+    }
+
+    @Test
+    public void testSlowWriteBlocksOnlyItsOwnId() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            Future<?> slow = pool.submit(() -> versions.write("Keynote", () -> {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+            // ids of other stripes go ahead while the slow write holds its own; the few sharing it wait
+            CountDownLatch others = new CountDownLatch(100);
+            for (int i = 0; i < 100; i++) {
+                String id = "Event" + i;
+                pool.submit(() -> {
+                    versions.write(id, () -> { });
+                    others.countDown();
+                });
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (others.getCount() > 10 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(others.getCount() <= 10);
+            assertFalse(slow.isDone());
+
+            release.countDown();
+            slow.get(5, TimeUnit.SECONDS);
+            assertTrue(others.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+    }
+}
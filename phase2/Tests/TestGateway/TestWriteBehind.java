@@ -0,0 +1,116 @@
+package TestGateway;
+
+import Entities.Event;
+import com.google.gson.Gson;
+import Gateways.JsonDatabase;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class TestWriteBehind {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JsonDatabase<Event> database;
+
+    @Before
+    public void setUp() {
+        database = new JsonDatabase<>(folder.getRoot().getPath(), "Event", Event.class);
+        // flushed by the tests themselves
+        database.enableWriteBehind(60_000, 1000);
+    }
+
+    private File file(String id) {
+        return new File(folder.getRoot(), "Event/Event-" + id + ".json");
+    }
+
+    private int capacityOnDisk(String id) throws IOException {
+        String json = new String(Files.readAllBytes(file(id).toPath()), StandardCharsets.UTF_8);
+        return new Gson().fromJson(json, Event.class).getEventCapacity();
+    }
+
+    private static Event event(String name, int capacity) {
+        Event event = new Event(name);
+        event.setEventCapacity(capacity);
+        return event;
+    }
+
+    @Test
+    public void testWritesAreQueuedUntilFlushed() throws IOException {
+        database.write(event("Keynote", 1), "Keynote");
+        database.write(event("Keynote", 2), "Keynote");
+
+        assertFalse(file("Keynote").exists());
+        assertEquals(2, database.read("Keynote").getEventCapacity());
+        assertTrue(database.exists("Keynote"));
+
+        database.flush();
+        assertTrue(file("Keynote").exists());
+        assertEquals(2, capacityOnDisk("Keynote"));
+    }
+
+    @Test
+    public void testFailedWritesAreQueuedAgain() throws IOException {
+        // a non-empty directory where the record's file should go cannot be renamed over
+        assertTrue(new File(file("Keynote"), "blocker").mkdirs());
+        database.write(event("Keynote", 1), "Keynote");
+        database.write(event("Workshop", 1), "Workshop");
+
+        try {
+            database.flush();
+            fail("flush should report the failed write");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getMessage().contains("Keynote"));
+        }
+        assertTrue(file("Workshop").exists());
+        assertEquals(1, database.read("Keynote").getEventCapacity());
+
+        Files.delete(new File(file("Keynote"), "blocker").toPath());
+        Files.delete(file("Keynote").toPath());
+        database.flush();
+        assertTrue(file("Keynote").isFile());
+    }
+
+    @Test
+    public void testNewerWriteIsNotReplacedByFailedOne() throws IOException {
+        assertTrue(new File(file("Keynote"), "blocker").mkdirs());
+        database.write(event("Keynote", 1), "Keynote");
+        try {
+            database.flush();
+            fail("flush should report the failed write");
+        } catch (UncheckedIOException e) {
+            // queued again
+        }
+        database.write(event("Keynote", 2), "Keynote");
+
+        Files.delete(new File(file("Keynote"), "blocker").toPath());
+        Files.delete(file("Keynote").toPath());
+        database.flush();
+        assertEquals(2, capacityOnDisk("Keynote"));
+    }
+
+    @Test
+    public void testWatcherDoesNotUndoQueuedDelete() throws IOException, InterruptedException {
+        // loads the id index, so that the watcher's events update it
+        assertTrue(database.getIds().isEmpty());
+        database.write(event("Keynote", 1), "Keynote");
+        database.flush();
+        database.delete("Keynote");
+        // the file, still on disk until the delete is flushed, changes after the delete was queued
+        Files.write(file("Keynote").toPath(), Files.readAllBytes(file("Keynote").toPath()));
+        Thread.sleep(500);
+
+        assertFalse(database.exists("Keynote"));
+        assertFalse(database.getIds().contains("Keynote"));
+        assertNull(database.read("Keynote"));
+    }
+}
@@ -84,6 +84,17 @@ public class AccountController {
         return accountManager.getUsernamesOfType(type);
     }
 
+    /**
+     * Gets one page of the usernames of a type, in alphabetical order
+     * @param type type of the users
+     * @param afterUsername the page starts after this username; null for the first page
+     * @param limit maximum number of usernames returned
+     * @return list of usernames
+     */
+    public List<String> getUsernamesOfType(UserType type, String afterUsername, int limit) {
+        return accountManager.getUsernamesOfType(type, afterUsername, limit);
+    }
+
     /**
      * Gets a user's real name based on username
      * @param username username of user
@@ -10,6 +10,7 @@ import ui.state.EventBundle;
 import java.util.Calendar;
 import java.util.List;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * @author parssa
@@ -138,6 +139,51 @@ public class EventController {
         return scheduleManager.getEventNames(vipFilter);
     }
 
+    /**
+     * Returns one page of events in alphabetical order (vip events hidden unless vipFilter is true)
+     * @param vipFilter should vip events be shown
+     * @param afterEvent the page starts after this event; null for the first page
+     * @param limit maximum number of events returned
+     * @return list of event titles.
+     */
+    public List<String> getEventNames(boolean vipFilter, String afterEvent, int limit){
+        return scheduleManager.getEventNames(vipFilter, afterEvent, limit);
+    }
+
+    /**
+     * Checks if an event exists
+     * @param eventName name of the event
+     * @return true iff the event exists
+     */
+    public boolean eventExists(String eventName){
+        return scheduleManager.eventExists(eventName);
+    }
+
+    /**
+     * Checks if an event is VIP only
+     * @param eventName name of the event
+     * @return true iff the event exists and is VIP only
+     */
+    public boolean isVIPEvent(String eventName){
+        return scheduleManager.isVIPEvent(eventName);
+    }
+
+    /**
+     * Registers listener to be called with the name of every event that is created, changed or deleted
+     * @param listener called from a background thread; with null if all events may have changed
+     */
+    public void addEventListener(Consumer<String> listener){
+        scheduleManager.addEventListener(listener);
+    }
+
+    /**
+     * Stops calling a listener registered with addEventListener
+     * @param listener the listener
+     */
+    public void removeEventListener(Consumer<String> listener){
+        scheduleManager.removeEventListener(listener);
+    }
+
     /**
      * Getter for a list of VIP Event Names
      * @return a list of vip events
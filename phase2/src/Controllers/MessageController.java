@@ -7,6 +7,7 @@ import UseCases.ScheduleManager;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -137,12 +138,7 @@ public class MessageController {
      * @return a list of users
      */
     public List<Message> getArchivedMessages(String username) {
-        List<String> otherPeople = getInbox(username);
-        List<Message> allArchived = new ArrayList<>();
-        for (String person : otherPeople) {
-            allArchived.addAll(messageManager.getArchivedMessages(username, person));
-        }
-        return allArchived;
+        return messageManager.getArchivedMessages(username, getInbox(username));
     }
 
     /**
@@ -167,6 +163,23 @@ public class MessageController {
         return true;
     }
 
+    /**
+     * Registers listener to be called with the other user of every conversation of username that changes.
+     * @param username the user whose conversations are watched
+     * @param listener called from a background thread; with null if all conversations may have changed
+     */
+    public void addConversationListener(String username, Consumer<String> listener) {
+        messageManager.addConversationListener(username, listener);
+    }
+
+    /**
+     * Stops calling a listener registered with addConversationListener
+     * @param listener the listener
+     */
+    public void removeConversationListener(Consumer<String> listener) {
+        messageManager.removeConversationListener(listener);
+    }
+
     /**
      * A message to send to all of the attendees attending an event
      * @param eventName name of the event
@@ -174,9 +187,7 @@ public class MessageController {
      * @param sender the sender
      */
     public void messageAll(String eventName, String message, String sender){
-        for (String recipient : scheduleManager.getEventAttendees(eventName)){
-            messageManager.sendMessage(sender, recipient, message);
-        }
+        messageManager.sendMessages(sender, scheduleManager.getEventAttendees(eventName), message);
     }
 }
 
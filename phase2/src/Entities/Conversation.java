@@ -10,8 +10,9 @@ import java.util.Collections;
  */
 public class Conversation implements Serializable {
     private String userOne, userTwo;
-    private ArrayList<Message> messages = new ArrayList<>();
+    // before messages, so reading just this field does not have to skip over them
     private boolean isRead;
+    private ArrayList<Message> messages = new ArrayList<>();
 
     /**
      * Constructor for a conversation
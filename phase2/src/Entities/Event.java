@@ -25,6 +25,26 @@ public class Event implements Serializable {
         this.name = name;
     }
 
+    /**
+     * Constructor for an event that already exists, e.g. one being read back from storage.
+     * The sets are used as they are, not copied.
+     * @param name name of the event
+     * @param speakers usernames of the speakers
+     * @param eventCapacity capacity of the event
+     * @param description description of the event; may be null
+     * @param VIPOnly true if only VIPs may attend
+     * @param attendees usernames of the attendees
+     */
+    public Event(String name, Set<String> speakers, int eventCapacity, String description, boolean VIPOnly,
+                 Set<String> attendees) {
+        this.name = name;
+        this.speakers = speakers;
+        this.eventCapacity = eventCapacity;
+        this.description = description;
+        this.VIPOnly = VIPOnly;
+        this.attendees = attendees;
+    }
+
     public void setDescription(String description) {
         this.description = description;
     }
@@ -79,6 +99,14 @@ public class Event implements Serializable {
         return speakers;
     }
 
+    /**
+     * Getter for the capacity of events
+     * @return capacity of event
+     */
+    public int getEventCapacity() {
+        return eventCapacity;
+    }
+
     /**
      * Setter for the capacity of events
      *
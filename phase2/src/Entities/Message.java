@@ -24,6 +24,22 @@ public class Message implements Serializable {
         id = this.hashCode()+(new Random()).nextInt(100);
     }
 
+    /**
+     * Constructor for a message that already exists, e.g. one being read back from storage.
+     * @param sender sender
+     * @param recipient recipient
+     * @param body body of the message
+     * @param id id the message was given when it was sent
+     * @param isArchived true iff the message is archived
+     */
+    public Message(String sender, String recipient, String body, int id, boolean isArchived) {
+        this.sender = sender;
+        this.recipient = recipient;
+        this.body = body;
+        this.id = id;
+        this.isArchived = isArchived;
+    }
+
     /**
      *  Gets a sender and returns it.
      * @return sender
@@ -0,0 +1,77 @@
+package Gateways;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Codec storing objects in a compact binary form of their JSON tree. Objects are written through a
+ * {@link BinaryJsonWriter} and read through a {@link BinaryJsonReader}, so no tree is ever built.
+ * <p>
+ * A record is the byte {@link #MAGIC} followed by one value. A value is a tag byte followed by:
+ * <ul>
+ *     <li>{@link #NULL}, {@link #FALSE}, {@link #TRUE}: nothing</li>
+ *     <li>{@link #INT}: the number as a zig-zag varint</li>
+ *     <li>{@link #DOUBLE}: the number as 8 bytes</li>
+ *     <li>{@link #STRING}: the length in bytes as a varint, then the UTF-8 bytes</li>
+ *     <li>{@link #ARRAY}: the length in bytes of the rest as a varint, the element count as a varint, then the
+ *     elements</li>
+ *     <li>{@link #OBJECT}: like an array, but every element is preceded by its name as a length-prefixed
+ *     UTF-8 string</li>
+ * </ul>
+ * Arrays and objects are length-prefixed so a reader can skip them without reading their contents.
+ * Calendars are written as milliseconds rather than Gson's six-field object.
+ *
+ * @param <T> objects being stored.
+ */
+public class BinaryCodec<T> implements RecordCodec<T> {
+    public static final byte MAGIC = (byte) 0xB1;
+    static final byte NULL = 0;
+    static final byte FALSE = 1;
+    static final byte TRUE = 2;
+    static final byte INT = 3;
+    static final byte DOUBLE = 4;
+    static final byte STRING = 5;
+    static final byte ARRAY = 6;
+    static final byte OBJECT = 7;
+
+    private final Class<T> type;
+    private final Gson gson;
+
+    /**
+     * Constructor.
+     *
+     * @param type type of object (e.g. if T = Event, then type = Event.class)
+     */
+    public BinaryCodec(Class<T> type) {
+        this.type = type;
+        this.gson = GsonFactory.compact();
+    }
+
+    @Override
+    public String getName() {
+        return "binary";
+    }
+
+    @Override
+    public byte[] encode(T obj) {
+        BinaryJsonWriter writer = new BinaryJsonWriter(256);
+        writer.writeByte(MAGIC);
+        gson.toJson(obj, type, writer);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public T decode(byte[] data, int length) {
+        return gson.fromJson(reader(data, length), type);
+    }
+
+    @Override
+    public JsonReader reader(byte[] data, int length) {
+        return new BinaryJsonReader(data, 1, length);
+    }
+
+    @Override
+    public boolean wrote(byte[] data, int length) {
+        return length > 0 && data[0] == MAGIC;
+    }
+}
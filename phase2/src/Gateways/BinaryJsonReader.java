@@ -0,0 +1,322 @@
+package Gateways;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A JsonReader over a value written by {@link BinaryCodec}, so that Gson's adapters can deserialize
+ * binary records directly, without building a JSON tree or text first.
+ */
+public class BinaryJsonReader extends JsonReader {
+    private static final Reader UNREADABLE = new StringReader("");
+
+    private final byte[] data;
+    private final int end;
+    private int position;
+
+    /**
+     * An open array or object: how many of its elements are left and, for objects, whether a name is next.
+     */
+    private static final class Container {
+        final boolean object;
+        int remaining;
+        boolean nameNext;
+
+        Container(boolean object, int remaining) {
+            this.object = object;
+            this.remaining = remaining;
+            this.nameNext = object;
+        }
+    }
+
+    private final Deque<Container> stack = new ArrayDeque<>();
+    private boolean documentRead;
+
+    /**
+     * Constructor.
+     *
+     * @param data   buffer holding the value.
+     * @param offset index of the value's tag byte in data.
+     * @param end    index just past the value in data.
+     */
+    public BinaryJsonReader(byte[] data, int offset, int end) {
+        super(UNREADABLE);
+        this.data = data;
+        this.position = offset;
+        this.end = end;
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        Container top = stack.peek();
+        if (top == null) {
+            return documentRead || position >= end ? JsonToken.END_DOCUMENT : token(data[position]);
+        }
+        if (top.remaining == 0) {
+            return top.object ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+        }
+        if (top.nameNext) {
+            return JsonToken.NAME;
+        }
+        return token(data[position]);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expectValue(BinaryCodec.ARRAY);
+        readVarint(); // length in bytes
+        stack.push(new Container(false, (int) readVarint()));
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        endContainer(false);
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expectValue(BinaryCodec.OBJECT);
+        readVarint(); // length in bytes
+        stack.push(new Container(true, (int) readVarint()));
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        endContainer(true);
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        Container top = stack.peek();
+        if (top == null || !top.nameNext || top.remaining == 0) {
+            throw new IllegalStateException("Expected a name but was " + peek());
+        }
+        top.nameNext = false;
+        return readString();
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        byte tag = data[position];
+        String value;
+        switch (tag) {
+            case BinaryCodec.STRING:
+                expectValue(BinaryCodec.STRING);
+                value = readString();
+                break;
+            case BinaryCodec.INT:
+                return Long.toString(nextLong());
+            case BinaryCodec.DOUBLE:
+                return Double.toString(nextDouble());
+            default:
+                throw new IllegalStateException("Expected a string but was " + peek());
+        }
+        valueRead();
+        return value;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        byte tag = data[position];
+        if (tag != BinaryCodec.TRUE && tag != BinaryCodec.FALSE) {
+            throw new IllegalStateException("Expected a boolean but was " + peek());
+        }
+        expectValue(tag);
+        valueRead();
+        return tag == BinaryCodec.TRUE;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expectValue(BinaryCodec.NULL);
+        valueRead();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        byte tag = data[position];
+        double value;
+        if (tag == BinaryCodec.DOUBLE) {
+            expectValue(BinaryCodec.DOUBLE);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (data[position++] & 0xFF);
+            }
+            value = Double.longBitsToDouble(bits);
+        } else if (tag == BinaryCodec.INT) {
+            value = readInt();
+        } else if (tag == BinaryCodec.STRING) {
+            expectValue(BinaryCodec.STRING);
+            value = Double.parseDouble(readString());
+        } else {
+            throw new IllegalStateException("Expected a double but was " + peek());
+        }
+        valueRead();
+        return value;
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        byte tag = data[position];
+        long value;
+        if (tag == BinaryCodec.INT) {
+            value = readInt();
+        } else if (tag == BinaryCodec.DOUBLE) {
+            double asDouble = nextDouble();
+            if ((long) asDouble != asDouble) throw new NumberFormatException("Expected a long but was " + asDouble);
+            return (long) asDouble;
+        } else if (tag == BinaryCodec.STRING) {
+            expectValue(BinaryCodec.STRING);
+            value = Long.parseLong(readString());
+        } else {
+            throw new IllegalStateException("Expected a long but was " + peek());
+        }
+        valueRead();
+        return value;
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if ((int) value != value) throw new NumberFormatException("Expected an int but was " + value);
+        return (int) value;
+    }
+
+    /**
+     * Skips the next name, or the next value including all of its contents. Arrays and objects are skipped
+     * using their length prefix, without reading them.
+     */
+    @Override
+    public void skipValue() throws IOException {
+        Container top = stack.peek();
+        if (top != null && top.nameNext && top.remaining > 0) {
+            nextName();
+            return;
+        }
+        byte tag = data[position];
+        expectValue(tag);
+        switch (tag) {
+            case BinaryCodec.INT:
+                readVarint();
+                break;
+            case BinaryCodec.DOUBLE:
+                position += 8;
+                break;
+            case BinaryCodec.STRING:
+            case BinaryCodec.ARRAY:
+            case BinaryCodec.OBJECT:
+                // not position += readVarint(): that would add the length to position as it was before the varint
+                int length = (int) readVarint();
+                position += length;
+                break;
+            default:
+                break;
+        }
+        valueRead();
+    }
+
+    @Override
+    public void close() {
+        stack.clear();
+        documentRead = true;
+    }
+
+    @Override
+    public String getPath() {
+        return "$";
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " at byte " + position;
+    }
+
+    private static JsonToken token(byte tag) {
+        switch (tag) {
+            case BinaryCodec.NULL:
+                return JsonToken.NULL;
+            case BinaryCodec.FALSE:
+            case BinaryCodec.TRUE:
+                return JsonToken.BOOLEAN;
+            case BinaryCodec.INT:
+            case BinaryCodec.DOUBLE:
+                return JsonToken.NUMBER;
+            case BinaryCodec.STRING:
+                return JsonToken.STRING;
+            case BinaryCodec.ARRAY:
+                return JsonToken.BEGIN_ARRAY;
+            case BinaryCodec.OBJECT:
+                return JsonToken.BEGIN_OBJECT;
+            default:
+                throw new IllegalStateException("Corrupt binary record: unknown tag " + tag);
+        }
+    }
+
+    private void expectValue(byte tag) throws IOException {
+        Container top = stack.peek();
+        if ((top != null && (top.nameNext || top.remaining == 0)) || position >= end || data[position] != tag) {
+            throw new IllegalStateException("Expected " + token(tag) + " but was " + peek());
+        }
+        position++;
+    }
+
+    private void endContainer(boolean object) throws IOException {
+        Container top = stack.peek();
+        if (top == null || top.object != object || top.remaining != 0) {
+            throw new IllegalStateException("Expected " + (object ? "END_OBJECT" : "END_ARRAY") + " but was " + peek());
+        }
+        stack.pop();
+        valueRead();
+    }
+
+    /**
+     * Marks the value just read as consumed by its container.
+     */
+    private void valueRead() {
+        Container top = stack.peek();
+        if (top == null) {
+            documentRead = true;
+            return;
+        }
+        top.remaining--;
+        top.nameNext = top.object;
+    }
+
+    private long readInt() throws IOException {
+        expectValue(BinaryCodec.INT);
+        long zigzag = readVarint();
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private long readVarint() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private String readString() {
+        int length = (int) readVarint();
+        String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+}
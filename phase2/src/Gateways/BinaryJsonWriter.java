@@ -0,0 +1,289 @@
+package Gateways;
+
+import com.google.gson.JsonParser;
+import com.google.gson.internal.bind.TypeAdapters;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A JsonWriter producing the binary form of {@link BinaryCodec}, so that Gson's adapters can serialize
+ * objects directly into it, without building a JSON tree first.
+ * <p>
+ * The length and element count of an array or object are only known once it ends, so its elements are
+ * written first and the header is inserted in front of them by {@link #endArray}/{@link #endObject}.
+ * Like Gson's own writer, a member whose value is null is dropped unless nulls are serialized.
+ */
+public class BinaryJsonWriter extends JsonWriter {
+    private static final Writer UNWRITABLE = new Writer() {
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private byte[] bytes;
+    private int size;
+
+    /**
+     * Start in bytes of every open container's elements, and how many it has so far.
+     */
+    private int[] starts = new int[8];
+    private int[] counts = new int[8];
+    private int depth;
+    private String deferredName;
+    private boolean valueWritten;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity initial size of the buffer.
+     */
+    public BinaryJsonWriter(int capacity) {
+        super(UNWRITABLE);
+        bytes = new byte[capacity];
+    }
+
+    @Override
+    public JsonWriter beginArray() {
+        return open(BinaryCodec.ARRAY);
+    }
+
+    @Override
+    public JsonWriter endArray() {
+        return close(BinaryCodec.ARRAY);
+    }
+
+    @Override
+    public JsonWriter beginObject() {
+        return open(BinaryCodec.OBJECT);
+    }
+
+    @Override
+    public JsonWriter endObject() {
+        return close(BinaryCodec.OBJECT);
+    }
+
+    @Override
+    public JsonWriter name(String name) {
+        if (name == null) throw new NullPointerException("name == null");
+        if (deferredName != null || depth == 0 || bytes[starts[depth - 1] - 1] != BinaryCodec.OBJECT) {
+            throw new IllegalStateException("Unexpected name " + name);
+        }
+        deferredName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) {
+        if (value == null) return nullValue();
+        beforeValue();
+        writeByte(BinaryCodec.STRING);
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter jsonValue(String value) throws IOException {
+        if (value == null) return nullValue();
+        TypeAdapters.JSON_ELEMENT.write(this, JsonParser.parseString(value));
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() {
+        if (deferredName != null && !getSerializeNulls()) {
+            deferredName = null;
+            return this;
+        }
+        beforeValue();
+        writeByte(BinaryCodec.NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        writeByte(value ? BinaryCodec.TRUE : BinaryCodec.FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) {
+        return value == null ? nullValue() : value(value.booleanValue());
+    }
+
+    @Override
+    public JsonWriter value(double value) {
+        beforeValue();
+        writeByte(BinaryCodec.DOUBLE);
+        writeLong(Double.doubleToLongBits(value));
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) {
+        beforeValue();
+        writeByte(BinaryCodec.INT);
+        writeVarint((value << 1) ^ (value >> 63));
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) {
+        if (value == null) return nullValue();
+        return isIntegral(value) ? value(value.longValue()) : value(value.doubleValue());
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        if (depth > 0) throw new IllegalStateException("Incomplete document");
+    }
+
+    /**
+     * @return the bytes written so far.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Writes a raw byte, e.g. a record header before the value.
+     *
+     * @param b the byte.
+     */
+    void writeByte(int b) {
+        ensure(1);
+        bytes[size++] = (byte) b;
+    }
+
+    private JsonWriter open(byte tag) {
+        beforeValue();
+        writeByte(tag);
+        if (depth == starts.length) {
+            starts = Arrays.copyOf(starts, depth * 2);
+            counts = Arrays.copyOf(counts, depth * 2);
+        }
+        starts[depth] = size;
+        counts[depth] = 0;
+        depth++;
+        return this;
+    }
+
+    /**
+     * Inserts the length in bytes and the element count of the container ending in front of its elements.
+     */
+    private JsonWriter close(byte tag) {
+        if (depth == 0 || bytes[starts[depth - 1] - 1] != tag || deferredName != null) {
+            throw new IllegalStateException("Nesting problem.");
+        }
+        depth--;
+        int start = starts[depth];
+        int count = counts[depth];
+        int body = size - start;
+        int length = varintSize(count) + body;
+        int header = varintSize(length) + varintSize(count);
+        ensure(header);
+        System.arraycopy(bytes, start, bytes, start + header, body);
+        int end = size + header;
+        size = start;
+        writeVarint(length);
+        writeVarint(count);
+        size = end;
+        return this;
+    }
+
+    /**
+     * Writes the pending member name, if any, and counts the value about to be written in its container.
+     */
+    private void beforeValue() {
+        if (depth == 0) {
+            if (valueWritten) throw new IllegalStateException("JSON must have only one top-level value.");
+            valueWritten = true;
+            return;
+        }
+        boolean object = bytes[starts[depth - 1] - 1] == BinaryCodec.OBJECT;
+        if (object != (deferredName != null)) {
+            throw new IllegalStateException(object ? "Expected a name" : "Unexpected name");
+        }
+        if (deferredName != null) {
+            writeString(deferredName);
+            deferredName = null;
+        }
+        counts[depth - 1]++;
+    }
+
+    private void writeVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    private void writeLong(long value) {
+        ensure(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            bytes[size++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeString(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(utf8.length);
+        ensure(utf8.length);
+        System.arraycopy(utf8, 0, bytes, size, utf8.length);
+        size += utf8.length;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+        }
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static boolean isIntegral(Number number) {
+        if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+            return true;
+        }
+        if (number instanceof BigInteger) {
+            return ((BigInteger) number).bitLength() < 64;
+        }
+        if (number instanceof Double || number instanceof Float || number instanceof BigDecimal) {
+            return false;
+        }
+        // e.g. a LazilyParsedNumber read back from JSON text
+        try {
+            return new BigDecimal(number.toString()).scale() <= 0 && new BigInteger(number.toString()).bitLength() < 64;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
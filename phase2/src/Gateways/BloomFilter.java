@@ -0,0 +1,107 @@
+package Gateways;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the ids of a collection, for answering "does id exist?" without asking the storage
+ * when the answer is no.
+ * <p>
+ * {@link #mightContain} is false only for ids never added, so a miss is definite, while a hit may be a
+ * false positive (at about the rate the filter was sized for) and has to be checked against the storage.
+ * Ids cannot be removed; a deleted id just stays a "maybe". Adding and checking are lock-free, so the
+ * filter can be used from many threads at once.
+ * <p>
+ * Once more ids are added than it was sized for, false positives become more frequent; {@link #isFull}
+ * then tells the owner to build a bigger one.
+ */
+public class BloomFilter {
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int hashes;
+    private final int capacity;
+    private final AtomicInteger added = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity          number of ids the filter is sized for.
+     * @param falsePositiveRate rate of false positives with capacity ids added, e.g. 0.01.
+     */
+    public BloomFilter(int capacity, double falsePositiveRate) {
+        this.capacity = Math.max(capacity, 1);
+        long optimalBits = (long) Math.ceil(-this.capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Math.max((optimalBits + 63) / 64, 1), Integer.MAX_VALUE - 8);
+        this.bits = new AtomicLongArray(words);
+        this.numBits = words * 64L;
+        this.hashes = Math.max(1, (int) Math.round((double) numBits / this.capacity * Math.log(2)));
+    }
+
+    /**
+     * @param id unique identifier being stored.
+     */
+    public void add(String id) {
+        long hash = hash(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = index(h1, h2, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                current = bits.get(word);
+            }
+        }
+        added.incrementAndGet();
+    }
+
+    /**
+     * @param id unique identifier.
+     * @return false if id was definitely never added; true if it may have been.
+     */
+    public boolean mightContain(String id) {
+        long hash = hash(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = index(h1, h2, i);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true iff more ids were added than the filter was sized for.
+     */
+    public boolean isFull() {
+        return added.get() > capacity;
+    }
+
+    /**
+     * The i-th bit of an id, from two hashes combined as (h1 + i * h2), which is as good as i independent
+     * hashes (Kirsch and Mitzenmacher).
+     */
+    private long index(int h1, int h2, int i) {
+        long combined = (h1 + (long) i * h2) & Long.MAX_VALUE;
+        return combined % numBits;
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of id, finished with the MurmurHash3 mixer so that ids differing
+     * only in their last characters still spread over all the bits.
+     */
+    private static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb3fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
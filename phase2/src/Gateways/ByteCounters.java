@@ -0,0 +1,40 @@
+package Gateways;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of the bytes a gateway has read from and written to its storage, as serialized records.
+ * Updated from many threads at once, so the totals are striped {@link LongAdder}s rather than one counter.
+ */
+public class ByteCounters {
+    private final LongAdder read = new LongAdder();
+    private final LongAdder written = new LongAdder();
+
+    /**
+     * @param bytes number of bytes just read.
+     */
+    public void read(long bytes) {
+        read.add(bytes);
+    }
+
+    /**
+     * @param bytes number of bytes just written.
+     */
+    public void written(long bytes) {
+        written.add(bytes);
+    }
+
+    /**
+     * @return total bytes read.
+     */
+    public long getRead() {
+        return read.sum();
+    }
+
+    /**
+     * @return total bytes written.
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+}
@@ -0,0 +1,91 @@
+package Gateways;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Gson adapter for Calendar.
+ * <p>
+ * Gson's own adapter writes a Calendar as an object of six named fields. This adapter can write either that
+ * legacy form or just the time in milliseconds, and reads both, so records written in either form stay readable.
+ */
+public class CalendarAdapter extends TypeAdapter<Calendar> {
+    private final boolean asMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param asMillis true to write calendars as milliseconds; false to write Gson's legacy object form.
+     */
+    public CalendarAdapter(boolean asMillis) {
+        this.asMillis = asMillis;
+    }
+
+    @Override
+    public void write(JsonWriter out, Calendar value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+        } else if (asMillis) {
+            out.value(value.getTimeInMillis());
+        } else {
+            out.beginObject();
+            out.name("year").value(value.get(Calendar.YEAR));
+            out.name("month").value(value.get(Calendar.MONTH));
+            out.name("dayOfMonth").value(value.get(Calendar.DAY_OF_MONTH));
+            out.name("hourOfDay").value(value.get(Calendar.HOUR_OF_DAY));
+            out.name("minute").value(value.get(Calendar.MINUTE));
+            out.name("second").value(value.get(Calendar.SECOND));
+            out.endObject();
+        }
+    }
+
+    @Override
+    public Calendar read(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.NUMBER) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(in.nextLong());
+            return calendar;
+        }
+
+        int year = 0, month = 0, dayOfMonth = 0, hourOfDay = 0, minute = 0, second = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            switch (name) {
+                case "year":
+                    year = in.nextInt();
+                    break;
+                case "month":
+                    month = in.nextInt();
+                    break;
+                case "dayOfMonth":
+                    dayOfMonth = in.nextInt();
+                    break;
+                case "hourOfDay":
+                    hourOfDay = in.nextInt();
+                    break;
+                case "minute":
+                    minute = in.nextInt();
+                    break;
+                case "second":
+                    second = in.nextInt();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new GregorianCalendar(year, month, dayOfMonth, hourOfDay, minute, second);
+    }
+}
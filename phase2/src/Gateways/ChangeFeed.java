@@ -0,0 +1,78 @@
+package Gateways;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Delivers the changes to the records of a collection to the {@link ChangeListener}s registered for it.
+ * <p>
+ * Changes are published by the gateways right after their writes and deletes, and for a JsonDatabase also
+ * by its {@link IdIndex} for files changed by other processes. Listeners are called on a single daemon
+ * thread for the whole program, in the order changes were published, so a slow listener never holds up a
+ * writer and no listener runs while a gateway holds a lock.
+ */
+public class ChangeFeed {
+    private static final Map<String, ChangeFeed> FEEDS = new ConcurrentHashMap<>();
+
+    private static final ExecutorService DISPATCHER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "gateway-changes");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor, for a feed of the changes made through a single gateway.
+     */
+    public ChangeFeed() {
+    }
+
+    /**
+     * Gets the feed shared by all gateways storing records into directory.
+     *
+     * @param directory directory of the collection.
+     * @return the shared feed for that directory.
+     */
+    public static ChangeFeed forDirectory(File directory) {
+        return FEEDS.computeIfAbsent(directory.getAbsolutePath(), k -> new ChangeFeed());
+    }
+
+    /**
+     * @param listener called for every change published from now on.
+     */
+    public void add(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener a listener added before; it is not called for changes published from now on.
+     */
+    public void remove(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reports a change to the listeners, asynchronously.
+     *
+     * @param id   unique identifier of the record; null for {@link ChangeListener.Kind#UNKNOWN}.
+     * @param kind what happened to the record.
+     */
+    public void publish(String id, ChangeListener.Kind kind) {
+        if (listeners.isEmpty()) return;
+        DISPATCHER.execute(() -> {
+            for (ChangeListener listener : listeners) {
+                try {
+                    listener.changed(id, kind);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,35 @@
+package Gateways;
+
+/**
+ * Callback for changes to the records of a gateway, registered with {@link IGateway#addListener}.
+ */
+public interface ChangeListener {
+    /**
+     * What happened to a record.
+     */
+    enum Kind {
+        /**
+         * The record was created or rewritten.
+         */
+        WRITTEN,
+        /**
+         * The record was deleted.
+         */
+        DELETED,
+        /**
+         * Changes may have been missed, e.g. because the watcher of another process's writes lost events;
+         * anything shown from the gateway should be reloaded. The id is null.
+         */
+        UNKNOWN
+    }
+
+    /**
+     * Called from the thread of the {@link ChangeFeed} after a record changed, never while the gateway
+     * holds a lock. A change may still be reported more than once, e.g. when the watcher sees a write of
+     * this process whose record the cache has already dropped, so reloading the record must be harmless.
+     *
+     * @param id   unique identifier of the record; null for {@link Kind#UNKNOWN}.
+     * @param kind what happened to the record.
+     */
+    void changed(String id, Kind kind);
+}
@@ -0,0 +1,144 @@
+package Gateways;
+
+import com.google.gson.stream.JsonReader;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec compressing the records of another codec with {@link Deflater}, for collections whose records grow
+ * large, such as conversations.
+ * <p>
+ * Only records of at least a threshold size are compressed; smaller ones, and ones that do not get any
+ * smaller, are stored exactly as the inner codec wrote them. A compressed record is the byte {@link #MAGIC},
+ * the length of the uncompressed record as 4 bytes, then the deflated record, so compressed and
+ * uncompressed records can be told apart and coexist in the same collection, and collections can switch
+ * compression on or off without rewriting anything.
+ *
+ * @param <T> objects being stored.
+ */
+public class CompressedCodec<T> implements RecordCodec<T> {
+    public static final byte MAGIC = (byte) 0xDF;
+    private static final int HEADER_SIZE = 5;
+    private static final int LEVEL = Deflater.BEST_SPEED;
+
+    // Deflater and Inflater hold native memory; one of each per thread, reset after every use
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(LEVEL));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final RecordCodec<T> inner;
+    private final List<RecordCodec<T>> payloadFormats;
+    private final int threshold;
+
+    /**
+     * Constructor.
+     *
+     * @param inner     codec the records are serialized with before compression.
+     * @param type      type of object (e.g. if T = Event, then type = Event.class)
+     * @param threshold records of at least this many bytes are compressed.
+     */
+    public CompressedCodec(RecordCodec<T> inner, Class<T> type, int threshold) {
+        this.inner = inner;
+        this.threshold = threshold;
+        // a compressed record may have been serialized with another codec before the collection switched
+        this.payloadFormats = Arrays.asList(inner, RecordCodec.forName("binary", type),
+                RecordCodec.forName("compact", type), RecordCodec.forName("pretty", type));
+    }
+
+    @Override
+    public String getName() {
+        return inner.getName() + "+deflate";
+    }
+
+    @Override
+    public byte[] encode(T obj) {
+        byte[] data = inner.encode(obj);
+        if (data.length < threshold) return data;
+
+        Deflater deflater = DEFLATER.get();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            // not worth it unless the record gets smaller, header included
+            byte[] out = new byte[data.length];
+            int length = HEADER_SIZE;
+            while (!deflater.finished() && length < out.length) {
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            if (!deflater.finished()) return data;
+
+            out[0] = MAGIC;
+            out[1] = (byte) (data.length >>> 24);
+            out[2] = (byte) (data.length >>> 16);
+            out[3] = (byte) (data.length >>> 8);
+            out[4] = (byte) data.length;
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    @Override
+    public T decode(byte[] data, int length) {
+        if (!isCompressed(data, length)) return inner.decode(data, length);
+        byte[] payload = inflate(data, length);
+        return payloadFormat(payload).decode(payload, payload.length);
+    }
+
+    @Override
+    public JsonReader reader(byte[] data, int length) {
+        if (!isCompressed(data, length)) return inner.reader(data, length);
+        byte[] payload = inflate(data, length);
+        return payloadFormat(payload).reader(payload, payload.length);
+    }
+
+    /**
+     * Records too small to be compressed are the inner codec's, so they are this codec's too.
+     */
+    @Override
+    public boolean wrote(byte[] data, int length) {
+        return isCompressed(data, length) || inner.wrote(data, length);
+    }
+
+    /**
+     * @param data   buffer holding a serialized object.
+     * @param length number of bytes of the object at the start of data.
+     * @return true iff the object is stored compressed.
+     */
+    public static boolean isCompressed(byte[] data, int length) {
+        return length > HEADER_SIZE && data[0] == MAGIC;
+    }
+
+    private static byte[] inflate(byte[] data, int length) {
+        int size = (data[1] & 0xFF) << 24 | (data[2] & 0xFF) << 16 | (data[3] & 0xFF) << 8 | (data[4] & 0xFF);
+        byte[] payload = new byte[size];
+        Inflater inflater = INFLATER.get();
+        try {
+            inflater.setInput(data, HEADER_SIZE, length - HEADER_SIZE);
+            int inflated = 0;
+            while (inflated < size && !inflater.finished()) {
+                int n = inflater.inflate(payload, inflated, size - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += n;
+            }
+            if (inflated != size) {
+                throw new IllegalStateException("Corrupt compressed record: " + inflated + " of " + size + " bytes");
+            }
+            return payload;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed record", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    private RecordCodec<T> payloadFormat(byte[] payload) {
+        for (RecordCodec<T> format : payloadFormats) {
+            if (format.wrote(payload, payload.length)) return format;
+        }
+        return inner;
+    }
+}
@@ -0,0 +1,99 @@
+package Gateways;
+
+import Entities.Conversation;
+import Entities.Message;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gson adapter for Conversation, writing the same fields in the same order as Gson's reflective adapter
+ * would, without reflection.
+ */
+public class ConversationAdapter extends TypeAdapter<Conversation> {
+    private final TypeAdapter<Message> messages;
+
+    /**
+     * Constructor.
+     *
+     * @param messages adapter the messages of a conversation are written and read with.
+     */
+    public ConversationAdapter(TypeAdapter<Message> messages) {
+        this.messages = messages;
+    }
+
+    @Override
+    public void write(JsonWriter out, Conversation value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("userOne").value(value.getUserOne());
+        out.name("userTwo").value(value.getUserTwo());
+        out.name("isRead").value(value.getIsRead());
+        out.name("messages");
+        if (value.getMessages() == null) {
+            out.nullValue();
+        } else {
+            out.beginArray();
+            for (Message message : value.getMessages()) {
+                messages.write(out, message);
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    @Override
+    public Conversation read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String userOne = null, userTwo = null;
+        boolean isRead = false;
+        List<Message> read = new ArrayList<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String field = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "userOne":
+                    userOne = in.nextString();
+                    break;
+                case "userTwo":
+                    userTwo = in.nextString();
+                    break;
+                case "isRead":
+                    isRead = in.nextBoolean();
+                    break;
+                case "messages":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        read.add(messages.read(in));
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        Conversation conversation = new Conversation(userOne, userTwo);
+        if (isRead) conversation.markAsRead();
+        for (Message message : read) {
+            conversation.addMessage(message);
+        }
+        return conversation;
+    }
+}
@@ -0,0 +1,88 @@
+package Gateways;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches database directories for changes made by other processes, using a single
+ * {@link WatchService} and a single daemon thread for the whole program.
+ */
+public class DirectoryWatcher {
+    /**
+     * Callback for changes in a watched directory.
+     */
+    public interface Listener {
+        /**
+         * Called from the watcher thread for every change in the directory.
+         *
+         * @param kind     ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE or OVERFLOW.
+         * @param fileName name of the changed file; null on OVERFLOW (events were lost).
+         */
+        void onChange(WatchEvent.Kind<?> kind, String fileName);
+    }
+
+    private static DirectoryWatcher instance;
+
+    private final WatchService service;
+    private final Map<WatchKey, List<Listener>> listeners = new ConcurrentHashMap<>();
+
+    private DirectoryWatcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(this::run, "database-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers listener for changes in directory.
+     *
+     * @param directory directory being watched.
+     * @param listener  listener called on changes.
+     * @return true iff the directory is now being watched.
+     */
+    public static synchronized boolean watch(Path directory, Listener listener) {
+        try {
+            if (instance == null) {
+                instance = new DirectoryWatcher();
+            }
+            WatchKey key = directory.register(instance.service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            instance.listeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(listener);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            List<Listener> keyListeners = listeners.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (keyListeners == null) continue;
+                String fileName = event.kind() == OVERFLOW ? null : event.context().toString();
+                for (Listener listener : keyListeners) {
+                    try {
+                        listener.onChange(event.kind(), fileName);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            if (!key.reset()) {
+                listeners.remove(key);
+            }
+        }
+    }
+}
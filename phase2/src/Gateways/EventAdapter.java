@@ -0,0 +1,106 @@
+package Gateways;
+
+import Entities.Event;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Gson adapter for Event, writing the same fields in the same order as Gson's reflective adapter would,
+ * without reflection.
+ */
+public class EventAdapter extends TypeAdapter<Event> {
+    @Override
+    public void write(JsonWriter out, Event value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("name").value(value.getName());
+        out.name("speakers");
+        writeStrings(out, value.getSpeakers());
+        out.name("eventCapacity").value(value.getEventCapacity());
+        out.name("description").value(value.getDescription());
+        out.name("VIPOnly").value(value.isVIPOnly());
+        out.name("attendees");
+        writeStrings(out, value.getAttendees());
+        out.endObject();
+    }
+
+    @Override
+    public Event read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String name = null, description = null;
+        int eventCapacity = 0;
+        boolean VIPOnly = false;
+        Set<String> speakers = new HashSet<>();
+        Set<String> attendees = new HashSet<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String field = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "name":
+                    name = in.nextString();
+                    break;
+                case "speakers":
+                    readStrings(in, speakers);
+                    break;
+                case "eventCapacity":
+                    eventCapacity = in.nextInt();
+                    break;
+                case "description":
+                    description = in.nextString();
+                    break;
+                case "VIPOnly":
+                    VIPOnly = in.nextBoolean();
+                    break;
+                case "attendees":
+                    readStrings(in, attendees);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Event(name, speakers, eventCapacity, description, VIPOnly, attendees);
+    }
+
+    static void writeStrings(JsonWriter out, Collection<String> values) throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (String value : values) {
+            out.value(value);
+        }
+        out.endArray();
+    }
+
+    static void readStrings(JsonReader in, Collection<String> values) throws IOException {
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                values.add(null);
+            } else {
+                values.add(in.nextString());
+            }
+        }
+        in.endArray();
+    }
+}
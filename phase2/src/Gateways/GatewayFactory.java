@@ -0,0 +1,184 @@
+package Gateways;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the gateways used by the use case classes, choosing the storage engine from configuration.
+ * <p>
+ * The engine is read from the system property {@code conference.gateway}, which may be overridden per
+ * collection with {@code conference.gateway.<objectName>} (e.g. {@code -Dconference.gateway.Messages=log}):
+ * <ul>
+ *     <li>{@code json} (default): one JSON file per object, see {@link JsonDatabase}</li>
+ *     <li>{@code log}: append-only segment files, see {@link LogDatabase}</li>
+ *     <li>{@code sql}: a table per collection in the embedded SQL database at the JDBC URL
+ *     {@code conference.sql.url}, see {@link SqlDatabase}; its JDBC driver is not shipped and must be put
+ *     in phase2/lib (see readme.txt)</li>
+ * </ul>
+ * How objects are serialized is read from {@code conference.codec} (or {@code conference.codec.<objectName>}):
+ * {@code pretty}, {@code compact} or {@code binary}, see {@link RecordCodec#forName}. By default json
+ * collections stay pretty-printed and log collections are compact. Existing records are migrated as they are read.
+ * <p>
+ * Setting {@code conference.compress} (or {@code conference.compress.<objectName>}) to a number of bytes
+ * compresses the records of at least that size, see {@link CompressedCodec}, e.g.
+ * {@code -Dconference.compress.Messages=4096} for long conversations.
+ * <p>
+ * Json collections keep their files in one directory unless {@code conference.layout} (or
+ * {@code conference.layout.<objectName>}) is {@code sharded}, see {@link ShardLayout}; existing collections
+ * are then migrated to the sharded layout in the background.
+ * <p>
+ * Setting {@code conference.writeBehind} (or {@code conference.writeBehind.<objectName>}) to a number of
+ * milliseconds puts json collections in write-behind mode, flushing at that interval or once
+ * {@code conference.writeBehind.maxPending} (default {@value #DEFAULT_MAX_PENDING}) ids are queued, see
+ * {@link JsonDatabase#enableWriteBehind}.
+ * <p>
+ * Setting {@code conference.shared} (or {@code conference.shared.<objectName>}) to {@code true} lets several
+ * instances of the program use the same json collections at once, with records locked across processes,
+ * see {@link JsonDatabase#enableProcessLocks}; write-behind is then ignored for those collections. Sql
+ * collections then check every id against the table, see {@link SqlDatabase#enableProcessSharing}. Log
+ * collections cannot be shared: a {@link LogDatabase} directory is only ever open in one process.
+ * <p>
+ * Setting {@code conference.metrics} (or {@code conference.metrics.<objectName>}) to {@code true} wraps the
+ * gateways in a {@link MeteredGateway}, whose {@link GatewayMetrics} are registered over JMX. Setting
+ * {@code conference.metrics.dumpSeconds} also prints them all at that interval.
+ * <p>
+ * Every collection has a single gateway per program, shared by everyone who asks for it. Before the first
+ * gateway is handed out, a {@link Transaction} interrupted by the previous run is recovered.
+ */
+public class GatewayFactory {
+    public static final String PROPERTY = "conference.gateway";
+    public static final String CODEC_PROPERTY = "conference.codec";
+    public static final String LAYOUT_PROPERTY = "conference.layout";
+    public static final String SQL_URL_PROPERTY = "conference.sql.url";
+    public static final String WRITE_BEHIND_PROPERTY = "conference.writeBehind";
+    public static final String SHARED_PROPERTY = "conference.shared";
+    public static final String COMPRESS_PROPERTY = "conference.compress";
+    public static final String METRICS_PROPERTY = "conference.metrics";
+    public static final int DEFAULT_MAX_PENDING = 1000;
+
+    private static final Map<String, IGateway<?>> GATEWAYS = new ConcurrentHashMap<>();
+    private static final Map<String, Class<?>> TYPES = new ConcurrentHashMap<>();
+    private static volatile boolean recovered;
+    private static boolean recovering;
+
+    private GatewayFactory() {
+    }
+
+    /**
+     * Gets the gateway for a collection, creating it on first use.
+     *
+     * @param objectName the name representative of the object class being stored.
+     * @param type       type of object (e.g. if T = Event, then type = Event.class)
+     * @param <T>        objects being stored.
+     * @return the shared gateway of that collection.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> IGateway<T> create(String objectName, Class<T> type) {
+        recoverOnce();
+        return (IGateway<T>) GATEWAYS.computeIfAbsent(objectName, name -> {
+            TYPES.put(name, type);
+            IGateway<T> gateway = newGateway(name, type);
+            if (Boolean.parseBoolean(setting(METRICS_PROPERTY, name, "false"))) {
+                gateway = new MeteredGateway<>(gateway, GatewayMetrics.forCollection(name));
+            }
+            return gateway;
+        });
+    }
+
+    /**
+     * Gets the name of the collection of a gateway created here.
+     *
+     * @param gateway a gateway.
+     * @return its collection name; null if it was not created here.
+     */
+    static String nameOf(IGateway<?> gateway) {
+        for (Map.Entry<String, IGateway<?>> entry : GATEWAYS.entrySet()) {
+            if (entry.getValue() == gateway) return entry.getKey();
+        }
+        return null;
+    }
+
+    /**
+     * @param objectName name of a collection with a gateway created here.
+     * @return type of the objects of that collection.
+     */
+    static Class<?> typeOf(String objectName) {
+        return TYPES.get(objectName);
+    }
+
+    private static void recoverOnce() {
+        if (recovered) return;
+        synchronized (GatewayFactory.class) {
+            // recovery itself creates gateways on this thread
+            if (recovered || recovering) return;
+            recovering = true;
+            try {
+                Long dumpSeconds = Long.getLong(METRICS_PROPERTY + ".dumpSeconds");
+                if (dumpSeconds != null) {
+                    GatewayMetrics.startDump(dumpSeconds, TimeUnit.SECONDS, System.err);
+                }
+                Transaction.recover();
+            } finally {
+                recovered = true;
+            }
+        }
+    }
+
+    private static <T> IGateway<T> newGateway(String objectName, Class<T> type) {
+        String engine = setting(PROPERTY, objectName, "json");
+        switch (engine) {
+            case "json":
+                JsonDatabase<T> json = new JsonDatabase<>(JsonDatabase.DIRECTORY_ROOT, objectName, type,
+                        codec(objectName, type, "pretty"),
+                        ShardLayout.isSharded(setting(LAYOUT_PROPERTY, objectName, ShardLayout.FLAT)));
+                String flushInterval = setting(WRITE_BEHIND_PROPERTY, objectName, null);
+                if (Boolean.parseBoolean(setting(SHARED_PROPERTY, objectName, "false"))) {
+                    try {
+                        json.enableProcessLocks();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                } else if (flushInterval != null) {
+                    json.enableWriteBehind(Long.parseLong(flushInterval),
+                            Integer.getInteger(WRITE_BEHIND_PROPERTY + ".maxPending", DEFAULT_MAX_PENDING));
+                }
+                return json;
+            case "log":
+                if (Boolean.parseBoolean(setting(SHARED_PROPERTY, objectName, "false"))) {
+                    // every process would append to and compact the same segments
+                    throw new IllegalArgumentException("Log collections cannot be shared between processes: "
+                            + objectName);
+                }
+                return new LogDatabase<>(LogDatabase.DIRECTORY_ROOT, objectName, type,
+                        codec(objectName, type, "compact"));
+            case "sql":
+                SqlDatabase<T> sql = new SqlDatabase<>(System.getProperty(SQL_URL_PROPERTY, SqlDatabase.DEFAULT_URL),
+                        objectName, type, codec(objectName, type, "compact"));
+                if (Boolean.parseBoolean(setting(SHARED_PROPERTY, objectName, "false"))) {
+                    sql.enableProcessSharing();
+                }
+                return sql;
+            default:
+                throw new IllegalArgumentException("Unknown gateway: " + engine);
+        }
+    }
+
+    /**
+     * Makes the codec configured for a collection, compressed if compression is configured for it.
+     */
+    private static <T> RecordCodec<T> codec(String objectName, Class<T> type, String fallback) {
+        RecordCodec<T> codec = RecordCodec.forName(setting(CODEC_PROPERTY, objectName, fallback), type);
+        String threshold = setting(COMPRESS_PROPERTY, objectName, null);
+        return threshold == null ? codec : new CompressedCodec<>(codec, type, Integer.parseInt(threshold));
+    }
+
+    /**
+     * Reads a setting for a collection: property.objectName if set, else property, else fallback.
+     */
+    private static String setting(String property, String objectName, String fallback) {
+        return System.getProperty(property + "." + objectName, System.getProperty(property, fallback));
+    }
+}
@@ -0,0 +1,175 @@
+package Gateways;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the gateway of one collection, recorded by a {@link MeteredGateway}: a latency histogram per
+ * operation, the bytes the gateway read and wrote, and the hits of its record cache.
+ * <p>
+ * The metrics of every collection are registered as an MBean, see {@link GatewayMetricsMXBean}, and can be
+ * printed periodically with {@link #startDump}.
+ */
+public class GatewayMetrics implements GatewayMetricsMXBean {
+    /**
+     * The operations timed.
+     */
+    public enum Operation {
+        READ, READ_ALL, READ_FIELD, WRITE, WRITE_ALL, COMPARE_AND_WRITE, UPDATE, DELETE, EXISTS, VERSION,
+        GET_IDS, FILTER_STREAM, FILTER_LIST, LOOKUP, SCAN, PARALLEL_SCAN, FLUSH, APPLY_JOURNALED, CHECKPOINT
+    }
+
+    private static final Map<String, GatewayMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService DUMPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "gateway-metrics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String collection;
+    private final Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+    private volatile ByteCounters bytes;
+    private volatile RecordCache cache;
+
+    private GatewayMetrics(String collection) {
+        this.collection = collection;
+        for (Operation operation : Operation.values()) {
+            histograms.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Gets the metrics of a collection, creating and registering them with the platform MBean server on
+     * first use.
+     *
+     * @param collection name of the collection.
+     * @return the metrics of that collection.
+     */
+    public static GatewayMetrics forCollection(String collection) {
+        return METRICS.computeIfAbsent(collection, name -> {
+            GatewayMetrics metrics = new GatewayMetrics(name);
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(
+                        "Gateways:type=GatewayMetrics,name=" + ObjectName.quote(name)));
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+            return metrics;
+        });
+    }
+
+    /**
+     * Prints the metrics of every collection to out every period, from a daemon thread.
+     *
+     * @param period time between dumps.
+     * @param unit   unit of period.
+     * @param out    where the metrics are printed.
+     */
+    public static void startDump(long period, TimeUnit unit, PrintStream out) {
+        DUMPER.scheduleAtFixedRate(() -> out.print(dumpAll()), period, period, unit);
+    }
+
+    /**
+     * @return the metrics of every collection as text, in order of collection name.
+     */
+    public static String dumpAll() {
+        StringBuilder text = new StringBuilder();
+        for (GatewayMetrics metrics : new TreeMap<>(METRICS).values()) {
+            text.append(metrics.dump());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Reports the bytes and cache hits of gateway from now on.
+     *
+     * @param gateway the gateway being measured.
+     */
+    void watch(IGateway<?> gateway) {
+        bytes = gateway.getByteCounters();
+        cache = gateway.getCache();
+    }
+
+    /**
+     * Records one call of an operation.
+     *
+     * @param operation the operation.
+     * @param nanos     how long it took.
+     */
+    public void record(Operation operation, long nanos) {
+        histograms.get(operation).record(nanos);
+    }
+
+    @Override
+    public String getCollection() {
+        return collection;
+    }
+
+    @Override
+    public Map<String, OperationStats> getOperations() {
+        Map<String, OperationStats> operations = new LinkedHashMap<>();
+        for (Map.Entry<Operation, LatencyHistogram> entry : histograms.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                operations.put(entry.getKey().name(), new OperationStats(entry.getValue()));
+            }
+        }
+        return operations;
+    }
+
+    @Override
+    public long getBytesRead() {
+        ByteCounters counters = bytes;
+        return counters == null ? -1 : counters.getRead();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        ByteCounters counters = bytes;
+        return counters == null ? -1 : counters.getWritten();
+    }
+
+    @Override
+    public long getCacheHits() {
+        RecordCache recordCache = cache;
+        return recordCache == null ? -1 : recordCache.getHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        RecordCache recordCache = cache;
+        return recordCache == null ? -1 : recordCache.getMisses();
+    }
+
+    @Override
+    public double getCacheHitRatio() {
+        long hits = getCacheHits();
+        long lookups = hits + getCacheMisses();
+        return hits < 0 || lookups == 0 ? -1 : (double) hits / lookups;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("[%s] bytes read=%d written=%d", collection, getBytesRead(), getBytesWritten()));
+        if (cache != null) {
+            text.append(String.format(" cache hits=%d misses=%d ratio=%.3f", getCacheHits(), getCacheMisses(),
+                    getCacheHitRatio()));
+        }
+        text.append(System.lineSeparator());
+        for (Map.Entry<String, OperationStats> entry : getOperations().entrySet()) {
+            text.append(String.format("  %-18s %s%n", entry.getKey(), entry.getValue()));
+        }
+        return text.toString();
+    }
+}
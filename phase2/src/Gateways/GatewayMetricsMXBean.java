@@ -0,0 +1,49 @@
+package Gateways;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link GatewayMetrics}, registered with the platform MBean server as
+ * {@code Gateways:type=GatewayMetrics,name=<collection>} so that jconsole or any JMX client can read it.
+ */
+public interface GatewayMetricsMXBean {
+    /**
+     * @return name of the collection.
+     */
+    String getCollection();
+
+    /**
+     * @return statistics of every operation called at least once, by operation name.
+     */
+    Map<String, OperationStats> getOperations();
+
+    /**
+     * @return bytes of serialized records read from storage; -1 if the gateway does not count them.
+     */
+    long getBytesRead();
+
+    /**
+     * @return bytes of serialized records written to storage; -1 if the gateway does not count them.
+     */
+    long getBytesWritten();
+
+    /**
+     * @return reads answered by the record cache; -1 if the gateway has no cache.
+     */
+    long getCacheHits();
+
+    /**
+     * @return reads the record cache could not answer; -1 if the gateway has no cache.
+     */
+    long getCacheMisses();
+
+    /**
+     * @return hits over lookups of the record cache; -1 if the gateway has no cache or it was never used.
+     */
+    double getCacheHitRatio();
+
+    /**
+     * @return all of the above as text, one line per operation.
+     */
+    String dump();
+}
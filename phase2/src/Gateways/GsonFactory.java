@@ -0,0 +1,58 @@
+package Gateways;
+
+import Entities.Conversation;
+import Entities.Event;
+import Entities.Message;
+import Entities.Room;
+import Entities.ScheduleEntry;
+import Entities.User;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.Calendar;
+
+/**
+ * Builds the Gson instances used by the gateways, with the adapters every gateway needs registered.
+ * <p>
+ * Every entity has a hand-written adapter, so records are written and read through getters and constructors
+ * rather than by reflection. The adapters write the same fields as Gson's reflective adapter did, so records
+ * written before they were added still read.
+ */
+public class GsonFactory {
+    private static final Gson PRETTY = builder(false).setPrettyPrinting().create();
+    private static final Gson COMPACT = builder(true).create();
+
+    private GsonFactory() {
+    }
+
+    /**
+     * Gets the Gson writing pretty-printed JSON in the original record format.
+     *
+     * @return shared Gson instance.
+     */
+    public static Gson pretty() {
+        return PRETTY;
+    }
+
+    /**
+     * Gets the Gson writing JSON without whitespace and with calendars as milliseconds.
+     *
+     * @return shared Gson instance.
+     */
+    public static Gson compact() {
+        return COMPACT;
+    }
+
+    private static GsonBuilder builder(boolean calendarAsMillis) {
+        CalendarAdapter calendars = new CalendarAdapter(calendarAsMillis);
+        MessageAdapter messages = new MessageAdapter();
+        return new GsonBuilder()
+                .registerTypeHierarchyAdapter(Calendar.class, calendars)
+                .registerTypeAdapter(User.class, new UserAdapter())
+                .registerTypeAdapter(Event.class, new EventAdapter())
+                .registerTypeAdapter(Room.class, new RoomAdapter())
+                .registerTypeAdapter(ScheduleEntry.class, new ScheduleEntryAdapter(calendars))
+                .registerTypeAdapter(Message.class, messages)
+                .registerTypeAdapter(Conversation.class, new ConversationAdapter(messages));
+    }
+}
@@ -1,7 +1,21 @@
 package Gateways;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -13,11 +27,381 @@ public interface IGateway<T> {
 
     T read(String id);
 
+    /**
+     * Writes many objects at once. Implementations stage all of them and make them durable together,
+     * rather than paying for a separate flush to disk per object.
+     *
+     * @param objects map from unique identifier to object
+     */
+    default void writeAll(Map<String, T> objects) {
+        for (Map.Entry<String, T> entry : objects.entrySet()) {
+            write(entry.getValue(), entry.getKey());
+        }
+    }
+
     T delete(String id);
 
+    /**
+     * Reads many objects at once, in parallel in the {@link ScanPool}, instead of one {@link #read(String)}
+     * per id. Implementations may batch the I/O further.
+     *
+     * @param ids unique identifiers; duplicates are read once
+     * @return map from id to object, in the order of ids; ids of objects that DNE are left out
+     */
+    default Map<String, T> readAll(Collection<String> ids) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<T> objects = ScanPool.run(() -> distinct.parallelStream().map(this::read).collect(Collectors.toList()));
+        Map<String, T> result = new LinkedHashMap<>();
+        for (int i = 0; i < distinct.size(); i++) {
+            if (objects.get(i) != null) result.put(distinct.get(i), objects.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Reads a single top-level field of an object. Implementations that keep objects serialized skip over
+     * the other fields instead of deserializing the whole object.
+     *
+     * @param id    unique identifier
+     * @param field name of the field
+     * @param type  type of the field
+     * @param <F>   type of the field
+     * @return the value of the field; null if the object DNE or has no such field
+     */
+    default <F> F readField(String id, String field, Class<F> type) {
+        Projection.Field<F> value = Projection.Field.value(field, type);
+        Projection.Values values = readFields(id, value);
+        return values == null ? null : values.get(value);
+    }
+
+    /**
+     * Counts the elements of a top-level collection field of an object without deserializing them.
+     *
+     * @param id    unique identifier
+     * @param field name of the field
+     * @return number of elements; -1 if the object DNE or has no such field
+     */
+    default int readFieldSize(String id, String field) {
+        Projection.Field<Integer> size = Projection.Field.size(field);
+        Projection.Values values = readFields(id, size);
+        return values == null ? -1 : values.get(size);
+    }
+
+    /**
+     * Reads several top-level fields of an object at once, from the same version of it, so that fields that
+     * only make sense together (e.g. a capacity and the number of attendees) cannot be torn by a write in
+     * between. Implementations that keep objects serialized read them in one pass over the serialized form;
+     * by default the object is read and the fields are taken from it by reflection.
+     *
+     * @param id     unique identifier
+     * @param fields the fields read; their names must differ
+     * @return what was read of each field; null if the object DNE
+     */
+    default Projection.Values readFields(String id, Projection.Field<?>... fields) {
+        T obj = read(id);
+        return obj == null ? null : Projection.fieldsOf(obj, fields);
+    }
+
     List<String> getIds();
 
+    /**
+     * Gets one page of the stored ids, in increasing order, without reading the objects. The next page is
+     * read by passing the last id of this one as afterId.
+     *
+     * @param afterId the page starts after this id; null for the first page
+     * @param limit   maximum number of ids returned
+     * @return list of ids in increasing order; fewer than limit iff there are no more
+     */
+    default List<String> getIds(String afterId, int limit) {
+        List<String> ids = new ArrayList<>(getIds());
+        Collections.sort(ids);
+        int start = 0;
+        if (afterId != null) {
+            int found = Collections.binarySearch(ids, afterId);
+            start = found >= 0 ? found + 1 : -found - 1;
+        }
+        return new ArrayList<>(ids.subList(start, start + Math.max(0, Math.min(limit, ids.size() - start))));
+    }
+
+    /**
+     * Makes durable any writes and deletes the gateway has accepted but not yet written to disk.
+     * Gateways that write through do nothing.
+     *
+     * @throws java.io.UncheckedIOException if some of them could not be written; they stay pending
+     */
+    default void flush() {
+    }
+
+    /**
+     * Applies the writes and deletes of a committed {@link Transaction}. Its journal record already holds
+     * them durably, so implementations need not force them to disk one by one; {@link #checkpoint} does that
+     * later for the objects of many transactions at once. By default they are written and deleted as usual,
+     * then checked to have taken effect.
+     *
+     * @param writes  map from unique identifier to object to write
+     * @param deletes unique identifiers of the objects to delete
+     * @throws IOException if any of them could not be applied; the journal record must then be kept
+     */
+    default void applyJournaled(Map<String, T> writes, Collection<String> deletes) throws IOException {
+        writeAll(writes);
+        for (String id : deletes) {
+            delete(id);
+        }
+        flush();
+        for (String id : writes.keySet()) {
+            if (!exists(id)) throw new IOException("Could not write " + id);
+        }
+        for (String id : deletes) {
+            if (exists(id)) throw new IOException("Could not delete " + id);
+        }
+    }
+
+    /**
+     * Forces to disk the objects with ids as left by {@link #applyJournaled}, so that the journal records
+     * holding them can be dropped. Gateways that write through only flush.
+     *
+     * @param ids unique identifiers of objects written or deleted since the last checkpoint
+     * @throws IOException if they could not be forced to disk
+     */
+    default void checkpoint(Collection<String> ids) throws IOException {
+        flush();
+    }
+
+    /**
+     * @param id unique identifier
+     * @return true iff an object with id is stored
+     */
+    boolean exists(String id);
+
+    /**
+     * Gets the version of the object with id, which changes every time it is written or deleted.
+     * Read the version before the object itself; {@link #compareAndWrite} then fails if the object was
+     * changed by anyone else since.
+     *
+     * @param id unique identifier
+     * @return version stamp; {@link VersionTable#ABSENT} if the object DNE
+     */
+    long version(String id);
+
+    /**
+     * Writes obj only if the object with id is still at expectedVersion, i.e. nobody wrote or deleted it since
+     * that version was read. Callers retry on failure by reading the version and the object again. Checking
+     * and writing are atomic with respect to {@link #write} and other compareAndWrite calls for the same id.
+     *
+     * @param id              unique identifier
+     * @param expectedVersion version read with {@link #version}; {@link VersionTable#ABSENT} to only create
+     * @param obj             object
+     * @return true iff obj was written
+     * @throws UncheckedIOException if obj could not be written; its version is then unchanged
+     */
+    boolean compareAndWrite(String id, long expectedVersion, T obj);
+
+    /**
+     * Changes the object with id and writes it back without losing concurrent writes of it. By default the
+     * object is read with its version and written with {@link #compareAndWrite}, and if it changed in the
+     * meantime change is applied again to the new version, so change may run more than once; implementations
+     * may lock the object instead.
+     *
+     * @param id     unique identifier
+     * @param change changes the object in place; returns false if there is nothing to write
+     * @return true iff the object exists, change returned true and the object was written
+     * @throws UncheckedIOException if the changed object could not be written; the stored object and its
+     *                              version are then unchanged
+     */
+    default boolean update(String id, Predicate<T> change) {
+        while (true) {
+            long version = version(id);
+            T obj = read(id);
+            if (obj == null || !change.test(obj)) return false;
+            if (compareAndWrite(id, version, obj)) return true;
+        }
+    }
+
+    /**
+     * Changes or creates many objects without losing concurrent writes of any of them. change is given each
+     * id with its current object, or null if it DNE, and returns the object to write, or null to leave it
+     * as it is. By default every object goes through its own {@link #compareAndWrite} retry loop, as in
+     * {@link #update}, so change may run more than once for an id; implementations may instead lock all of
+     * the objects and write them back in one batch.
+     *
+     * @param ids    unique identifiers; duplicates are changed once
+     * @param change gives the object to write for an id and its current object
+     * @return map from id to the object written, in the order of ids
+     */
+    default Map<String, T> updateAll(Collection<String> ids, BiFunction<String, T, T> change) {
+        Map<String, T> written = new LinkedHashMap<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            while (true) {
+                long version = version(id);
+                T obj = read(id);
+                T updated = change.apply(id, obj);
+                if (updated == null) break;
+                if (compareAndWrite(id, obj == null ? VersionTable.ABSENT : version, updated)) {
+                    written.put(id, updated);
+                    break;
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Registers listener to be told about every write and delete of an object from now on, so views can
+     * refresh the objects that changed instead of polling. Changes made by other processes are reported
+     * too where the gateway can see them.
+     *
+     * @param listener listener; called asynchronously, see {@link ChangeFeed}
+     */
+    void addListener(ChangeListener listener);
+
+    /**
+     * Stops calling a listener registered with {@link #addListener}.
+     *
+     * @param listener listener
+     */
+    void removeListener(ChangeListener listener);
+
+    /**
+     * @return counters of the bytes of serialized records the gateway reads from and writes to its storage;
+     * null if it does not count them
+     */
+    default ByteCounters getByteCounters() {
+        return null;
+    }
+
+    /**
+     * @return the cache of records the gateway reads through; null if it has none
+     */
+    default RecordCache getCache() {
+        return null;
+    }
+
     Stream<T> filterStream(Predicate<T> predicate);
 
     List<T> filterList(Predicate<T> predicate);
+
+    /**
+     * Registers a secondary index of the objects by a single key, e.g. {@code Event::isVIPOnly}.
+     * The index is built from the stored objects and maintained on every write and delete.
+     * Registering a name that is already registered does nothing.
+     *
+     * @param name      name of the index
+     * @param extractor gets the key an object is indexed under
+     */
+    void addIndex(String name, Function<T, ?> extractor);
+
+    /**
+     * Registers a secondary index of the objects by several keys each, e.g. {@code Event::getAttendees}.
+     *
+     * @param name      name of the index
+     * @param extractor gets the keys an object is indexed under
+     */
+    void addMultiIndex(String name, Function<T, ? extends Collection<?>> extractor);
+
+    /**
+     * Gets the ids of the objects indexed under key, without scanning the collection.
+     *
+     * @param name name of a registered index
+     * @param key  key looked up
+     * @return list of ids; empty if there are none
+     */
+    List<String> lookup(String name, Object key);
+
+    /**
+     * Gets the ids of the objects indexed under key, one page at a time in id order.
+     *
+     * @param name    name of a registered index
+     * @param key     key looked up
+     * @param afterId the page starts after this id; null for the first page
+     * @param limit   maximum number of ids returned
+     * @return list of ids in increasing order; fewer than limit iff there are no more
+     */
+    List<String> lookup(String name, Object key, String afterId, int limit);
+
+    /**
+     * Reads one page of the objects matching predicate, in increasing order of id. The next page is read by
+     * passing the last id of this one as afterId; only the objects needed to fill the page are read.
+     *
+     * @param afterId   the page starts after this id; null for the first page
+     * @param limit     maximum number of objects returned
+     * @param predicate a predicate checked against each element to see if it should be included
+     * @return map from id to object in increasing order of id; fewer than limit entries iff there are no more
+     */
+    default Map<String, T> scan(String afterId, int limit, Predicate<T> predicate) {
+        return scanIds(getIds(afterId, Integer.MAX_VALUE).iterator(), limit, predicate);
+    }
+
+    /**
+     * Reads the objects with ids, in order and limit at a time with {@link #readAll}, until limit of them
+     * match predicate.
+     *
+     * @param ids       ids in the order of the scan
+     * @param limit     maximum number of objects returned
+     * @param predicate a predicate checked against each element to see if it should be included
+     * @return map from id to matching object, in the order of ids
+     */
+    default Map<String, T> scanIds(Iterator<String> ids, int limit, Predicate<T> predicate) {
+        Map<String, T> page = new LinkedHashMap<>();
+        while (page.size() < limit && ids.hasNext()) {
+            List<String> batch = new ArrayList<>();
+            while (batch.size() < limit && ids.hasNext()) {
+                batch.add(ids.next());
+            }
+            for (Map.Entry<String, T> entry : readAll(batch).entrySet()) {
+                if (page.size() == limit) break;
+                if (predicate.test(entry.getValue())) page.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Scans the stored objects in parallel, in the {@link ScanPool} rather than the common pool.
+     * Short-circuiting terminal operations (findFirst, anyMatch, ...) stop the scan early.
+     *
+     * @param predicate a predicate checked against each element to see if it should be included
+     * @param ordered   whether the elements keep the order of {@link #getIds()}; unordered scans are cheaper
+     * @param terminal  the terminal operation applied to the parallel stream of matching elements
+     * @param <R>       type of the result
+     * @return the result of terminal
+     */
+    default <R> R parallelScan(Predicate<T> predicate, boolean ordered, Function<Stream<T>, R> terminal) {
+        return ScanPool.run(() -> {
+            Stream<String> ids = getIds().parallelStream();
+            if (!ordered) ids = ids.unordered();
+            return terminal.apply(ids.map(this::read).filter(Objects::nonNull).filter(predicate));
+        });
+    }
+
+    /**
+     * Parallel version of {@link #filterList(Predicate)}.
+     *
+     * @param predicate a predicate checked against each element to see if it should be included
+     * @param ordered   whether the elements keep the order of {@link #getIds()}
+     * @return a list of elements that match the predicate
+     */
+    default List<T> parallelFilterList(Predicate<T> predicate, boolean ordered) {
+        return parallelScan(predicate, ordered, s -> s.collect(Collectors.toList()));
+    }
+
+    /**
+     * Finds an element matching predicate, scanning in parallel.
+     *
+     * @param predicate a predicate checked against each element
+     * @param ordered   true for the first match in the order of {@link #getIds()}; false for any match
+     * @return a matching element, if there is one
+     */
+    default Optional<T> parallelFind(Predicate<T> predicate, boolean ordered) {
+        return parallelScan(predicate, ordered, s -> ordered ? s.findFirst() : s.findAny());
+    }
+
+    /**
+     * Checks if any element matches predicate, scanning in parallel and stopping at the first match.
+     *
+     * @param predicate a predicate checked against each element
+     * @return true iff an element matches
+     */
+    default boolean parallelAnyMatch(Predicate<T> predicate) {
+        return parallelFind(predicate, false).isPresent();
+    }
 }
@@ -0,0 +1,387 @@
+package Gateways;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * In-memory set of the ids stored in a JsonDatabase directory.
+ * <p>
+ * The directory is listed once; after that the set is kept up to date by this process's own writes
+ * and deletes, and by a {@link DirectoryWatcher} for changes made by other processes. If the watcher
+ * loses events the set is dropped and the directory is listed again on next use.
+ * <p>
+ * A file the watcher sees change is looked at under the read lock of its stripe of {@link LockStripes}.
+ * Databases report every file they write with {@link #wrote}, which keeps its size, modification time and
+ * file key; a file that still has those is an echo of this process's own write and is ignored without
+ * reading it. Otherwise the file is read, and if it holds what this process last wrote, still in the
+ * {@link RecordCache}, it is ignored too. Otherwise another process changed the record: the id set is
+ * updated, the cached copy dropped, the record given a new version in the {@link VersionTable} if the
+ * stripes are shared with other processes, and the {@link Observer}s update what they derive from the
+ * record. Only then is the
+ * change published to the directory's {@link ChangeFeed}, so listeners already see it everywhere.
+ * <p>
+ * In the sharded {@link ShardLayout} the shard subdirectories are listed and watched as well, and
+ * records still in the collection directory itself (not yet migrated) are counted too.
+ * <p>
+ * Databases holding changes not yet on disk tell it through their {@link Observer}, so that the watcher
+ * does not overwrite them with the older state of the files.
+ */
+public class IdIndex {
+    /**
+     * A database of the directory, told about the changes the watcher sees.
+     */
+    public interface Observer {
+        /**
+         * @param id unique identifier.
+         * @return true iff a newer write or delete of id is queued and not yet on disk, so what the watcher
+         * sees of its file is stale.
+         */
+        boolean pending(String id);
+
+        /**
+         * Corrects the ids listed from the directory with the writes and deletes queued but not yet on disk.
+         *
+         * @param listed ids listed; the queued writes are added and the queued deletes removed.
+         */
+        void reconcile(Set<String> listed);
+
+        /**
+         * Called when another process wrote or deleted id, holding the read lock of its stripe.
+         *
+         * @param id   unique identifier.
+         * @param data the serialized record now on disk; null if it was deleted.
+         */
+        void changed(String id, byte[] data);
+
+        /**
+         * Called when the watcher lost events, so any record may have changed.
+         */
+        void changedAll();
+    }
+
+    private static final Map<String, IdIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final File directory;
+    private final ShardLayout layout;
+    private final ChangeFeed changes;
+    private final RecordCache cache;
+    private final VersionTable versions;
+    private final LockStripes stripes;
+    private final Set<String> watched = ConcurrentHashMap.newKeySet();
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+    // the file this process last wrote of each id it wrote; dropped with the id, so bounded like the set
+    private final Map<String, Stamp> stamps = new ConcurrentHashMap<>();
+    private volatile NavigableSet<String> ids;
+
+    /**
+     * What tells a file apart from any other written in its place: each write renames a new file over the
+     * old one, so it has a new file key (inode) where the platform has them, and a new modification time.
+     */
+    private static final class Stamp {
+        final long size;
+        final FileTime modified;
+        final Object fileKey;
+
+        Stamp(BasicFileAttributes attributes) {
+            this.size = attributes.size();
+            this.modified = attributes.lastModifiedTime();
+            this.fileKey = attributes.fileKey();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stamp)) return false;
+            Stamp other = (Stamp) o;
+            return size == other.size && modified.equals(other.modified) && Objects.equals(fileKey, other.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, modified, fileKey);
+        }
+    }
+
+    private IdIndex(File directory, ShardLayout layout) {
+        this.directory = directory;
+        this.layout = layout;
+        this.changes = ChangeFeed.forDirectory(directory);
+        this.cache = RecordCache.forDirectory(directory);
+        this.versions = VersionTable.forDirectory(directory);
+        this.stripes = LockStripes.forDirectory(directory);
+        watch(directory, 0);
+    }
+
+    /**
+     * Gets the index shared by all gateways storing records into directory.
+     *
+     * @param directory directory of the collection.
+     * @param layout    where the records of the collection are kept.
+     * @return the shared index for that directory.
+     */
+    public static IdIndex forDirectory(File directory, ShardLayout layout) {
+        return INDEXES.computeIfAbsent(directory.getAbsolutePath(), k -> new IdIndex(directory, layout));
+    }
+
+    /**
+     * @param id unique identifier.
+     * @return true iff id is stored.
+     */
+    public boolean contains(String id) {
+        return loadedIds().contains(id);
+    }
+
+    /**
+     * @return a new list of all stored ids, in increasing order.
+     */
+    public ArrayList<String> list() {
+        return new ArrayList<>(loadedIds());
+    }
+
+    /**
+     * Iterates over the stored ids after afterId, in increasing order, without copying them.
+     * The iteration reflects ids written and deleted while it runs.
+     *
+     * @param afterId the iteration starts after this id; null to start with the first id.
+     * @return iterator over the ids.
+     */
+    public Iterator<String> after(String afterId) {
+        NavigableSet<String> current = loadedIds();
+        return (afterId == null ? current : current.tailSet(afterId, false)).iterator();
+    }
+
+    /**
+     * Tells observer about the changes the watcher sees from now on.
+     *
+     * @param observer observer.
+     */
+    public void addObserver(Observer observer) {
+        observers.add(observer);
+    }
+
+    /**
+     * Records that id was written.
+     *
+     * @param id unique identifier.
+     */
+    public synchronized void add(String id) {
+        if (ids != null) ids.add(id);
+    }
+
+    /**
+     * Records the file this process just wrote for id, so that the watcher's event for it is known to be an
+     * echo without reading the file. Call it while holding the write lock of the stripe of id.
+     *
+     * @param id   unique identifier.
+     * @param file the file written.
+     */
+    public void wrote(String id, File file) {
+        try {
+            stamps.put(id, new Stamp(Files.readAttributes(file.toPath(), BasicFileAttributes.class)));
+        } catch (IOException e) {
+            // the watcher then compares the file with the cached record instead
+            stamps.remove(id);
+        }
+    }
+
+    /**
+     * Records that id was deleted.
+     *
+     * @param id unique identifier.
+     */
+    public synchronized void remove(String id) {
+        stamps.remove(id);
+        if (ids != null) ids.remove(id);
+    }
+
+    /**
+     * Drops the set; the directory is listed again on next use.
+     */
+    public synchronized void invalidate() {
+        ids = null;
+    }
+
+    private NavigableSet<String> loadedIds() {
+        NavigableSet<String> current = ids;
+        return current != null ? current : load();
+    }
+
+    private synchronized NavigableSet<String> load() {
+        if (ids != null) return ids;
+
+        NavigableSet<String> loaded = new ConcurrentSkipListSet<>();
+        list(directory, 0, loaded);
+        for (Observer observer : observers) {
+            observer.reconcile(loaded);
+        }
+        ids = loaded;
+        return loaded;
+    }
+
+    /**
+     * Adds the ids of the records in dir, and in the shard subdirectories below it, to loaded.
+     *
+     * @param depth levels dir is below the collection directory.
+     */
+    private void list(File dir, int depth, Set<String> loaded) {
+        File[] files = null;
+        try {
+            files = dir.listFiles();
+        } catch (SecurityException e) {
+            e.printStackTrace();
+        }
+        if (files == null) return;
+        for (File file : files) {
+            if (isShard(file, depth)) {
+                watch(file, depth + 1);
+                list(file, depth + 1, loaded);
+            } else {
+                String id = layout.idOf(file.getName());
+                if (id != null) loaded.add(id);
+            }
+        }
+    }
+
+    private boolean isShard(File file, int depth) {
+        return layout.isSharded() && depth < ShardLayout.DEPTH && file.isDirectory();
+    }
+
+    private void watch(File dir, int depth) {
+        if (watched.add(dir.getAbsolutePath())) {
+            DirectoryWatcher.watch(dir.toPath(), (kind, fileName) -> onChange(dir, depth, kind, fileName));
+        }
+    }
+
+    private void onChange(File dir, int depth, WatchEvent.Kind<?> kind, String fileName) {
+        if (kind == StandardWatchEventKinds.OVERFLOW) {
+            invalidate();
+            cache.clear();
+            versions.invalidateAll();
+            for (Observer observer : observers) {
+                observer.changedAll();
+            }
+            changes.publish(null, ChangeListener.Kind.UNKNOWN);
+            return;
+        }
+        File file = new File(dir, fileName);
+        if (isShard(file, depth)) {
+            // a new shard directory; records may have been written into it before it was watched
+            watch(file, depth + 1);
+            Set<String> found = new HashSet<>();
+            list(file, depth + 1, found);
+            for (String id : found) {
+                refresh(id);
+            }
+            return;
+        }
+        String id = layout.idOf(fileName);
+        if (id != null) refresh(id);
+    }
+
+    /**
+     * Brings everything known about id up to date with its file and publishes the change, unless the file
+     * is as this process left it.
+     */
+    private void refresh(String id) {
+        byte[] data;
+        Lock lock = stripes.get(id).readLock();
+        lock.lock();
+        try {
+            if (pending(id)) return;
+            NavigableSet<String> current = ids;
+            boolean listed = current == null || current.contains(id);
+            Path path = locate(id);
+            if (path != null && listed && isOwn(id, path)) return;
+            data = path == null ? null : readFile(path);
+            byte[] cached = cache.peek(id);
+            if (data == null ? cached == null && !listed : listed && Arrays.equals(data, cached)) return;
+
+            if (data == null) {
+                remove(id);
+            } else {
+                stamps.remove(id);
+                add(id);
+            }
+            cache.invalidate(id);
+            // an own write evicted from the cache also gets here; only when shared could it be another's
+            if (stripes.isShared()) {
+                if (data == null) {
+                    versions.deleted(id);
+                } else {
+                    versions.changed(id);
+                }
+            }
+            for (Observer observer : observers) {
+                observer.changed(id, data);
+            }
+        } finally {
+            lock.unlock();
+        }
+        changes.publish(id, data == null ? ChangeListener.Kind.DELETED : ChangeListener.Kind.WRITTEN);
+    }
+
+    /**
+     * @return the file of id, wherever it is while being migrated; null if it DNE.
+     */
+    private Path locate(String id) {
+        Path path = layout.file(id).toPath();
+        if (Files.exists(path)) return path;
+        // a record moves from the collection directory into its shard while being migrated
+        if (!layout.isSharded()) return null;
+        path = layout.flatFile(id).toPath();
+        return Files.exists(path) ? path : null;
+    }
+
+    /**
+     * @return true iff path is the file this process last wrote for id.
+     */
+    private boolean isOwn(String id, Path path) {
+        Stamp stamp = stamps.get(id);
+        if (stamp == null) return false;
+        try {
+            return stamp.equals(new Stamp(Files.readAttributes(path, BasicFileAttributes.class)));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the contents of path; null if it was deleted meanwhile.
+     */
+    private static byte[] readFile(Path path) {
+        try {
+            return Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private boolean pending(String id) {
+        for (Observer observer : observers) {
+            if (observer.pending(id)) return true;
+        }
+        return false;
+    }
+}
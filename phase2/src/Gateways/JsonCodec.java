@@ -0,0 +1,66 @@
+package Gateways;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec storing objects as UTF-8 JSON, either pretty-printed (the original record format) or compact.
+ *
+ * @param <T> objects being stored.
+ */
+public class JsonCodec<T> implements RecordCodec<T> {
+    private final Class<T> type;
+    private final boolean pretty;
+    private final Gson gson;
+
+    /**
+     * Constructor.
+     *
+     * @param type   type of object (e.g. if T = Event, then type = Event.class)
+     * @param pretty true to write pretty-printed JSON.
+     */
+    public JsonCodec(Class<T> type, boolean pretty) {
+        this.type = type;
+        this.pretty = pretty;
+        this.gson = pretty ? GsonFactory.pretty() : GsonFactory.compact();
+    }
+
+    @Override
+    public String getName() {
+        return pretty ? "pretty" : "compact";
+    }
+
+    @Override
+    public byte[] encode(T obj) {
+        return gson.toJson(obj).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deserializes an object straight from its UTF-8 JSON bytes, without building an intermediate String.
+     */
+    @Override
+    public T decode(byte[] data, int length) {
+        return gson.fromJson(reader(data, length), type);
+    }
+
+    @Override
+    public JsonReader reader(byte[] data, int length) {
+        Reader reader = new InputStreamReader(new ByteArrayInputStream(data, 0, length), StandardCharsets.UTF_8);
+        return new JsonReader(reader);
+    }
+
+    /**
+     * Pretty-printed records start with a line break right after the opening brace; compact ones do not.
+     */
+    @Override
+    public boolean wrote(byte[] data, int length) {
+        if (length < 2 || data[0] != '{') return false;
+        boolean lineBreak = data[1] == '\n' || data[1] == '\r';
+        return pretty == lineBreak;
+    }
+}
@@ -1,10 +1,21 @@
 package Gateways;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -14,17 +25,75 @@ import java.util.stream.Stream;
  * JSON Files are stored in: group_0058/phase2/database/objectName if the directory does not exist,
  * it is created.
  * <p>
- * Uses GSON library for serializing into JSON
+ * Uses GSON library for serializing into JSON. How objects are serialized is decided by the database's
+ * {@link RecordCodec}: pretty-printed JSON by default, or compact JSON or a binary form (files keep the .json
+ * name either way). Records written with another codec are still read, and are rewritten with the database's
+ * codec the first time they are read.
+ * <p>
+ * Recently read and written objects are kept (serialized) in a bounded {@link RecordCache} shared by all
+ * databases of the same directory, so repeated reads of the same id do not touch the disk. The ids stored
+ * are likewise kept in a shared {@link IdIndex}, so listing ids and checking existence do not list the directory.
+ * <p>
+ * Records are kept either all in the collection directory or spread over shard subdirectories, see
+ * {@link ShardLayout}. A collection opened with the sharded layout is migrated to it online: a background
+ * task moves the records out of the collection directory, and records read before it gets to them are
+ * moved on the spot.
+ * <p>
+ * Optionally, see {@link #enableWriteBehind}, writes and deletes are only queued and are flushed to disk in
+ * the background. Repeated writes of the same id while queued are coalesced into one, so a record rewritten
+ * many times in a row costs a single disk write per flush.
+ * <p>
+ * Operations on a record hold the lock of its stripe of {@link LockStripes}, shared by all databases of the
+ * same directory: reads the read lock, writes and deletes the write lock, and {@link #update} the write lock
+ * for the whole read-modify-write. Operations on the same record are thus serialized while operations on
+ * different records run in parallel. With {@link #enableProcessLocks} the same locks also coordinate with
+ * other processes using the directory.
  *
  * @param <T> objects being stored.
  * @author Alex
  */
 public class JsonDatabase<T> implements IGateway<T> {
-    private final String DIRECTORY_ROOT = "phase2/database/";
+    public static final String DIRECTORY_ROOT = "phase2/database/";
+    private static final String LOCK_FILE = ".lock";
     private final File directory;
-    private Gson gson;
+    private final RecordCodec<T> codec;
+    private final List<RecordCodec<T>> formats;
     private final String objectName;
     private final Class<T> type;
+    private final RecordCache cache;
+    private final IdIndex idIndex;
+    private final VersionTable versions;
+    private final LockStripes stripes;
+    private final ChangeFeed changes;
+    private final ByteCounters bytes = new ByteCounters();
+    private final ShardLayout layout;
+    // true while records may still be in the collection directory instead of their shard
+    private volatile boolean migrating;
+    private final SecondaryIndexes<T> indexes = new SecondaryIndexes<>();
+    // ids of records written with another codec, queued to be rewritten with this one
+    private final Set<String> recoding = ConcurrentHashMap.newKeySet();
+
+    // write-behind: queued records by id (DELETED for a delete), and those being flushed right now
+    private static final byte[] DELETED = new byte[0];
+    private final Map<String, byte[]> pending = new LinkedHashMap<>();
+    private Map<String, byte[]> flushing = Collections.emptyMap();
+    private final Object flushLock = new Object();
+    private volatile int maxPending;
+
+    // reused by every read of a thread, so reading a record does not allocate a buffer for it
+    private static final ThreadLocal<byte[]> READ_BUFFER = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "database-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService MIGRATOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "database-migration");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * Constructor.
@@ -33,42 +102,410 @@ public class JsonDatabase<T> implements IGateway<T> {
      * @param type       type of object (e.g. if T = Event, then type = Event.class)
      */
     public JsonDatabase(String objectName, Class<T> type) {
-        this.directory = new File(String.format("%s%s/", DIRECTORY_ROOT, objectName));
+        this(DIRECTORY_ROOT, objectName, type);
+    }
+
+    /**
+     * Constructor for a database stored somewhere else than the default database directory.
+     *
+     * @param root       directory the database directory is created in.
+     * @param objectName the name representative of the object class being stored.
+     * @param type       type of object (e.g. if T = Event, then type = Event.class)
+     */
+    public JsonDatabase(String root, String objectName, Class<T> type) {
+        this(root, objectName, type, RecordCodec.forName("pretty", type));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param root       directory the database directory is created in.
+     * @param objectName the name representative of the object class being stored.
+     * @param type       type of object (e.g. if T = Event, then type = Event.class)
+     * @param codec      how objects are serialized.
+     */
+    public JsonDatabase(String root, String objectName, Class<T> type, RecordCodec<T> codec) {
+        this(root, objectName, type, codec, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param root       directory the database directory is created in.
+     * @param objectName the name representative of the object class being stored.
+     * @param type       type of object (e.g. if T = Event, then type = Event.class)
+     * @param codec      how objects are serialized.
+     * @param sharded    true to keep records in shard subdirectories, migrating any that are not yet.
+     */
+    public JsonDatabase(String root, String objectName, Class<T> type, RecordCodec<T> codec, boolean sharded) {
+        this.directory = new File(String.format("%s/%s/", root, objectName));
         this.objectName = objectName;
         this.type = type;
-        gson = new GsonBuilder().setPrettyPrinting().create();
+        this.codec = codec;
+        this.formats = RecordCodec.all(type);
+        this.cache = RecordCache.forDirectory(directory);
         // creates the directory if it does not exist
         if (!this.directory.exists()) {
             this.directory.mkdirs();
         }
+        this.layout = new ShardLayout(directory, objectName, sharded);
+        this.idIndex = IdIndex.forDirectory(directory, layout);
+        this.versions = VersionTable.forDirectory(directory);
+        this.stripes = LockStripes.forDirectory(directory);
+        this.changes = ChangeFeed.forDirectory(directory);
+        idIndex.addObserver(new IdIndex.Observer() {
+            @Override
+            public boolean pending(String id) {
+                return maxPending > 0 && queued(id) != null;
+            }
+
+            @Override
+            public void reconcile(Set<String> listed) {
+                reconcileQueued(listed);
+            }
+
+            @Override
+            public void changed(String id, byte[] data) {
+                T obj = data == null ? null : decodeQuietly(id, data);
+                if (obj == null) {
+                    indexes.remove(id);
+                } else {
+                    indexes.update(id, obj);
+                }
+            }
+
+            @Override
+            public void changedAll() {
+                indexes.rebuild(JsonDatabase.this);
+            }
+        });
+        if (sharded) {
+            migrating = true;
+            MIGRATOR.execute(this::migrateAll);
+        }
     }
 
     /**
      * Serialized and writes obj to file. If id already exists, replaces existing entry with new entry.
+     * <p>
+     * The new entry is written and flushed to disk in a temporary file which then atomically replaces
+     * the old entry, so a crash at any point leaves either the old or the new entry, never neither.
      *
      * @param obj object.
      * @param id  unique identifier.
+     * @throws UncheckedIOException if obj could not be written; the old entry, its version and the indexes
+     *                              are then left as they were, and no change is published.
      */
     @Override
     public void write(T obj, String id) {
-        File file = getFile(id);
+        Lock lock = stripes.get(id).writeLock();
+        lock.lock();
+        try {
+            versions.write(id, () -> writeRecord(obj, id));
+            changes.publish(id, ChangeListener.Kind.WRITTEN);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes obj only if the object with id is still at expectedVersion.
+     *
+     * @param id              unique identifier.
+     * @param expectedVersion version read with {@link #version}; {@link VersionTable#ABSENT} to only create.
+     * @param obj             object.
+     * @return true iff obj was written.
+     * @throws UncheckedIOException if obj could not be written, see {@link #write}.
+     */
+    @Override
+    public boolean compareAndWrite(String id, long expectedVersion, T obj) {
+        Lock lock = stripes.get(id).writeLock();
+        lock.lock();
+        try {
+            if (!versions.compareAndWrite(id, expectedVersion, () -> exists(id), () -> writeRecord(obj, id))) {
+                return false;
+            }
+            changes.publish(id, ChangeListener.Kind.WRITTEN);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        // deletes file if exists
-        if (file.exists()) {
+    /**
+     * Changes the object with id and writes it back while holding the write lock of its stripe, so no other
+     * write of it can come in between and change runs exactly once.
+     *
+     * @param id     unique identifier.
+     * @param change changes the object in place; returns false if there is nothing to write.
+     * @return true iff the object exists, change returned true and the object was written.
+     * @throws UncheckedIOException if the changed object could not be written, see {@link #write}.
+     */
+    @Override
+    public boolean update(String id, Predicate<T> change) {
+        Lock lock = stripes.get(id).writeLock();
+        lock.lock();
+        try {
+            T obj = read(id);
+            if (obj == null || !change.test(obj)) return false;
+            write(obj, id);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the version of the object with id.
+     *
+     * @param id unique identifier.
+     * @return version stamp; {@link VersionTable#ABSENT} if object DNE.
+     */
+    @Override
+    public long version(String id) {
+        return versions.get(id, exists(id));
+    }
+
+    private void writeRecord(T obj, String id) {
+        byte[] data = codec.encode(obj);
+        if (maxPending > 0) {
+            enqueue(id, data);
+            cache.put(id, data);
+            idIndex.add(id);
+            indexes.update(id, obj);
+            return;
+        }
+
+        try {
+            writeFile(getFile(id), data);
+        } catch (IOException e) {
+            cache.invalidate(id);
+            throw new UncheckedIOException("Could not write " + objectName + " " + id, e);
+        }
+        cache.put(id, data);
+        idIndex.add(id);
+        indexes.update(id, obj);
+    }
+
+    /**
+     * Writes many objects at once.
+     * <p>
+     * Every object is first encoded and written to its own temporary file, in parallel, and all of those
+     * are forced to disk before any of them replaces its entry. The renames are then made durable by a
+     * single flush of each directory written to. A failure while staging leaves every entry as it was.
+     *
+     * @param objects map from unique identifier to object.
+     * @throws UncheckedIOException if any of them could not be written; those that were are published.
+     */
+    @Override
+    public void writeAll(Map<String, T> objects) {
+        Set<String> written = writeBatch(objects);
+        if (written.size() < objects.size()) {
+            Set<String> failed = new LinkedHashSet<>(objects.keySet());
+            failed.removeAll(written);
+            throw new UncheckedIOException(new IOException("Could not write " + objectName + " " + failed));
+        }
+    }
+
+    /**
+     * Changes or creates many objects while holding the write locks of all of their stripes, so change runs
+     * exactly once per id, and writes them back with one batch as in {@link #writeAll}.
+     *
+     * @param ids    unique identifiers; duplicates are changed once.
+     * @param change gives the object to write for an id and its current object (null if it DNE); returns
+     *               null to leave it as it is.
+     * @return map from id to the object written, in the order of ids; objects that could not be written are
+     * left out.
+     */
+    @Override
+    public Map<String, T> updateAll(Collection<String> ids, BiFunction<String, T, T> change) {
+        List<Lock> locks = stripes.lockAll(ids);
+        try {
+            Map<String, T> updated = new LinkedHashMap<>();
+            for (String id : new LinkedHashSet<>(ids)) {
+                T obj = change.apply(id, readRecord(id));
+                if (obj != null) updated.put(id, obj);
+            }
+            updated.keySet().retainAll(writeBatch(updated));
+            return updated;
+        } finally {
+            stripes.unlockAll(locks);
+        }
+    }
+
+    /**
+     * @return the ids written.
+     */
+    private Set<String> writeBatch(Map<String, T> objects) {
+        if (objects.isEmpty()) return Collections.emptySet();
+        Map<String, byte[]> encoded = ScanPool.run(() -> objects.entrySet().parallelStream()
+                .collect(Collectors.toConcurrentMap(Map.Entry::getKey, e -> codec.encode(e.getValue()))));
+        Set<String> written;
+        // the stripe locks before flushLock, in the same order as write
+        List<Lock> locks = stripes.lockAll(objects.keySet());
+        try {
+            synchronized (flushLock) {
+                // written through, so queued older versions must not be flushed over them
+                synchronized (pending) {
+                    pending.keySet().removeAll(objects.keySet());
+                }
+                written = persist(encoded);
+                for (String id : written) {
+                    cache.put(id, encoded.get(id));
+                    idIndex.add(id);
+                    indexes.update(id, objects.get(id));
+                }
+            }
+            // not under flushLock: a write holding the lock of its version may be flushing
+            for (String id : written) {
+                versions.changed(id);
+                changes.publish(id, ChangeListener.Kind.WRITTEN);
+            }
+            return written;
+        } finally {
+            stripes.unlockAll(locks);
+        }
+    }
+
+    /**
+     * Durably writes many serialized records: each is written to its own temporary file, in parallel, and
+     * all of those are forced to disk before any of them replaces its entry. Each directory written to is
+     * then flushed once.
+     *
+     * @param encoded map from unique identifier to serialized record.
+     * @return the ids written; none if staging failed, in which case every entry is left as it was.
+     */
+    private Set<String> persist(Map<String, byte[]> encoded) {
+        Map<String, Path> staged = new ConcurrentHashMap<>();
+        try {
+            ScanPool.run(() -> {
+                encoded.keySet().parallelStream().forEach(id -> {
+                    try {
+                        staged.put(id, stage(encoded.get(id), true));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+            for (Path temp : staged.values()) {
+                deleteQuietly(temp);
+            }
+            return Collections.emptySet();
+        }
+
+        Set<String> written = new HashSet<>();
+        Set<File> directories = new HashSet<>();
+        for (String id : encoded.keySet()) {
+            Path temp = staged.get(id);
             try {
-                file.delete();
-            } catch (SecurityException e) {
+                commit(temp, getFile(id));
+            } catch (IOException e) {
                 e.printStackTrace();
+                deleteQuietly(temp);
+                cache.invalidate(id);
+                continue;
             }
+            written.add(id);
+            directories.add(getFile(id).getParentFile());
         }
+        for (File dir : directories) {
+            syncDirectory(dir);
+        }
+        return written;
+    }
 
-        String asJson = gson.toJson(obj);
+    /**
+     * Applies the writes and deletes of a committed transaction. Each record is staged in a temporary file
+     * and renamed over its entry, but nothing is forced to disk: the journal holds them until
+     * {@link #checkpoint}. Any queued write-behind of the same ids is dropped, since it is older.
+     *
+     * @param writes  map from unique identifier to object to write.
+     * @param deletes unique identifiers of the objects to delete.
+     * @throws IOException if a record could not be written or deleted; those applied before it stay applied.
+     */
+    @Override
+    public void applyJournaled(Map<String, T> writes, Collection<String> deletes) throws IOException {
+        Set<String> ids = new HashSet<>(writes.keySet());
+        ids.addAll(deletes);
+        if (ids.isEmpty()) return;
+        Map<String, byte[]> encoded = ScanPool.run(() -> writes.entrySet().parallelStream()
+                .collect(Collectors.toConcurrentMap(Map.Entry::getKey, e -> codec.encode(e.getValue()))));
+        Map<String, ChangeListener.Kind> applied = new LinkedHashMap<>();
+        List<Lock> locks = stripes.lockAll(ids);
+        try {
+            synchronized (flushLock) {
+                synchronized (pending) {
+                    pending.keySet().removeAll(ids);
+                }
+                for (Map.Entry<String, byte[]> entry : encoded.entrySet()) {
+                    String id = entry.getKey();
+                    Path temp = stage(entry.getValue(), false);
+                    try {
+                        commit(temp, getFile(id));
+                    } catch (IOException e) {
+                        deleteQuietly(temp);
+                        cache.invalidate(id);
+                        throw e;
+                    }
+                    cache.put(id, entry.getValue());
+                    idIndex.add(id);
+                    indexes.update(id, writes.get(id));
+                    applied.put(id, ChangeListener.Kind.WRITTEN);
+                }
+                for (String id : deletes) {
+                    boolean existed = idIndex.contains(id);
+                    if (migrating) {
+                        existed |= Files.deleteIfExists(layout.flatFile(id).toPath());
+                    }
+                    existed |= Files.deleteIfExists(getFile(id).toPath());
+                    cache.invalidate(id);
+                    idIndex.remove(id);
+                    indexes.remove(id);
+                    if (existed) applied.put(id, ChangeListener.Kind.DELETED);
+                }
+            }
+        } finally {
+            // not under flushLock, like writeAll
+            for (Map.Entry<String, ChangeListener.Kind> entry : applied.entrySet()) {
+                if (entry.getValue() == ChangeListener.Kind.DELETED) {
+                    versions.deleted(entry.getKey());
+                } else {
+                    versions.changed(entry.getKey());
+                }
+                changes.publish(entry.getKey(), entry.getValue());
+            }
+            stripes.unlockAll(locks);
+        }
+    }
 
-        try (PrintWriter writer = new PrintWriter(file)) {
-            writer.print(asJson);
-            Thread.sleep(30); // gives time for OS to do what it needs to do
-        } catch (FileNotFoundException | InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Forces the files of ids, and then each of their directories once, to disk.
+     *
+     * @param ids unique identifiers of objects written or deleted since the last checkpoint.
+     * @throws IOException if a file could not be forced.
+     */
+    @Override
+    public void checkpoint(Collection<String> ids) throws IOException {
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Set<File> directories = new HashSet<>();
+        for (String id : ids) {
+            File file = getFile(id);
+            directories.add(file.getParentFile());
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (NoSuchFileException e) {
+                // deleted; forcing its directory makes that durable
+            }
+        }
+        for (File dir : directories) {
+            syncDirectory(dir);
         }
     }
 
@@ -80,26 +517,205 @@ public class JsonDatabase<T> implements IGateway<T> {
      */
     @Override
     public T read(String id) {
-        File file = getFile(id);
+        Lock lock = stripes.get(id).readLock();
+        lock.lock();
+        try {
+            return readRecord(id);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        if (!file.exists()) return null;
+    private T readRecord(String id) {
+        if (maxPending > 0) {
+            byte[] queued = queued(id);
+            if (queued == DELETED) return null;
+            if (queued != null) return formatOf(queued, queued.length).decode(queued, queued.length);
+        }
+        byte[] cached = cached(id);
+        if (cached != null) {
+            return formatOf(cached, cached.length).decode(cached, cached.length);
+        }
 
-        // read file
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String str;
-            StringBuilder builder = new StringBuilder();
+        try {
+            return readFile(id);
+        } catch (NoSuchFileException e) {
+            if (!migrating) return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
 
-            while ((str = reader.readLine()) != null) {
-                builder.append(str);
-            }
+        // may not have been moved into its shard yet
+        try {
+            if (!migrate(id)) return null;
+            return readFile(id);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 
-            // deserialize from json
-            return gson.fromJson(builder.toString(), type);
+    /**
+     * Reads a single field of the object with id, skipping over the rest of its serialized form.
+     *
+     * @param id    unique identifier.
+     * @param field name of the field.
+     * @param type  type of the field.
+     * @return the value of the field; null if object DNE or has no such field.
+     */
+    @Override
+    public <F> F readField(String id, String field, Class<F> type) {
+        return project(id, reader -> Projection.field(reader, field, type), null);
+    }
 
+    /**
+     * Counts the elements of a collection field of the object with id without deserializing them.
+     *
+     * @param id    unique identifier.
+     * @param field name of the field.
+     * @return number of elements; -1 if object DNE or has no such field.
+     */
+    @Override
+    public int readFieldSize(String id, String field) {
+        return project(id, reader -> Projection.size(reader, field), -1);
+    }
+
+    /**
+     * Reads several fields of the object with id in one pass over its serialized form, under the read lock
+     * of its stripe.
+     *
+     * @param id     unique identifier.
+     * @param fields the fields read; their names must differ.
+     * @return what was read of each field; null if object DNE.
+     */
+    @Override
+    public Projection.Values readFields(String id, Projection.Field<?>... fields) {
+        return project(id, reader -> Projection.fields(reader, fields), null);
+    }
+
+    /**
+     * Applies projection to a reader over the serialized object with id, from wherever {@link #read} would
+     * find it.
+     *
+     * @param missing result if object DNE.
+     */
+    private <R> R project(String id, Function<JsonReader, R> projection, R missing) {
+        Lock lock = stripes.get(id).readLock();
+        lock.lock();
+        try {
+            return projectRecord(id, projection, missing);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <R> R projectRecord(String id, Function<JsonReader, R> projection, R missing) {
+        if (maxPending > 0) {
+            byte[] queued = queued(id);
+            if (queued == DELETED) return missing;
+            if (queued != null) return projection.apply(formatOf(queued, queued.length).reader(queued, queued.length));
+        }
+        byte[] cached = cached(id);
+        if (cached != null) {
+            return projection.apply(formatOf(cached, cached.length).reader(cached, cached.length));
+        }
+
+        try {
+            return projectFile(id, projection);
+        } catch (NoSuchFileException e) {
+            if (!migrating) return missing;
         } catch (IOException e) {
             e.printStackTrace();
+            return missing;
+        }
+
+        // may not have been moved into its shard yet
+        try {
+            if (!migrate(id)) return missing;
+            return projectFile(id, projection);
+        } catch (NoSuchFileException e) {
+            return missing;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return missing;
+    }
+
+    private <R> R projectFile(String id, Function<JsonReader, R> projection) throws IOException {
+        try (InputStream in = Files.newInputStream(getFile(id).toPath())) {
+            int length = readFully(in);
+            bytes.read(length);
+            byte[] buffer = READ_BUFFER.get();
+            RecordCodec<T> format = formatOf(buffer, length);
+            if (format == codec && cache.fits(length)) {
+                cache.put(id, Arrays.copyOf(buffer, length));
+            }
+            return projection.apply(format.reader(buffer, length));
+        }
+    }
+
+    /**
+     * @return the object serialized in data; null if it could not be parsed.
+     */
+    private T decodeQuietly(String id, byte[] data) {
+        try {
+            return formatOf(data, data.length).decode(data, data.length);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the file of id into this thread's buffer and parses it from there.
+     */
+    private T readFile(String id) throws IOException {
+        try (InputStream in = Files.newInputStream(getFile(id).toPath())) {
+            int length = readFully(in);
+            bytes.read(length);
+            byte[] buffer = READ_BUFFER.get();
+            RecordCodec<T> format = formatOf(buffer, length);
+            T obj = format.decode(buffer, length);
+            if (format != codec) {
+                // written with another codec; only the read lock is held here, so rewrite it later
+                recodeLater(id);
+            } else if (cache.fits(length)) {
+                cache.put(id, Arrays.copyOf(buffer, length));
+            }
+            return obj;
         }
-        return null;
+    }
+
+    /**
+     * Queues rewriting the record with id in this database's codec. The rewrite takes the write lock of
+     * its stripe, so it cannot race a write; it keeps the record's version, since its contents are the same.
+     */
+    private void recodeLater(String id) {
+        if (!recoding.add(id)) return;
+        MIGRATOR.execute(() -> {
+            recoding.remove(id);
+            Lock lock = stripes.get(id).writeLock();
+            lock.lock();
+            try (InputStream in = Files.newInputStream(getFile(id).toPath())) {
+                // a newer copy queued by write-behind replaces the file anyway
+                if (maxPending > 0 && queued(id) != null) return;
+                int length = readFully(in);
+                byte[] buffer = READ_BUFFER.get();
+                RecordCodec<T> format = formatOf(buffer, length);
+                if (format != codec) {
+                    writeRecord(format.decode(buffer, length), id);
+                }
+            } catch (NoSuchFileException e) {
+                // deleted or rewritten meanwhile
+            } catch (IOException | UncheckedIOException e) {
+                e.printStackTrace();
+            } finally {
+                lock.unlock();
+            }
+        });
     }
 
     /**
@@ -107,35 +723,111 @@ public class JsonDatabase<T> implements IGateway<T> {
      *
      * @param id unique identifier
      * @return object with id; null if object does not exist.
+     * @throws UncheckedIOException if the file could not be deleted; everything is then left as it was.
      */
     @Override
     public T delete(String id) {
-        File file = getFile(id);
-
-        if (!file.exists()) return null;
-        T obj = read(id);
-
+        Lock lock = stripes.get(id).writeLock();
+        lock.lock();
         try {
-            file.delete();
-            Thread.sleep(30); // gives time for OS to do what it needs to do
-        } catch (SecurityException | InterruptedException e) {
-            e.printStackTrace();
+            T obj = read(id);
+            if (obj == null) return null;
+
+            versions.delete(id, () -> {
+                if (maxPending > 0) {
+                    enqueue(id, DELETED);
+                } else if (!deleteFile(id)) {
+                    throw new UncheckedIOException(new IOException("Could not delete " + objectName + " " + id));
+                }
+                cache.invalidate(id);
+                idIndex.remove(id);
+                indexes.remove(id);
+            });
+            changes.publish(id, ChangeListener.Kind.DELETED);
+            return obj;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return obj;
+    /**
+     * Registers listener for the writes and deletes of every database of this directory, including those
+     * of other processes, which are seen through the watcher of the {@link IdIndex}. Those are published
+     * once the cache, the id set and the secondary indexes reflect them; the watcher ignores the files this
+     * process wrote itself, which were published when written.
+     *
+     * @param listener listener.
+     */
+    @Override
+    public void addListener(ChangeListener listener) {
+        changes.add(listener);
+    }
+
+    /**
+     * @param listener a listener registered with {@link #addListener}.
+     */
+    @Override
+    public void removeListener(ChangeListener listener) {
+        changes.remove(listener);
     }
 
     /**
      * Returns a list of ids of objects stored in this database
      *
-     * @return list of string ids. Null if could not access directory.
+     * @return list of string ids.
      */
     @Override
     public List<String> getIds() {
-        Stream<String> stream = getIdStream();
-        if (stream == null) return null;
-        return stream.collect(Collectors.toList());
+        return idIndex.list();
+    }
 
+    /**
+     * Gets one page of the ids of objects stored in this database, in increasing order, from the in-memory
+     * id index.
+     *
+     * @param afterId the page starts after this id; null for the first page.
+     * @param limit   maximum number of ids returned.
+     * @return list of ids; fewer than limit iff there are no more.
+     */
+    @Override
+    public List<String> getIds(String afterId, int limit) {
+        List<String> page = new ArrayList<>();
+        Iterator<String> ids = idIndex.after(afterId);
+        while (page.size() < limit && ids.hasNext()) {
+            page.add(ids.next());
+        }
+        return page;
+    }
+
+    /**
+     * Checks if an object with id is stored, without listing the directory. The {@link IdIndex} holds every
+     * id in memory, so unlike {@link SqlDatabase} there is no query for a Bloom filter to save; when shared
+     * with other processes the file is checked instead, which a filter fed by the watcher would get wrong.
+     *
+     * @param id unique identifier.
+     * @return true iff an object with id exists.
+     */
+    @Override
+    public boolean exists(String id) {
+        if (stripes.isShared()) {
+            // another process may have just written or deleted it; the id index only learns of that later
+            return getFile(id).exists() || (migrating && layout.flatFile(id).exists());
+        }
+        return idIndex.contains(id);
+    }
+
+    /**
+     * Reads one page of the objects matching predicate, in increasing order of id. The ids come from the
+     * in-memory id index, so only the objects needed to fill the page are read.
+     *
+     * @param afterId   the page starts after this id; null for the first page.
+     * @param limit     maximum number of objects returned.
+     * @param predicate a predicate checked against each element to see if it should be included.
+     * @return map from id to object in increasing order of id; fewer than limit entries iff there are no more.
+     */
+    @Override
+    public Map<String, T> scan(String afterId, int limit, Predicate<T> predicate) {
+        return scanIds(idIndex.after(afterId), limit, predicate);
     }
 
     /**
@@ -163,32 +855,420 @@ public class JsonDatabase<T> implements IGateway<T> {
         return stream.collect(Collectors.toList());
     }
 
+    /**
+     * Registers a secondary index of the objects by a single key.
+     *
+     * @param name      name of the index.
+     * @param extractor gets the key an object is indexed under.
+     */
+    @Override
+    public void addIndex(String name, Function<T, ?> extractor) {
+        indexes.register(name, obj -> Collections.singletonList(extractor.apply(obj)), this);
+    }
+
+    /**
+     * Registers a secondary index of the objects by several keys each.
+     *
+     * @param name      name of the index.
+     * @param extractor gets the keys an object is indexed under.
+     */
+    @Override
+    public void addMultiIndex(String name, Function<T, ? extends Collection<?>> extractor) {
+        indexes.register(name, extractor, this);
+    }
+
+    /**
+     * Gets the ids of the objects indexed under key.
+     *
+     * @param name name of a registered index.
+     * @param key  key looked up.
+     * @return list of ids; empty if there are none.
+     */
+    @Override
+    public List<String> lookup(String name, Object key) {
+        return indexes.lookup(name, key);
+    }
+
+    /**
+     * Gets one page of the ids of the objects indexed under key, in increasing order.
+     *
+     * @param name    name of a registered index.
+     * @param key     key looked up.
+     * @param afterId the page starts after this id; null for the first page.
+     * @param limit   maximum number of ids returned.
+     * @return list of ids; fewer than limit iff there are no more.
+     */
+    @Override
+    public List<String> lookup(String name, Object key, String afterId, int limit) {
+        return indexes.lookup(name, key, afterId, limit);
+    }
+
+    /**
+     * Gets the cache holding recently used objects of this database, e.g. for its hit/miss/eviction counters.
+     *
+     * @return the record cache.
+     */
+    @Override
+    public RecordCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return counters of the bytes of the record files read and written, temporary files included.
+     */
+    @Override
+    public ByteCounters getByteCounters() {
+        return bytes;
+    }
+
+    /**
+     * Lets other processes use this database's directory at the same time, e.g. several instances of the
+     * program sharing one database. From now on the locks of {@link LockStripes} are also taken on a lock file
+     * in the directory, so other processes' writes of a record exclude this process' reads and writes of it,
+     * and {@link #update} is atomic across processes. Reads go to disk rather than to the cache, which would
+     * miss changes made by other processes until the watcher sees them, and existence is checked on disk.
+     * The id set and the secondary indexes follow other processes' changes as the watcher of the
+     * {@link IdIndex} sees them, see {@link #addListener}; {@link #lookup} may lag that much behind.
+     * <p>
+     * {@link #compareAndWrite} notices other processes' writes only once the watcher sees them, so
+     * cross-process read-modify-writes should go through {@link #update}. Cannot be combined with
+     * write-behind, which keeps writes in memory where other processes cannot see them.
+     *
+     * @throws IOException           if the lock file could not be opened.
+     * @throws IllegalStateException if write-behind is enabled.
+     */
+    public void enableProcessLocks() throws IOException {
+        if (maxPending > 0) throw new IllegalStateException("Write-behind cannot be shared between processes");
+        stripes.shareWithProcesses(new File(directory, LOCK_FILE));
+    }
+
+    /**
+     * Switches this database to write-behind: from now on writes and deletes are queued, coalescing repeated
+     * writes of the same id, and are flushed every flushIntervalMillis, or as soon as maxPending ids are queued.
+     * Reads see queued writes. Batch writes ({@link #writeAll}) still go straight to disk. Whatever is queued is
+     * also flushed when the program exits normally; a crash loses it.
+     *
+     * @param flushIntervalMillis time between flushes, in milliseconds.
+     * @param maxPending          number of queued ids that triggers a flush right away.
+     * @throws IllegalStateException if process locks are enabled, see {@link #enableProcessLocks}.
+     */
+    public void enableWriteBehind(long flushIntervalMillis, int maxPending) {
+        if (maxPending <= 0) throw new IllegalArgumentException("maxPending must be positive");
+        if (stripes.isShared()) throw new IllegalStateException("Write-behind cannot be shared between processes");
+        boolean first = this.maxPending == 0;
+        this.maxPending = maxPending;
+        if (first) {
+            FLUSHER.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly, "database-write-behind-exit"));
+        }
+    }
+
+    /**
+     * Writes everything queued by write-behind to disk, with a single batch for all the queued writes.
+     * Writes and deletes that fail are queued again, unless a newer one of the same id was queued meanwhile,
+     * and are retried by the next flush. Does nothing if write-behind is not enabled.
+     *
+     * @throws UncheckedIOException if any of them failed.
+     */
+    @Override
+    public void flush() {
+        synchronized (flushLock) {
+            Map<String, byte[]> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) return;
+                batch = new LinkedHashMap<>(pending);
+                flushing = batch;
+                pending.clear();
+            }
+            Set<String> failed = new LinkedHashSet<>();
+            try {
+                Map<String, byte[]> writes = new LinkedHashMap<>();
+                for (Map.Entry<String, byte[]> entry : batch.entrySet()) {
+                    if (entry.getValue() != DELETED) {
+                        writes.put(entry.getKey(), entry.getValue());
+                    } else if (!deleteFile(entry.getKey())) {
+                        failed.add(entry.getKey());
+                    }
+                }
+                Set<String> written = persist(writes);
+                for (String id : writes.keySet()) {
+                    if (!written.contains(id)) failed.add(id);
+                }
+            } finally {
+                synchronized (pending) {
+                    for (String id : failed) {
+                        pending.putIfAbsent(id, batch.get(id));
+                    }
+                    flushing = Collections.emptyMap();
+                }
+            }
+            if (!failed.isEmpty()) {
+                throw new UncheckedIOException(new IOException("Could not flush " + objectName + " " + failed));
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Queues the serialized record of id, replacing any version of it already queued, and flushes if the
+     * queue is full.
+     *
+     * @param data serialized record; DELETED to queue a delete.
+     */
+    private void enqueue(String id, byte[] data) {
+        boolean full;
+        synchronized (pending) {
+            pending.remove(id);
+            pending.put(id, data);
+            full = pending.size() >= maxPending;
+        }
+        if (full) {
+            flushQuietly();
+        }
+    }
+
+    /**
+     * @return the cached serialized record of id; null if not cached or if other processes may have changed it.
+     */
+    private byte[] cached(String id) {
+        return stripes.isShared() ? null : cache.get(id);
+    }
+
+    /**
+     * @return the queued (or being flushed) serialized record of id; DELETED if a delete is queued;
+     * null if nothing is queued for id.
+     */
+    private byte[] queued(String id) {
+        synchronized (pending) {
+            byte[] data = pending.get(id);
+            return data != null ? data : flushing.get(id);
+        }
+    }
+
+    /**
+     * Adds the ids of the queued writes to ids, and removes those of the queued deletes.
+     */
+    private void reconcileQueued(Set<String> ids) {
+        if (maxPending == 0) return;
+        synchronized (pending) {
+            for (Map<String, byte[]> queue : Arrays.asList(flushing, pending)) {
+                for (Map.Entry<String, byte[]> entry : queue.entrySet()) {
+                    if (entry.getValue() == DELETED) {
+                        ids.remove(entry.getKey());
+                    } else {
+                        ids.add(entry.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false iff the file of id could not be deleted.
+     */
+    private boolean deleteFile(String id) {
+        try {
+            if (migrating) {
+                Files.deleteIfExists(layout.flatFile(id).toPath());
+            }
+            Files.deleteIfExists(getFile(id).toPath());
+            return true;
+        } catch (IOException | SecurityException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     /**
      * Private helper method for getting a stream of id's of stored elements.
      *
-     * @return stream of strings that are id's; null if Security Exception
+     * @return stream of strings that are id's.
      */
     private Stream<String> getIdStream() {
+        return idIndex.list().stream();
+    }
+
+    /**
+     * Finds the codec a stored object was serialized with.
+     *
+     * @param data   buffer holding the serialized object.
+     * @param length number of bytes of the object at the start of data.
+     * @return the codec; this database's codec if none of the codecs recognise the data.
+     */
+    private RecordCodec<T> formatOf(byte[] data, int length) {
+        if (codec.wrote(data, length)) return codec;
+        for (RecordCodec<T> format : formats) {
+            if (format.wrote(data, length)) return format;
+        }
+        return codec;
+    }
+
+    /**
+     * Reads all of in into this thread's read buffer, growing it if needed.
+     *
+     * @param in stream being read.
+     * @return number of bytes read.
+     * @throws IOException if in could not be read.
+     */
+    private static int readFully(InputStream in) throws IOException {
+        byte[] buffer = READ_BUFFER.get();
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                READ_BUFFER.set(buffer);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Durably replaces the contents of file with data: writes a temporary file in the same directory,
+     * forces it to disk, then atomically renames it over file.
+     *
+     * @param file file being written.
+     * @param data new contents.
+     * @throws IOException if the file could not be written; the old contents are then left as they were.
+     */
+    private void writeFile(File file, byte[] data) throws IOException {
+        Path temp = stage(data, true);
         try {
-            return Arrays.stream(directory.list())
-                    .filter(s -> s.contains(objectName))
-                    .filter(s -> s.contains(".json"))
-                    .map(s -> s.substring(objectName.length() + 1, s.length() - ".json".length()));
-        } catch (SecurityException e) {
-            e.printStackTrace();
+            commit(temp, file);
+        } finally {
+            Files.deleteIfExists(temp);
         }
-        return null;
+    }
+
+    /**
+     * Writes data to a new temporary file in the directory.
+     *
+     * @param data  contents.
+     * @param force true to force the file to disk.
+     * @return the temporary file.
+     * @throws IOException if the file could not be written; it is then deleted.
+     */
+    private Path stage(byte[] data, boolean force) throws IOException {
+        Path temp = Files.createTempFile(directory.toPath(), "." + objectName + "-", ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        bytes.written(data.length);
+        return temp;
+    }
+
+    /**
+     * Atomically renames a staged temporary file over file, and reports it to the id index so that the
+     * watcher's event for it is known to be an echo. While migrating, the old copy of the record in the
+     * collection directory is then removed, so it is not moved over the new one later.
+     */
+    private void commit(Path temp, File file) throws IOException {
+        if (layout.isSharded()) {
+            file.getParentFile().mkdirs();
+        }
+        try {
+            Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        String id = layout.idOf(file.getName());
+        idIndex.wrote(id, file);
+        if (migrating) {
+            Files.deleteIfExists(layout.flatFile(id).toPath());
+        }
+    }
+
+    /**
+     * Forces a directory itself to disk, making the renames into it durable. Not every platform
+     * can open a directory for this, in which case it is skipped.
+     */
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported here
+        }
+    }
+
+    /**
+     * Moves the record with id from the collection directory into its shard, unless its shard already
+     * holds a newer copy, in which case the old one is just removed.
+     *
+     * @param id unique identifier.
+     * @return true iff the record is now in its shard.
+     * @throws IOException if the record could not be moved.
+     */
+    private boolean migrate(String id) throws IOException {
+        Path flat = layout.flatFile(id).toPath();
+        Path sharded = getFile(id).toPath();
+        if (!Files.exists(flat)) return Files.exists(sharded);
+        Files.createDirectories(sharded.getParent());
+        try {
+            // unlike a rename, linking never replaces a newer copy written meanwhile
+            Files.createLink(sharded, flat);
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            // a newer copy is already in the shard, or another thread moved it first
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            if (!Files.exists(sharded)) {
+                Files.move(flat, sharded);
+            }
+        }
+        Files.deleteIfExists(flat);
+        return Files.exists(sharded);
+    }
+
+    /**
+     * Moves every record still in the collection directory into its shard.
+     */
+    private void migrateAll() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String id = file.isFile() ? layout.idOf(file.getName()) : null;
+                if (id == null) continue;
+                try {
+                    migrate(id);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }
+        }
+        migrating = false;
+    }
 
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * Concatenates directory path and object name and id and .json ending.
+     * Gets the file the record with id is kept in, in this database's layout.
      *
      * @param id unique identifier
      * @return a file directory.
      */
     private File getFile(String id) {
-        return new File(directory, String.format("%s-%s.json", objectName, id));
+        return layout.file(id);
     }
 
 }
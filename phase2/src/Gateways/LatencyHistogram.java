@@ -0,0 +1,77 @@
+package Gateways;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of operation latencies with power-of-two buckets: bucket 0 counts latencies under 2
+ * microseconds and bucket i those from 2^i up to 2^(i+1) microseconds, so percentiles are known to within
+ * a factor of two in constant memory, and recording is a few atomic increments without locking.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos latency of one operation, in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(nanos / 1000, 1);
+        int bucket = Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @return number of operations recorded.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return mean latency in microseconds; 0 if nothing was recorded.
+     */
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1e3 / n;
+    }
+
+    /**
+     * @return highest latency recorded, in microseconds.
+     */
+    public double getMaxMicros() {
+        return maxNanos.get() / 1e3;
+    }
+
+    /**
+     * Gets an upper bound of a percentile: the upper end of the bucket it falls in, or the highest latency
+     * recorded if that is lower.
+     *
+     * @param percentile between 0 and 100.
+     * @return latency in microseconds; 0 if nothing was recorded.
+     */
+    public double getPercentileMicros(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(1L << (i + 1), getMaxMicros());
+        }
+        return getMaxMicros();
+    }
+}
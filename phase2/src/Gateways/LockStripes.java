@@ -0,0 +1,241 @@
+package Gateways;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed number of read/write locks, with every record id mapped to one of them by its hash.
+ * <p>
+ * Operations on the same record always take the same lock, so they are serialized (or, for reads, only
+ * exclude writes), while operations on different records almost always take different locks and run in
+ * parallel. Memory use does not grow with the number of records, unlike a lock per id.
+ * <p>
+ * Once {@link #shareWithProcesses} is called, the stripes also lock across processes: stripe i is byte i of
+ * a lock file, locked with {@link FileChannel#lock} shared by readers and exclusively by writers. File locks
+ * are held by the whole process, so within it the threads first exclude each other with the in-memory
+ * lock, and the file lock is taken by the first of them to hold the stripe and released by the last.
+ */
+public class LockStripes {
+    /**
+     * Number of stripes; a power of two.
+     */
+    public static final int STRIPES = 64;
+
+    private static final Map<String, LockStripes> STRIPES_BY_DIRECTORY = new ConcurrentHashMap<>();
+
+    private final Stripe[] locks = new Stripe[STRIPES];
+    private volatile FileChannel lockFile;
+
+    /**
+     * Constructor.
+     */
+    public LockStripes() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Stripe(i);
+        }
+    }
+
+    /**
+     * Gets the stripes shared by all gateways storing records into directory.
+     *
+     * @param directory directory of the collection.
+     * @return the shared stripes for that directory.
+     */
+    public static LockStripes forDirectory(File directory) {
+        return STRIPES_BY_DIRECTORY.computeIfAbsent(directory.getAbsolutePath(), k -> new LockStripes());
+    }
+
+    /**
+     * Makes the stripes lock across processes too, through byte ranges of file. Every process using the
+     * same records must lock the same file. Calling this again does nothing.
+     *
+     * @param file lock file; created if it does not exist.
+     * @throws IOException if the lock file could not be opened.
+     */
+    public synchronized void shareWithProcesses(File file) throws IOException {
+        if (lockFile != null) return;
+        lockFile = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return true iff the stripes lock across processes.
+     */
+    public boolean isShared() {
+        return lockFile != null;
+    }
+
+    /**
+     * @param id unique identifier.
+     * @return the lock of the stripe of id.
+     */
+    public ReadWriteLock get(String id) {
+        return locks[stripeOf(id)];
+    }
+
+    /**
+     * Takes the write locks of the stripes of all ids, in stripe order so that two threads locking
+     * overlapping sets of ids cannot deadlock.
+     *
+     * @param ids unique identifiers.
+     * @return the locks taken, to be passed to {@link #unlockAll}.
+     */
+    public List<Lock> lockAll(Collection<String> ids) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String id : ids) {
+            stripes.add(stripeOf(id));
+        }
+        List<Lock> taken = new ArrayList<>(stripes.size());
+        for (int stripe : stripes) {
+            Lock lock = locks[stripe].writeLock();
+            lock.lock();
+            taken.add(lock);
+        }
+        return taken;
+    }
+
+    /**
+     * Releases locks taken by {@link #lockAll}.
+     *
+     * @param taken the locks.
+     */
+    public void unlockAll(List<Lock> taken) {
+        for (int i = taken.size() - 1; i >= 0; i--) {
+            taken.get(i).unlock();
+        }
+    }
+
+    private static int stripeOf(String id) {
+        int hash = id.hashCode();
+        // spread the high bits down, as HashMap does, since ids often differ only at the end
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * One stripe: the in-memory lock and, when shared with other processes, the file lock held for it.
+     */
+    private final class Stripe implements ReadWriteLock {
+        private final int index;
+        private final ReentrantReadWriteLock memory = new ReentrantReadWriteLock();
+        private final Lock readLock = new Side(memory.readLock(), true);
+        private final Lock writeLock = new Side(memory.writeLock(), false);
+
+        // guarded by this: the file lock and how many holds of the in-memory lock it is held for
+        private FileLock fileLock;
+        private int holds;
+
+        Stripe(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Lock readLock() {
+            return readLock;
+        }
+
+        @Override
+        public Lock writeLock() {
+            return writeLock;
+        }
+
+        /**
+         * Called holding the in-memory lock, so a shared file lock is never held while a thread of this
+         * process wants the exclusive one, except by that same thread.
+         */
+        synchronized void lockFile(boolean shared) {
+            FileChannel channel = lockFile;
+            if (channel == null) return;
+            if (holds++ > 0) return;
+            try {
+                fileLock = channel.lock(index, 1, shared);
+            } catch (IOException e) {
+                holds--;
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        synchronized void unlockFile() {
+            if (holds == 0 || --holds > 0) return;
+            try {
+                fileLock.release();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            fileLock = null;
+        }
+
+        /**
+         * The read or write side of the stripe: the in-memory lock, then the file lock.
+         */
+        private final class Side implements Lock {
+            private final Lock lock;
+            private final boolean shared;
+
+            Side(Lock lock, boolean shared) {
+                this.lock = lock;
+                this.shared = shared;
+            }
+
+            @Override
+            public void lock() {
+                lock.lock();
+                lockFileOrUnlock();
+            }
+
+            @Override
+            public void lockInterruptibly() throws InterruptedException {
+                lock.lockInterruptibly();
+                lockFileOrUnlock();
+            }
+
+            @Override
+            public boolean tryLock() {
+                if (!lock.tryLock()) return false;
+                lockFileOrUnlock();
+                return true;
+            }
+
+            @Override
+            public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+                if (!lock.tryLock(time, unit)) return false;
+                lockFileOrUnlock();
+                return true;
+            }
+
+            @Override
+            public void unlock() {
+                unlockFile();
+                lock.unlock();
+            }
+
+            @Override
+            public Condition newCondition() {
+                throw new UnsupportedOperationException();
+            }
+
+            private void lockFileOrUnlock() {
+                try {
+                    lockFile(shared);
+                } catch (RuntimeException e) {
+                    lock.unlock();
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,1165 @@
+package Gateways;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+/**
+ * A Database class that stores T type objects in append-only segment files, in the style of Bitcask.
+ * Segment files are stored in: group_0058/phase2/database/objectName-log/ if the directory does not exist,
+ * it is created.
+ * <p>
+ * Every write or delete appends a record to the active segment and updates an in-memory index from id to
+ * the record's position, so a read is a single positioned read. Once the active segment is full it becomes
+ * immutable and a hint file (the index entries of that segment) is written next to it, so that the index
+ * can be rebuilt on startup without reading whole segments. A background task periodically merges the
+ * immutable segments, dropping overwritten and deleted records.
+ * <p>
+ * Record layout: crc (4 bytes), key length (4), value length (4, -1 for a delete), key, value. A merged
+ * segment starts with a marker record of value length -2 whose 4-byte key is the first segment merged into it.
+ * <p>
+ * Hint file layout: for each entry the key (as by {@link DataOutput#writeUTF}), offset (8 bytes) and value
+ * length (4), then the number of entries (4) and a crc of everything before it (4). A hint file is forced
+ * to disk before it is renamed into place; one that is short or does not match its trailer is ignored, and
+ * the index of its segment rebuilt by scanning the segment.
+ * <p>
+ * Only one LogDatabase may be open on a directory at a time, in any process: the constructor takes an
+ * exclusive lock on a lock file in the directory and fails if it is held. Use {@link GatewayFactory} to share
+ * the database within a program.
+ *
+ * @param <T> objects being stored.
+ */
+public class LogDatabase<T> implements IGateway<T> {
+    public static final String DIRECTORY_ROOT = "phase2/database/";
+    private static final long SEGMENT_SIZE = 4L * 1024 * 1024;
+    private static final long COMPACTION_PERIOD_SECONDS = 60;
+    private static final double COMPACTION_DEAD_RATIO = 0.5;
+    private static final int HEADER_SIZE = SegmentReader.HEADER_SIZE;
+    private static final int TOMBSTONE = SegmentReader.TOMBSTONE;
+    private static final int MERGE_MARKER = SegmentReader.MERGE_MARKER;
+    private static final String LOCK_FILE = ".lock";
+
+    private static final ScheduledExecutorService COMPACTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "log-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File directory;
+    private final RecordCodec<T> codec;
+    private final List<RecordCodec<T>> formats;
+    private final String objectName;
+    private final Class<T> type;
+
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final NavigableMap<Integer, FileChannel> segments = new ConcurrentSkipListMap<>();
+    private final Map<Integer, Long> segmentBytes = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> deadBytes = new ConcurrentHashMap<>();
+    private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+    private final SecondaryIndexes<T> indexes = new SecondaryIndexes<>();
+    private final VersionTable versions = new VersionTable();
+    // only this process's changes: the segments of a directory are only ever open in one process
+    private final ChangeFeed changes = new ChangeFeed();
+    private final ByteCounters bytes = new ByteCounters();
+    private final FileChannel lockChannel;
+    private final FileLock directoryLock;
+    private final ScheduledFuture<?> compaction;
+
+    // guarded by this
+    private int activeId;
+    private FileChannel active;
+    private long activeSize;
+    private List<Hint> activeHints = new ArrayList<>();
+
+    /**
+     * Position of a record inside a segment.
+     */
+    private static final class Location {
+        final int segment;
+        final long offset;
+        final int keyLength;
+        final int valueLength;
+
+        Location(int segment, long offset, int keyLength, int valueLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+        }
+
+        long valueOffset() {
+            return offset + HEADER_SIZE + keyLength;
+        }
+
+        long recordLength() {
+            return HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Location)) return false;
+            Location other = (Location) o;
+            return segment == other.segment && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * segment + Long.hashCode(offset);
+        }
+    }
+
+    /**
+     * An entry of a hint file: where the latest record of a key in that segment is.
+     */
+    private static final class Hint {
+        final String key;
+        final long offset;
+        final int valueLength;
+
+        Hint(String key, long offset, int valueLength) {
+            this.key = key;
+            this.offset = offset;
+            this.valueLength = valueLength;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param objectName the name representative of the object class being stored.
+     * @param type       type of object (e.g. if T = Event, then type = Event.class)
+     */
+    public LogDatabase(String objectName, Class<T> type) {
+        this(DIRECTORY_ROOT, objectName, type);
+    }
+
+    /**
+     * Constructor for a database stored somewhere else than the default database directory.
+     *
+     * @param root       directory the database directory is created in.
+     * @param objectName the name representative of the object class being stored.
+     * @param type       type of object (e.g. if T = Event, then type = Event.class)
+     */
+    public LogDatabase(String root, String objectName, Class<T> type) {
+        this(root, objectName, type, RecordCodec.forName("compact", type));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param root       directory the database directory is created in.
+     * @param objectName the name representative of the object class being stored.
+     * @param type       type of object (e.g. if T = Event, then type = Event.class)
+     * @param codec      how objects are serialized; values written with other codecs are still read.
+     * @throws IllegalStateException if the directory is already open, in this process or another one.
+     */
+    public LogDatabase(String root, String objectName, Class<T> type, RecordCodec<T> codec) {
+        this.directory = new File(String.format("%s/%s-log/", root, objectName));
+        this.objectName = objectName;
+        this.type = type;
+        this.codec = codec;
+        this.formats = RecordCodec.all(type);
+        // creates the directory if it does not exist
+        if (!this.directory.exists()) {
+            this.directory.mkdirs();
+        }
+        try {
+            lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            directoryLock = lockChannel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            closeQuietly(lockChannel);
+            throw new IllegalStateException(directory + " is already open in this process", e);
+        }
+        if (directoryLock == null) {
+            closeQuietly(lockChannel);
+            throw new IllegalStateException(directory + " is already open in another process");
+        }
+        try {
+            open();
+        } catch (IOException e) {
+            closeSegments();
+            closeQuietly(lockChannel);
+            throw new UncheckedIOException(e);
+        }
+        compaction = COMPACTOR.scheduleWithFixedDelay(this::compactQuietly,
+                COMPACTION_PERIOD_SECONDS, COMPACTION_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Serializes and appends obj. If id already exists, the new entry replaces the existing entry.
+     *
+     * @param obj object.
+     * @param id  unique identifier.
+     * @throws UncheckedIOException if obj could not be appended; its version and the indexes are then left
+     *                              as they were, and no change is published.
+     */
+    @Override
+    public void write(T obj, String id) {
+        versions.write(id, () -> writeRecord(obj, id));
+        changes.publish(id, ChangeListener.Kind.WRITTEN);
+    }
+
+    /**
+     * Appends obj only if the object with id is still at expectedVersion.
+     *
+     * @param id              unique identifier.
+     * @param expectedVersion version read with {@link #version}; {@link VersionTable#ABSENT} to only create.
+     * @param obj             object.
+     * @return true iff obj was written.
+     * @throws UncheckedIOException if obj could not be appended, see {@link #write}.
+     */
+    @Override
+    public boolean compareAndWrite(String id, long expectedVersion, T obj) {
+        if (!versions.compareAndWrite(id, expectedVersion, () -> exists(id), () -> writeRecord(obj, id))) {
+            return false;
+        }
+        changes.publish(id, ChangeListener.Kind.WRITTEN);
+        return true;
+    }
+
+    /**
+     * Gets the version of the object with id.
+     *
+     * @param id unique identifier.
+     * @return version stamp; {@link VersionTable#ABSENT} if object DNE.
+     */
+    @Override
+    public long version(String id) {
+        return versions.get(id, exists(id));
+    }
+
+    private void writeRecord(T obj, String id) {
+        byte[] value = codec.encode(obj);
+        try {
+            append(id, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + id, e);
+        }
+        indexes.update(id, obj);
+    }
+
+    /**
+     * Writes many objects at once: they are encoded in parallel, appended back to back, and forced to
+     * disk together with a single flush.
+     *
+     * @param objects map from unique identifier to object.
+     * @throws UncheckedIOException if they could not all be appended; none is published then.
+     */
+    @Override
+    public void writeAll(Map<String, T> objects) {
+        if (objects.isEmpty()) return;
+        Map<String, byte[]> values = ScanPool.run(() -> objects.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> codec.encode(e.getValue()))));
+        List<Lock> locks = versions.lockAll(objects.keySet());
+        try {
+            appendAll(values);
+            for (Map.Entry<String, T> entry : objects.entrySet()) {
+                indexes.update(entry.getKey(), entry.getValue());
+                versions.changed(entry.getKey());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            versions.unlockAll(locks);
+        }
+        for (String id : objects.keySet()) {
+            changes.publish(id, ChangeListener.Kind.WRITTEN);
+        }
+    }
+
+    /**
+     * Applies the writes and deletes of a committed transaction: their records are appended back to back
+     * without forcing the segment, which {@link #checkpoint} does later.
+     *
+     * @param writes  map from unique identifier to object to write.
+     * @param deletes unique identifiers of the objects to delete.
+     * @throws IOException if a record could not be appended; those appended before it stay applied.
+     */
+    @Override
+    public void applyJournaled(Map<String, T> writes, Collection<String> deletes) throws IOException {
+        Map<String, byte[]> values = ScanPool.run(() -> writes.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> codec.encode(e.getValue()))));
+        Map<String, ChangeListener.Kind> applied = new LinkedHashMap<>();
+        Set<String> ids = new HashSet<>(writes.keySet());
+        ids.addAll(deletes);
+        List<Lock> locks = versions.lockAll(ids);
+        try {
+            synchronized (this) {
+                for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                    appendRecord(entry.getKey(), entry.getValue());
+                    indexes.update(entry.getKey(), writes.get(entry.getKey()));
+                    applied.put(entry.getKey(), ChangeListener.Kind.WRITTEN);
+                }
+                for (String id : deletes) {
+                    if (!index.containsKey(id)) continue;
+                    appendRecord(id, null);
+                    indexes.remove(id);
+                    applied.put(id, ChangeListener.Kind.DELETED);
+                }
+            }
+        } finally {
+            for (Map.Entry<String, ChangeListener.Kind> entry : applied.entrySet()) {
+                if (entry.getValue() == ChangeListener.Kind.DELETED) {
+                    versions.deleted(entry.getKey());
+                } else {
+                    versions.changed(entry.getKey());
+                }
+            }
+            versions.unlockAll(locks);
+            for (Map.Entry<String, ChangeListener.Kind> entry : applied.entrySet()) {
+                changes.publish(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Forces the active segment to disk; segments are forced when they stop being active.
+     *
+     * @param ids unique identifiers of objects written or deleted since the last checkpoint.
+     * @throws IOException if the segment could not be forced.
+     */
+    @Override
+    public synchronized void checkpoint(Collection<String> ids) throws IOException {
+        active.force(false);
+    }
+
+    /**
+     * Retrieves object with id.
+     *
+     * @param id unique identifier.
+     * @return object with id; null if object DNE.
+     */
+    @Override
+    public T read(String id) {
+        byte[] value = readValue(id);
+        if (value == null) return null;
+        return decode(value);
+    }
+
+    /**
+     * Reads a single field of the object with id, skipping over the rest of its serialized form.
+     *
+     * @param id    unique identifier.
+     * @param field name of the field.
+     * @param type  type of the field.
+     * @return the value of the field; null if object DNE or has no such field.
+     */
+    @Override
+    public <F> F readField(String id, String field, Class<F> type) {
+        byte[] value = readValue(id);
+        if (value == null) return null;
+        return Projection.field(reader(value), field, type);
+    }
+
+    /**
+     * Counts the elements of a collection field of the object with id without deserializing them.
+     *
+     * @param id    unique identifier.
+     * @param field name of the field.
+     * @return number of elements; -1 if object DNE or has no such field.
+     */
+    @Override
+    public int readFieldSize(String id, String field) {
+        byte[] value = readValue(id);
+        if (value == null) return -1;
+        return Projection.size(reader(value), field);
+    }
+
+    /**
+     * Reads several fields of the object with id in one pass over its serialized form.
+     *
+     * @param id     unique identifier.
+     * @param fields the fields read; their names must differ.
+     * @return what was read of each field; null if object DNE.
+     */
+    @Override
+    public Projection.Values readFields(String id, Projection.Field<?>... fields) {
+        byte[] value = readValue(id);
+        return value == null ? null : Projection.fields(reader(value), fields);
+    }
+
+    /**
+     * Reads many objects at once. The records are read in segment and offset order under a single
+     * acquisition of the segment lock, so the reads sweep each segment front to back, and are then
+     * decoded in parallel.
+     *
+     * @param ids unique identifiers; duplicates are read once
+     * @return map from id to object, in the order of ids; ids of objects that DNE are left out
+     */
+    @Override
+    public Map<String, T> readAll(Collection<String> ids) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<String, Location> located = new HashMap<>();
+        for (String id : distinct) {
+            Location location = index.get(id);
+            if (location != null) located.put(id, location);
+        }
+        List<String> byPosition = new ArrayList<>(located.keySet());
+        byPosition.sort(Comparator.<String>comparingInt(id -> located.get(id).segment)
+                .thenComparingLong(id -> located.get(id).offset));
+
+        Map<String, byte[]> values = new ConcurrentHashMap<>();
+        segmentLock.readLock().lock();
+        try {
+            for (String id : byPosition) {
+                Location location = located.get(id);
+                FileChannel channel = segments.get(location.segment);
+                if (channel != null && location.equals(index.get(id))) {
+                    values.put(id, readAt(channel, location.valueOffset(), location.valueLength));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+
+        // moved by a compaction or rewritten before the lock was taken; read those one by one
+        for (String id : byPosition) {
+            if (!values.containsKey(id)) {
+                byte[] value = readValue(id);
+                if (value != null) values.put(id, value);
+            }
+        }
+
+        Map<String, T> objects = new ConcurrentHashMap<>();
+        ScanPool.run(() -> {
+            values.entrySet().parallelStream().forEach(e -> {
+                T obj = decode(e.getValue());
+                if (obj != null) objects.put(e.getKey(), obj);
+            });
+            return null;
+        });
+        Map<String, T> result = new LinkedHashMap<>();
+        for (String id : distinct) {
+            T obj = objects.get(id);
+            if (obj != null) result.put(id, obj);
+        }
+        return result;
+    }
+
+    /**
+     * Returns and deletes entry with id.
+     *
+     * @param id unique identifier
+     * @return object with id; null if object does not exist.
+     * @throws UncheckedIOException if the delete could not be appended; everything is then left as it was.
+     */
+    @Override
+    public T delete(String id) {
+        T obj = read(id);
+        if (obj == null) return null;
+        versions.delete(id, () -> {
+            try {
+                append(id, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not delete " + id, e);
+            }
+            indexes.remove(id);
+        });
+        changes.publish(id, ChangeListener.Kind.DELETED);
+        return obj;
+    }
+
+    /**
+     * @return counters of the bytes of the records appended and of the values read one at a time; scans
+     * and compactions are not counted.
+     */
+    @Override
+    public ByteCounters getByteCounters() {
+        return bytes;
+    }
+
+    /**
+     * Registers listener for the writes and deletes made through this database.
+     *
+     * @param listener listener.
+     */
+    @Override
+    public void addListener(ChangeListener listener) {
+        changes.add(listener);
+    }
+
+    /**
+     * @param listener a listener registered with {@link #addListener}.
+     */
+    @Override
+    public void removeListener(ChangeListener listener) {
+        changes.remove(listener);
+    }
+
+    /**
+     * Returns a list of ids of objects stored in this database
+     *
+     * @return list of string ids.
+     */
+    @Override
+    public List<String> getIds() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    /**
+     * Checks if an object with id is stored, from the in-memory index of record locations, so unlike
+     * {@link SqlDatabase} there is no query for a Bloom filter to save.
+     *
+     * @param id unique identifier.
+     * @return true iff an object with id exists.
+     */
+    @Override
+    public boolean exists(String id) {
+        return index.containsKey(id);
+    }
+
+    /**
+     * Gets a stream of T elements that match the predicate.
+     * <p>
+     * The segments are read sequentially through memory mappings rather than one read per id. Ids
+     * written or moved by a merge while the stream is consumed are read individually at the end.
+     *
+     * @param predicate a predicate checked against each element to see if it should be included
+     * @return a stream of elements that match the predicate.
+     */
+    @Override
+    public Stream<T> filterStream(Predicate<T> predicate) {
+        Map<Integer, SegmentReader> readers = new LinkedHashMap<>();
+        segmentLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, FileChannel> segment : segments.entrySet()) {
+                long size = segmentBytes.getOrDefault(segment.getKey(), 0L);
+                readers.put(segment.getKey(), new SegmentReader(segment.getValue(), size, false));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return getIds().stream().map(this::read).filter(Objects::nonNull).filter(predicate);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+
+        Set<String> seen = new HashSet<>();
+        Stream<T> scanned = readers.entrySet().stream()
+                .flatMap(segment -> liveRecords(segment.getKey(), segment.getValue(), seen));
+        Stream<T> rest = Stream.of(seen)
+                .flatMap(done -> getIds().stream().filter(id -> !done.contains(id)))
+                .map(this::read)
+                .filter(Objects::nonNull);
+        return Stream.concat(scanned, rest).filter(predicate);
+    }
+
+    /**
+     * Gets a list of T elements that match the predicate.
+     * @param predicate a predicate checked against each element to see if it should be included
+     * @return a list of elements that match the predicate
+     */
+    @Override
+    public List<T> filterList(Predicate<T> predicate) {
+        return filterStream(predicate).collect(Collectors.toList());
+    }
+
+    /**
+     * Registers a secondary index of the objects by a single key.
+     *
+     * @param name      name of the index.
+     * @param extractor gets the key an object is indexed under.
+     */
+    @Override
+    public void addIndex(String name, Function<T, ?> extractor) {
+        indexes.register(name, obj -> Collections.singletonList(extractor.apply(obj)), this);
+    }
+
+    /**
+     * Registers a secondary index of the objects by several keys each.
+     *
+     * @param name      name of the index.
+     * @param extractor gets the keys an object is indexed under.
+     */
+    @Override
+    public void addMultiIndex(String name, Function<T, ? extends Collection<?>> extractor) {
+        indexes.register(name, extractor, this);
+    }
+
+    /**
+     * Gets the ids of the objects indexed under key.
+     *
+     * @param name name of a registered index.
+     * @param key  key looked up.
+     * @return list of ids; empty if there are none.
+     */
+    @Override
+    public List<String> lookup(String name, Object key) {
+        return indexes.lookup(name, key);
+    }
+
+    /**
+     * Gets one page of the ids of the objects indexed under key, in increasing order.
+     *
+     * @param name    name of a registered index.
+     * @param key     key looked up.
+     * @param afterId the page starts after this id; null for the first page.
+     * @param limit   maximum number of ids returned.
+     * @return list of ids; fewer than limit iff there are no more.
+     */
+    @Override
+    public List<String> lookup(String name, Object key, String afterId, int limit) {
+        return indexes.lookup(name, key, afterId, limit);
+    }
+
+    /**
+     * Closes the segments and releases the directory, so it can be opened again, e.g. by another process.
+     * The database must not be used afterwards. Gateways handed out by {@link GatewayFactory} stay open for
+     * the whole program and are never closed.
+     */
+    public void close() {
+        compaction.cancel(false);
+        synchronized (this) {
+            segmentLock.writeLock().lock();
+            try {
+                closeSegments();
+            } finally {
+                segmentLock.writeLock().unlock();
+            }
+        }
+        try {
+            directoryLock.release();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        closeQuietly(lockChannel);
+    }
+
+    /**
+     * Merges all immutable segments into one, keeping only the latest record of every live id.
+     * Runs periodically in the background once enough of the immutable segments is dead.
+     *
+     * @throws IOException if the merged segment could not be written; the old segments are then kept.
+     */
+    public void compact() throws IOException {
+        List<Integer> merged;
+        synchronized (this) {
+            rollSegment();
+            merged = new ArrayList<>(segments.headMap(activeId, false).keySet());
+        }
+        if (merged.size() < 1) return;
+
+        int target = merged.get(merged.size() - 1);
+        Path temp = directory.toPath().resolve(segmentName(target) + ".compact");
+        Map<String, Location[]> moves = new HashMap<>();
+        List<Hint> hints = new ArrayList<>();
+
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = writeMergeMarker(out, merged.get(0));
+
+            for (int segment : merged) {
+                FileChannel in = segments.get(segment);
+                SegmentReader reader = new SegmentReader(in, in.size(), false);
+                while (reader.next()) {
+                    if (reader.valueLength() == MERGE_MARKER) continue;
+                    Location old = new Location(segment, reader.offset(), reader.keyLength(), reader.valueLength());
+                    if (!old.equals(index.get(reader.key()))) continue; // dead
+
+                    Location moved = new Location(target, position, reader.keyLength(), reader.valueLength());
+                    position = writeRecord(out, position, reader.key(), reader.value());
+                    moves.put(reader.key(), new Location[]{old, moved});
+                    hints.add(new Hint(reader.key(), moved.offset, moved.valueLength));
+                }
+            }
+            out.force(true);
+        }
+
+        segmentLock.writeLock().lock();
+        try {
+            Files.deleteIfExists(hintPath(target));
+            Files.move(temp, segmentPath(target), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            for (int segment : merged) {
+                segments.remove(segment).close();
+                segmentBytes.remove(segment);
+                deadBytes.remove(segment);
+            }
+            FileChannel channel = FileChannel.open(segmentPath(target), StandardOpenOption.READ);
+            segments.put(target, channel);
+            segmentBytes.put(target, channel.size());
+            deadBytes.put(target, 0L);
+            for (Map.Entry<String, Location[]> move : moves.entrySet()) {
+                Location[] locations = move.getValue();
+                if (!index.replace(move.getKey(), locations[0], locations[1])) {
+                    // overwritten while merging
+                    deadBytes.merge(target, locations[1].recordLength(), Long::sum);
+                }
+            }
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+
+        for (int segment : merged) {
+            if (segment == target) continue;
+            Files.deleteIfExists(segmentPath(segment));
+            Files.deleteIfExists(hintPath(segment));
+        }
+        writeHints(target, hints);
+    }
+
+    private T decode(byte[] value) {
+        return formatOf(value).decode(value, value.length);
+    }
+
+    private JsonReader reader(byte[] value) {
+        return formatOf(value).reader(value, value.length);
+    }
+
+    private RecordCodec<T> formatOf(byte[] value) {
+        if (codec.wrote(value, value.length)) return codec;
+        for (RecordCodec<T> format : formats) {
+            if (format.wrote(value, value.length)) return format;
+        }
+        return codec;
+    }
+
+    /**
+     * Streams the objects of the records of a segment that are still the latest record of their id.
+     *
+     * @param seen ids already streamed; ids streamed here are added to it.
+     */
+    private Stream<T> liveRecords(int segment, SegmentReader reader, Set<String> seen) {
+        Iterator<T> iterator = new Iterator<T>() {
+            private T next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && reader.next()) {
+                    // deletes and merge markers
+                    if (reader.valueLength() < 0) continue;
+                    Location location = new Location(segment, reader.offset(), reader.keyLength(), reader.valueLength());
+                    if (location.equals(index.get(reader.key())) && seen.add(reader.key())) {
+                        next = decode(reader.value());
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                T current = next;
+                next = null;
+                return current;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    /**
+     * Appends a record for id; value null appends a delete. The record is forced to disk before returning.
+     */
+    private synchronized void append(String id, byte[] value) throws IOException {
+        appendRecord(id, value);
+        active.force(false);
+    }
+
+    /**
+     * Appends a record for each entry of values, then forces them all to disk at once.
+     */
+    private synchronized void appendAll(Map<String, byte[]> values) throws IOException {
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            appendRecord(entry.getKey(), entry.getValue());
+        }
+        active.force(false);
+    }
+
+    /**
+     * Appends a record for id without forcing it to disk; value null appends a delete.
+     */
+    private synchronized void appendRecord(String id, byte[] value) throws IOException {
+        if (activeSize >= SEGMENT_SIZE) {
+            rollSegment();
+        }
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? TOMBSTONE : value.length;
+        Location location = new Location(activeId, activeSize, key.length, valueLength);
+
+        long written = writeRecord(active, activeSize, id, value);
+        bytes.written(written - activeSize);
+        activeSize = written;
+        segmentBytes.put(activeId, activeSize);
+        activeHints.add(new Hint(id, location.offset, valueLength));
+
+        Location old = value == null ? index.remove(id) : index.put(id, location);
+        if (old != null) {
+            deadBytes.merge(old.segment, old.recordLength(), Long::sum);
+        }
+        if (value == null) {
+            deadBytes.merge(activeId, location.recordLength(), Long::sum);
+        }
+    }
+
+    /**
+     * Makes the active segment immutable (writing its hint file) and starts a new one.
+     */
+    private synchronized void rollSegment() throws IOException {
+        if (active != null) {
+            if (activeSize == 0) return;
+            active.force(true);
+            writeHints(activeId, activeHints);
+        }
+        // opened before anything changes, so a failure leaves the current segment active
+        int nextId = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        FileChannel next = FileChannel.open(segmentPath(nextId), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        activeId = nextId;
+        active = next;
+        activeSize = active.size();
+        activeHints = new ArrayList<>();
+        segments.put(activeId, active);
+        segmentBytes.put(activeId, activeSize);
+        deadBytes.putIfAbsent(activeId, 0L);
+    }
+
+    private byte[] readValue(String id) {
+        while (true) {
+            Location location = index.get(id);
+            if (location == null) return null;
+
+            segmentLock.readLock().lock();
+            try {
+                FileChannel channel = segments.get(location.segment);
+                if (channel != null && location.equals(index.get(id))) {
+                    byte[] value = readAt(channel, location.valueOffset(), location.valueLength);
+                    bytes.read(value.length);
+                    return value;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            } finally {
+                segmentLock.readLock().unlock();
+            }
+            // moved by a compaction in the meantime; look it up again
+        }
+    }
+
+    /**
+     * Rebuilds the index from the segments on disk, preferring hint files where they exist.
+     */
+    private void open() throws IOException {
+        TreeMap<Integer, Path> found = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), "*.{compact,tmp}")) {
+            for (Path path : stream) {
+                // left over from an interrupted compaction or hint write
+                Files.deleteIfExists(path);
+            }
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), "segment-*.data")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                found.put(Integer.parseInt(name.substring("segment-".length(), name.length() - ".data".length())), path);
+            }
+        }
+
+        // a merged segment replaces every older segment it was merged from
+        for (Integer id : new ArrayList<>(found.keySet())) {
+            if (!found.containsKey(id)) continue;
+            try (FileChannel channel = FileChannel.open(found.get(id), StandardOpenOption.READ)) {
+                Integer mergedFrom = readMergeMarker(channel);
+                if (mergedFrom == null) continue;
+                for (Integer old : new ArrayList<>(found.subMap(mergedFrom, true, id, false).keySet())) {
+                    Files.deleteIfExists(found.remove(old));
+                    Files.deleteIfExists(hintPath(old));
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, Path> entry : found.entrySet()) {
+            int segment = entry.getKey();
+            boolean last = segment == found.lastKey();
+            FileChannel channel = last
+                    ? FileChannel.open(entry.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(entry.getValue(), StandardOpenOption.READ);
+            segments.put(segment, channel);
+            deadBytes.put(segment, 0L);
+
+            List<Hint> hints = last ? null : readHints(segment);
+            if (hints == null) {
+                hints = new ArrayList<>();
+                long end = 0;
+                for (Map.Entry<Location, String> record : scan(channel, segment).entrySet()) {
+                    Location location = record.getKey();
+                    hints.add(new Hint(record.getValue(), location.offset, location.valueLength));
+                    end = location.offset + location.recordLength();
+                }
+                if (last && end < channel.size()) {
+                    // torn write at the end of the segment
+                    channel.truncate(end);
+                }
+                if (last) {
+                    activeHints = hints;
+                } else {
+                    // missing or corrupt, so that the next open need not scan again
+                    writeHintsQuietly(segment, hints);
+                }
+            }
+            segmentBytes.put(segment, channel.size());
+
+            for (Hint hint : hints) {
+                if (hint.valueLength == MERGE_MARKER) continue;
+                int keyLength = hint.key.getBytes(StandardCharsets.UTF_8).length;
+                Location location = new Location(segment, hint.offset, keyLength, hint.valueLength);
+                Location old = hint.valueLength == TOMBSTONE ? index.remove(hint.key) : index.put(hint.key, location);
+                if (old != null) {
+                    deadBytes.merge(old.segment, old.recordLength(), Long::sum);
+                }
+                if (hint.valueLength == TOMBSTONE) {
+                    deadBytes.merge(segment, location.recordLength(), Long::sum);
+                }
+            }
+
+            if (last) {
+                active = channel;
+                activeId = segment;
+                activeSize = channel.size();
+            }
+        }
+        if (active == null) {
+            rollSegment();
+        }
+    }
+
+    /**
+     * Reads every valid record of a segment, in order. Stops at the first torn or corrupt record.
+     *
+     * @return map from the location of each record to its key, in segment order.
+     */
+    private LinkedHashMap<Location, String> scan(FileChannel channel, int segment) throws IOException {
+        LinkedHashMap<Location, String> records = new LinkedHashMap<>();
+        SegmentReader reader = new SegmentReader(channel, channel.size(), true);
+        while (reader.next()) {
+            records.put(new Location(segment, reader.offset(), reader.keyLength(), reader.valueLength()), reader.key());
+        }
+        return records;
+    }
+
+    /**
+     * Gets the first segment a merged segment was merged from.
+     *
+     * @return the id of that segment; null if channel is not a merged segment.
+     */
+    private Integer readMergeMarker(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE + 4) return null;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4);
+        readFully(channel, header, 0);
+        header.flip();
+        header.getInt();
+        int keyLength = header.getInt();
+        int valueLength = header.getInt();
+        if (keyLength != 4 || valueLength != MERGE_MARKER) return null;
+        return header.getInt();
+    }
+
+    private static long writeRecord(FileChannel channel, long position, String id, byte[] value) throws IOException {
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? TOMBSTONE : value.length;
+
+        ByteBuffer body = ByteBuffer.allocate(HEADER_SIZE - 4 + key.length + Math.max(valueLength, 0));
+        body.putInt(key.length).putInt(valueLength).put(key);
+        if (value != null) body.put(value);
+
+        ByteBuffer record = ByteBuffer.allocate(4 + body.capacity());
+        record.putInt(checksum(body.array())).put(body.array());
+        record.flip();
+        long at = position;
+        while (record.hasRemaining()) {
+            at += channel.write(record, at);
+        }
+        return at;
+    }
+
+    /**
+     * Writes the marker a merged segment starts with, recording the first segment merged into it. Its
+     * value length is negative, so it cannot be mistaken for the record of any id.
+     *
+     * @return position just past the marker.
+     */
+    private static long writeMergeMarker(FileChannel channel, int mergedFrom) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(HEADER_SIZE - 4 + 4);
+        body.putInt(4).putInt(MERGE_MARKER).putInt(mergedFrom);
+
+        ByteBuffer record = ByteBuffer.allocate(4 + body.capacity());
+        record.putInt(checksum(body.array())).put(body.array());
+        record.flip();
+        long at = 0;
+        while (record.hasRemaining()) {
+            at += channel.write(record, at);
+        }
+        return at;
+    }
+
+    /**
+     * Durably writes the hint file of a segment: it is forced to disk under a temporary name, renamed into
+     * place, and the rename is made durable by forcing the directory.
+     */
+    private void writeHints(int segment, List<Hint> hints) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Hint hint : hints) {
+                out.writeUTF(hint.key);
+                out.writeLong(hint.offset);
+                out.writeInt(hint.valueLength);
+            }
+            out.writeInt(hints.size());
+            out.flush();
+            out.writeInt(checksum(bytes.toByteArray()));
+        }
+
+        Path temp = directory.toPath().resolve(segmentName(segment) + ".hint.tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, hintPath(segment), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(directory.toPath());
+    }
+
+    private void writeHintsQuietly(int segment, List<Hint> hints) {
+        try {
+            writeHints(segment, hints);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the entries of the hint file of segment; null if there is none, or it is short or corrupt.
+     */
+    private List<Hint> readHints(int segment) {
+        Path path = hintPath(segment);
+        if (!Files.exists(path)) return null;
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            // entries, count, crc
+            if (bytes.length < 8) return null;
+            int end = bytes.length - 8;
+            ByteBuffer trailer = ByteBuffer.wrap(bytes, end, 8);
+            int count = trailer.getInt();
+            if (trailer.getInt() != checksum(Arrays.copyOf(bytes, end + 4))) return null;
+
+            List<Hint> hints = new ArrayList<>();
+            ByteArrayInputStream entries = new ByteArrayInputStream(bytes, 0, end);
+            try (DataInputStream in = new DataInputStream(entries)) {
+                while (entries.available() > 0) {
+                    hints.add(new Hint(in.readUTF(), in.readLong(), in.readInt()));
+                }
+            }
+            return hints.size() == count ? hints : null;
+        } catch (IOException e) {
+            // unreadable hint file; fall back to scanning the segment
+            return null;
+        }
+    }
+
+    /**
+     * Forces a directory itself to disk, making the renames into it durable. Not every platform
+     * can open a directory for this, in which case it is skipped.
+     */
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported here
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            long total = 0;
+            long dead = 0;
+            for (Integer segment : segments.keySet()) {
+                if (segment == activeId) continue;
+                total += segmentBytes.getOrDefault(segment, 0L);
+                dead += deadBytes.getOrDefault(segment, 0L);
+            }
+            if (total > 0 && (double) dead / total >= COMPACTION_DEAD_RATIO) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static byte[] readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, position);
+        return buffer.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) throw new EOFException();
+        }
+    }
+
+    /**
+     * Closes every segment, the active one included.
+     */
+    private void closeSegments() {
+        for (FileChannel channel : segments.values()) {
+            closeQuietly(channel);
+        }
+        segments.clear();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    private String segmentName(int segment) {
+        return String.format("segment-%06d", segment);
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.toPath().resolve(segmentName(segment) + ".data");
+    }
+
+    private Path hintPath(int segment) {
+        return directory.toPath().resolve(segmentName(segment) + ".hint");
+    }
+}
@@ -0,0 +1,69 @@
+package Gateways;
+
+import Entities.Message;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Gson adapter for Message, writing the same fields Gson's reflective adapter would, without reflection.
+ */
+public class MessageAdapter extends TypeAdapter<Message> {
+    @Override
+    public void write(JsonWriter out, Message value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("sender").value(value.getSender());
+        out.name("recipient").value(value.getRecipient());
+        out.name("body").value(value.getBody());
+        out.name("isArchived").value(value.getIsArchived());
+        out.name("id").value(value.getId());
+        out.endObject();
+    }
+
+    @Override
+    public Message read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String sender = null, recipient = null, body = null;
+        boolean isArchived = false;
+        int id = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            String field = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "sender":
+                    sender = in.nextString();
+                    break;
+                case "recipient":
+                    recipient = in.nextString();
+                    break;
+                case "body":
+                    body = in.nextString();
+                    break;
+                case "isArchived":
+                    isArchived = in.nextBoolean();
+                    break;
+                case "id":
+                    id = in.nextInt();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Message(sender, recipient, body, id, isArchived);
+    }
+}
@@ -0,0 +1,321 @@
+package Gateways;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import Gateways.GatewayMetrics.Operation;
+
+/**
+ * Decorator of any gateway timing every operation into the {@link GatewayMetrics} of its collection.
+ * Every call is passed on to the decorated gateway unchanged, so its own implementations of the default
+ * methods (batched reads, indexed scans, ...) are still used.
+ * <p>
+ * {@link GatewayFactory} wraps the gateways of the collections metrics are configured for.
+ *
+ * @param <T> objects being stored.
+ */
+public class MeteredGateway<T> implements IGateway<T> {
+    private final IGateway<T> gateway;
+    private final GatewayMetrics metrics;
+
+    /**
+     * Constructor.
+     *
+     * @param gateway the gateway being measured.
+     * @param metrics the metrics of its collection.
+     */
+    public MeteredGateway(IGateway<T> gateway, GatewayMetrics metrics) {
+        this.gateway = gateway;
+        this.metrics = metrics;
+        metrics.watch(gateway);
+    }
+
+    @Override
+    public void write(T obj, String id) {
+        time(Operation.WRITE, () -> gateway.write(obj, id));
+    }
+
+    @Override
+    public T read(String id) {
+        return time(Operation.READ, () -> gateway.read(id));
+    }
+
+    @Override
+    public void writeAll(Map<String, T> objects) {
+        time(Operation.WRITE_ALL, () -> gateway.writeAll(objects));
+    }
+
+    @Override
+    public T delete(String id) {
+        return time(Operation.DELETE, () -> gateway.delete(id));
+    }
+
+    @Override
+    public Map<String, T> readAll(Collection<String> ids) {
+        return time(Operation.READ_ALL, () -> gateway.readAll(ids));
+    }
+
+    @Override
+    public <F> F readField(String id, String field, Class<F> type) {
+        return time(Operation.READ_FIELD, () -> gateway.readField(id, field, type));
+    }
+
+    @Override
+    public int readFieldSize(String id, String field) {
+        return time(Operation.READ_FIELD, () -> gateway.readFieldSize(id, field));
+    }
+
+    @Override
+    public Projection.Values readFields(String id, Projection.Field<?>... fields) {
+        return time(Operation.READ_FIELD, () -> gateway.readFields(id, fields));
+    }
+
+    @Override
+    public List<String> getIds() {
+        return time(Operation.GET_IDS, () -> gateway.getIds());
+    }
+
+    @Override
+    public List<String> getIds(String afterId, int limit) {
+        return time(Operation.GET_IDS, () -> gateway.getIds(afterId, limit));
+    }
+
+    @Override
+    public void flush() {
+        time(Operation.FLUSH, gateway::flush);
+    }
+
+    @Override
+    public void applyJournaled(Map<String, T> writes, Collection<String> deletes) throws IOException {
+        long start = System.nanoTime();
+        try {
+            gateway.applyJournaled(writes, deletes);
+        } finally {
+            metrics.record(Operation.APPLY_JOURNALED, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void checkpoint(Collection<String> ids) throws IOException {
+        long start = System.nanoTime();
+        try {
+            gateway.checkpoint(ids);
+        } finally {
+            metrics.record(Operation.CHECKPOINT, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return time(Operation.EXISTS, () -> gateway.exists(id));
+    }
+
+    @Override
+    public long version(String id) {
+        return time(Operation.VERSION, () -> gateway.version(id));
+    }
+
+    @Override
+    public boolean compareAndWrite(String id, long expectedVersion, T obj) {
+        return time(Operation.COMPARE_AND_WRITE, () -> gateway.compareAndWrite(id, expectedVersion, obj));
+    }
+
+    @Override
+    public boolean update(String id, Predicate<T> change) {
+        return time(Operation.UPDATE, () -> gateway.update(id, change));
+    }
+
+    @Override
+    public Map<String, T> updateAll(Collection<String> ids, BiFunction<String, T, T> change) {
+        return time(Operation.UPDATE, () -> gateway.updateAll(ids, change));
+    }
+
+    @Override
+    public void addListener(ChangeListener listener) {
+        gateway.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(ChangeListener listener) {
+        gateway.removeListener(listener);
+    }
+
+    @Override
+    public ByteCounters getByteCounters() {
+        return gateway.getByteCounters();
+    }
+
+    @Override
+    public RecordCache getCache() {
+        return gateway.getCache();
+    }
+
+    /**
+     * The stream is lazy, so the time spent producing its elements (and passing each one down the caller's
+     * pipeline) is added up as they are consumed, and recorded once the stream is exhausted or closed.
+     */
+    @Override
+    public Stream<T> filterStream(Predicate<T> predicate) {
+        long start = System.nanoTime();
+        Stream<T> stream = gateway.filterStream(predicate);
+        TimedSpliterator timed = new TimedSpliterator(stream.spliterator(), System.nanoTime() - start);
+        return StreamSupport.stream(timed, false).onClose(() -> {
+            timed.finish();
+            stream.close();
+        });
+    }
+
+    @Override
+    public List<T> filterList(Predicate<T> predicate) {
+        return time(Operation.FILTER_LIST, () -> gateway.filterList(predicate));
+    }
+
+    @Override
+    public void addIndex(String name, Function<T, ?> extractor) {
+        gateway.addIndex(name, extractor);
+    }
+
+    @Override
+    public void addMultiIndex(String name, Function<T, ? extends Collection<?>> extractor) {
+        gateway.addMultiIndex(name, extractor);
+    }
+
+    @Override
+    public List<String> lookup(String name, Object key) {
+        return time(Operation.LOOKUP, () -> gateway.lookup(name, key));
+    }
+
+    @Override
+    public List<String> lookup(String name, Object key, String afterId, int limit) {
+        return time(Operation.LOOKUP, () -> gateway.lookup(name, key, afterId, limit));
+    }
+
+    @Override
+    public Map<String, T> scan(String afterId, int limit, Predicate<T> predicate) {
+        return time(Operation.SCAN, () -> gateway.scan(afterId, limit, predicate));
+    }
+
+    @Override
+    public Map<String, T> scanIds(Iterator<String> ids, int limit, Predicate<T> predicate) {
+        return time(Operation.SCAN, () -> gateway.scanIds(ids, limit, predicate));
+    }
+
+    @Override
+    public <R> R parallelScan(Predicate<T> predicate, boolean ordered, Function<Stream<T>, R> terminal) {
+        return time(Operation.PARALLEL_SCAN, () -> gateway.parallelScan(predicate, ordered, terminal));
+    }
+
+    @Override
+    public List<T> parallelFilterList(Predicate<T> predicate, boolean ordered) {
+        return time(Operation.PARALLEL_SCAN, () -> gateway.parallelFilterList(predicate, ordered));
+    }
+
+    @Override
+    public Optional<T> parallelFind(Predicate<T> predicate, boolean ordered) {
+        return time(Operation.PARALLEL_SCAN, () -> gateway.parallelFind(predicate, ordered));
+    }
+
+    @Override
+    public boolean parallelAnyMatch(Predicate<T> predicate) {
+        return time(Operation.PARALLEL_SCAN, () -> gateway.parallelAnyMatch(predicate));
+    }
+
+    /**
+     * @return the gateway being measured.
+     */
+    public IGateway<T> getGateway() {
+        return gateway;
+    }
+
+    private <R> R time(Operation operation, Supplier<R> call) {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            metrics.record(operation, System.nanoTime() - start);
+        }
+    }
+
+    private void time(Operation operation, Runnable call) {
+        long start = System.nanoTime();
+        try {
+            call.run();
+        } finally {
+            metrics.record(operation, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Passes on the elements of a stream of the gateway, adding up the time spent getting them.
+     */
+    private final class TimedSpliterator implements Spliterator<T> {
+        private final Spliterator<T> elements;
+        private long nanos;
+        private boolean finished;
+
+        TimedSpliterator(Spliterator<T> elements, long nanos) {
+            this.elements = elements;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            long start = System.nanoTime();
+            boolean advanced;
+            try {
+                advanced = elements.tryAdvance(action);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+            if (!advanced) finish();
+            return advanced;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            long start = System.nanoTime();
+            try {
+                elements.forEachRemaining(action);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+            finish();
+        }
+
+        /**
+         * Records the time spent, once, when the stream is exhausted or closed early.
+         */
+        void finish() {
+            if (finished) return;
+            finished = true;
+            metrics.record(Operation.FILTER_STREAM, nanos);
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return elements.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return elements.characteristics() & ~(Spliterator.SIZED | Spliterator.SUBSIZED);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package Gateways;
+
+/**
+ * Snapshot of the latency histogram of one gateway operation, as shown over JMX.
+ */
+public class OperationStats {
+    private final long count;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p99Micros;
+    private final double maxMicros;
+
+    /**
+     * Takes a snapshot of histogram.
+     *
+     * @param histogram latencies of the operation.
+     */
+    public OperationStats(LatencyHistogram histogram) {
+        this.count = histogram.getCount();
+        this.meanMicros = histogram.getMeanMicros();
+        this.p50Micros = histogram.getPercentileMicros(50);
+        this.p99Micros = histogram.getPercentileMicros(99);
+        this.maxMicros = histogram.getMaxMicros();
+    }
+
+    /**
+     * @return number of calls.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return mean latency in microseconds.
+     */
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    /**
+     * @return upper bound of the median latency, see {@link LatencyHistogram#getPercentileMicros}.
+     */
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    /**
+     * @return upper bound of the 99th percentile latency.
+     */
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    /**
+     * @return highest latency in microseconds.
+     */
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fus p50<=%.0fus p99<=%.0fus max=%.1fus",
+                count, meanMicros, p50Micros, p99Micros, maxMicros);
+    }
+}
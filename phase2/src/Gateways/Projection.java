@@ -0,0 +1,273 @@
+package Gateways;
+
+import com.google.gson.internal.Primitives;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads single fields of serialized objects without deserializing the rest of them.
+ * <p>
+ * The reader is moved through the top-level object field by field; the values of other fields are skipped
+ * rather than parsed (in O(1) for the binary codec) and reading stops as soon as the field is found.
+ * Several fields can be read in the same pass with {@link #fields}.
+ */
+public class Projection {
+    // the instance fields of each class and its superclasses by name, which are what Gson serializes
+    private static final ClassValue<Map<String, java.lang.reflect.Field>> FIELDS =
+            new ClassValue<Map<String, java.lang.reflect.Field>>() {
+                @Override
+                protected Map<String, java.lang.reflect.Field> computeValue(Class<?> type) {
+                    Map<String, java.lang.reflect.Field> fields = new HashMap<>();
+                    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                        for (java.lang.reflect.Field field : c.getDeclaredFields()) {
+                            int modifiers = field.getModifiers();
+                            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) continue;
+                            field.setAccessible(true);
+                            fields.putIfAbsent(field.getName(), field);
+                        }
+                    }
+                    return fields;
+                }
+            };
+
+    private Projection() {
+    }
+
+    /**
+     * A top-level field read by {@link #fields}: either its value or the number of its elements.
+     *
+     * @param <F> type of what is read.
+     */
+    public static final class Field<F> {
+        private final String name;
+        private final Class<F> type;
+        private final boolean size;
+
+        private Field(String name, Class<F> type, boolean size) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+        }
+
+        /**
+         * @param name name of the field.
+         * @param type type of the field.
+         * @param <F>  type of the field.
+         * @return the value of the field; null if the object has no such field.
+         */
+        public static <F> Field<F> value(String name, Class<F> type) {
+            return new Field<>(name, Primitives.wrap(type), false);
+        }
+
+        /**
+         * @param name name of an array (or object) field.
+         * @return the number of its elements; -1 if the object has no such field or it is null.
+         */
+        public static Field<Integer> size(String name) {
+            return new Field<>(name, Integer.class, true);
+        }
+
+        /**
+         * @return name of the field.
+         */
+        public String getName() {
+            return name;
+        }
+
+        private F missing() {
+            return size ? type.cast(-1) : null;
+        }
+    }
+
+    /**
+     * The fields of one object read by {@link #fields}.
+     */
+    public static final class Values {
+        private final Map<Field<?>, Object> values = new HashMap<>();
+
+        /**
+         * @param field a field that was read.
+         * @param <F>   type of what was read.
+         * @return what was read of field; as for a missing field if it was not read.
+         */
+        public <F> F get(Field<F> field) {
+            return values.containsKey(field) ? field.type.cast(values.get(field)) : field.missing();
+        }
+    }
+
+    /**
+     * Reads several fields of a serialized object in one pass, stopping once all of them are found.
+     *
+     * @param reader reader positioned before the object, see {@link RecordCodec#reader}.
+     * @param fields the fields read; their names must differ.
+     * @return what was read of each field.
+     */
+    public static Values fields(JsonReader reader, Field<?>... fields) {
+        Map<String, Field<?>> wanted = byName(fields);
+        Values values = new Values();
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) return values;
+            reader.beginObject();
+            while (values.values.size() < wanted.size() && reader.hasNext()) {
+                Field<?> field = wanted.get(reader.nextName());
+                if (field == null) {
+                    reader.skipValue();
+                } else if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    values.values.put(field, field.missing());
+                } else if (field.size) {
+                    values.values.put(field, count(reader));
+                } else {
+                    values.values.put(field, GsonFactory.compact().fromJson(reader, field.type));
+                }
+            }
+            return values;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads several fields of an object that is not serialized, for gateways that do not keep objects
+     * serialized. The fields are read directly by reflection; only a value not already of the type asked
+     * for is converted, by serializing that value alone.
+     *
+     * @param obj    object.
+     * @param fields the fields read; their names must differ.
+     * @return what was read of each field.
+     */
+    public static Values fieldsOf(Object obj, Field<?>... fields) {
+        Map<String, java.lang.reflect.Field> declared = FIELDS.get(obj.getClass());
+        Values values = new Values();
+        for (Field<?> field : byName(fields).values()) {
+            java.lang.reflect.Field member = declared.get(field.name);
+            if (member == null) continue;
+            Object value;
+            try {
+                value = member.get(obj);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            if (value == null) {
+                values.values.put(field, field.missing());
+            } else if (field.size) {
+                values.values.put(field, sizeOf(value));
+            } else if (field.type.isInstance(value)) {
+                values.values.put(field, value);
+            } else {
+                values.values.put(field, GsonFactory.compact().fromJson(GsonFactory.compact().toJsonTree(value),
+                        field.type));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads one field of a serialized object.
+     *
+     * @param reader reader positioned before the object, see {@link RecordCodec#reader}.
+     * @param field  name of the field.
+     * @param type   type of the field.
+     * @param <F>    type of the field.
+     * @return the value of the field; null if the object has no such field.
+     */
+    public static <F> F field(JsonReader reader, String field, Class<F> type) {
+        try {
+            if (!seek(reader, field)) return null;
+            return GsonFactory.compact().fromJson(reader, type);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Counts the elements of an array (or the fields of an object) field of a serialized object,
+     * skipping over each of them.
+     *
+     * @param reader reader positioned before the object, see {@link RecordCodec#reader}.
+     * @param field  name of the field.
+     * @return number of elements; -1 if the object has no such field or it is null.
+     */
+    public static int size(JsonReader reader, String field) {
+        try {
+            return seek(reader, field) ? count(reader) : -1;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Moves reader to the value of field in the top-level object.
+     *
+     * @return true iff the field was found; false if the object ended first.
+     */
+    private static boolean seek(JsonReader reader, String field) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) return false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(field)) {
+                if (reader.peek() != JsonToken.NULL) return true;
+                reader.nextNull();
+                return false;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    /**
+     * Counts the elements of the array or object reader is at, skipping over each of them.
+     *
+     * @return number of elements; -1 if the value is neither, in which case it is skipped.
+     */
+    private static int count(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+        } else if (token == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+        } else {
+            reader.skipValue();
+            return -1;
+        }
+        int size = 0;
+        while (reader.hasNext()) {
+            if (token == JsonToken.BEGIN_OBJECT) reader.nextName();
+            reader.skipValue();
+            size++;
+        }
+        if (token == JsonToken.BEGIN_ARRAY) {
+            reader.endArray();
+        } else {
+            reader.endObject();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of elements of a collection, map or array; -1 for anything else.
+     */
+    private static int sizeOf(Object value) {
+        if (value instanceof Collection) return ((Collection<?>) value).size();
+        if (value instanceof Map) return ((Map<?, ?>) value).size();
+        if (value.getClass().isArray()) return Array.getLength(value);
+        return -1;
+    }
+
+    private static Map<String, Field<?>> byName(Field<?>... fields) {
+        Map<String, Field<?>> byName = new HashMap<>();
+        for (Field<?> field : fields) {
+            if (byName.put(field.name, field) != null) {
+                throw new IllegalArgumentException("Field read twice: " + field.name);
+            }
+        }
+        return byName;
+    }
+}
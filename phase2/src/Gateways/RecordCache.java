@@ -0,0 +1,173 @@
+package Gateways;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A size-bounded, least-recently-used cache of serialized records.
+ * <p>
+ * Records are kept in their serialized form rather than as objects, so every read still hands out a
+ * fresh instance and callers can mutate what they read without corrupting the cache. The cache is
+ * bounded both by number of entries and by the total number of bytes held.
+ * <p>
+ * One cache is shared by every gateway that stores into the same directory, so that two managers
+ * holding their own JsonDatabase for the same collection never see each other's stale data.
+ */
+public class RecordCache {
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+    public static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+
+    private static final Map<String, RecordCache> CACHES = new ConcurrentHashMap<>();
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries maximum number of records held.
+     * @param maxBytes   maximum total size of the records held, in bytes.
+     */
+    public RecordCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the cache shared by all gateways storing into directory, creating it if needed.
+     *
+     * @param directory directory of the collection.
+     * @return the shared cache for that directory.
+     */
+    public static RecordCache forDirectory(File directory) {
+        return CACHES.computeIfAbsent(directory.getAbsolutePath(),
+                k -> new RecordCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES));
+    }
+
+    /**
+     * Gets the serialized record with id, counting a hit or a miss.
+     *
+     * @param id unique identifier.
+     * @return the cached bytes; null if not cached.
+     */
+    public synchronized byte[] get(String id) {
+        byte[] data = entries.get(id);
+        if (data == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return data;
+    }
+
+    /**
+     * Gets the serialized record with id without counting a hit or a miss, e.g. to compare it with what
+     * was found on disk.
+     *
+     * @param id unique identifier.
+     * @return the cached bytes; null if not cached.
+     */
+    public synchronized byte[] peek(String id) {
+        return entries.get(id);
+    }
+
+    /**
+     * Caches the serialized record with id, evicting least recently used records if over capacity.
+     * Records bigger than the whole cache are not cached.
+     *
+     * @param id   unique identifier.
+     * @param data serialized record.
+     */
+    public synchronized void put(String id, byte[] data) {
+        invalidate(id);
+        if (data.length > maxBytes) return;
+
+        entries.put(id, data);
+        bytes += data.length;
+
+        Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            bytes -= eldest.getValue().length;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @param length size of a serialized record, in bytes.
+     * @return true iff a record of that size can be cached.
+     */
+    public boolean fits(int length) {
+        return length <= maxBytes;
+    }
+
+    /**
+     * Removes the record with id from the cache, if present.
+     *
+     * @param id unique identifier.
+     */
+    public synchronized void invalidate(String id) {
+        byte[] old = entries.remove(id);
+        if (old != null) {
+            bytes -= old.length;
+        }
+    }
+
+    /**
+     * Removes every record from the cache. Counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return number of reads answered from the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of reads that had to go to disk.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of records evicted to stay within capacity.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return number of records currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return total size in bytes of the records currently cached.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RecordCache[size=%d, bytes=%d, hits=%d, misses=%d, evictions=%d]",
+                entries.size(), bytes, hits, misses, evictions);
+    }
+}
@@ -0,0 +1,85 @@
+package Gateways;
+
+import com.google.gson.stream.JsonReader;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Converts the objects stored by a gateway to and from bytes.
+ * <p>
+ * Every codec can tell whether bytes were written by it, so that records written with one codec can still
+ * be read after a collection is switched to another.
+ *
+ * @param <T> objects being stored.
+ */
+public interface RecordCodec<T> {
+    /**
+     * @return name of this codec, as used in configuration.
+     */
+    String getName();
+
+    /**
+     * @param obj object.
+     * @return obj serialized.
+     */
+    byte[] encode(T obj);
+
+    /**
+     * @param data   buffer holding a serialized object.
+     * @param length number of bytes of the object at the start of data.
+     * @return the object.
+     */
+    T decode(byte[] data, int length);
+
+    /**
+     * Opens a streaming reader over a serialized object, for reading parts of it without decoding all of it.
+     *
+     * @param data   buffer holding a serialized object.
+     * @param length number of bytes of the object at the start of data.
+     * @return reader positioned before the object.
+     */
+    JsonReader reader(byte[] data, int length);
+
+    /**
+     * @param data   buffer holding a serialized object.
+     * @param length number of bytes of the object at the start of data.
+     * @return true iff the object was serialized by this codec.
+     */
+    boolean wrote(byte[] data, int length);
+
+    /**
+     * Gets a codec by name: "pretty" (pretty-printed JSON), "compact" (JSON without whitespace) or
+     * "binary" (see {@link BinaryCodec}).
+     *
+     * @param name name of the codec.
+     * @param type type of object (e.g. if T = Event, then type = Event.class)
+     * @param <T>  objects being stored.
+     * @return the codec.
+     */
+    static <T> RecordCodec<T> forName(String name, Class<T> type) {
+        switch (name) {
+            case "pretty":
+                return new JsonCodec<>(type, true);
+            case "compact":
+                return new JsonCodec<>(type, false);
+            case "binary":
+                return new BinaryCodec<>(type);
+            default:
+                throw new IllegalArgumentException("Unknown codec: " + name);
+        }
+    }
+
+    /**
+     * Gets one codec of every kind, for reading records whatever codec they were written with. Compressed
+     * records, see {@link CompressedCodec}, are recognized by the last one.
+     *
+     * @param type type of object (e.g. if T = Event, then type = Event.class)
+     * @param <T>  objects being stored.
+     * @return list of codecs.
+     */
+    static <T> List<RecordCodec<T>> all(Class<T> type) {
+        return Arrays.asList(forName("binary", type), forName("compact", type), forName("pretty", type),
+                new CompressedCodec<>(forName("compact", type), type, Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,58 @@
+package Gateways;
+
+import Entities.Room;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Gson adapter for Room, writing the same fields Gson's reflective adapter would, without reflection.
+ */
+public class RoomAdapter extends TypeAdapter<Room> {
+    @Override
+    public void write(JsonWriter out, Room value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("name").value(value.getName());
+        out.name("roomCapacity").value(value.getRoomCapacity());
+        out.endObject();
+    }
+
+    @Override
+    public Room read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String name = null;
+        int roomCapacity = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            String field = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "name":
+                    name = in.nextString();
+                    break;
+                case "roomCapacity":
+                    roomCapacity = in.nextInt();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        Room room = new Room(name);
+        room.setRoomCapacity(roomCapacity);
+        return room;
+    }
+}
@@ -0,0 +1,51 @@
+package Gateways;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Supplier;
+
+/**
+ * The fork-join pool parallel gateway scans run in.
+ * <p>
+ * Parallel streams normally run in the common pool, which a scan doing file I/O would tie up for everyone
+ * else. A parallel stream whose terminal operation is started from inside another fork-join pool runs its
+ * tasks in that pool instead, so scans started through {@link #run} only ever use this pool's threads.
+ */
+public class ScanPool {
+    public static final int PARALLELISM = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("gateway-scan-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+
+    private ScanPool() {
+    }
+
+    /**
+     * Runs task in the scan pool and waits for its result.
+     *
+     * @param task task, typically ending in the terminal operation of a parallel stream.
+     * @param <R>  type of the result.
+     * @return the result of task.
+     */
+    public static <R> R run(Supplier<R> task) {
+        Thread current = Thread.currentThread();
+        if (current instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) current).getPool() == POOL) {
+            return task.get();
+        }
+        try {
+            return POOL.submit(task::get).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
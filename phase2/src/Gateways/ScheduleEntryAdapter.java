@@ -0,0 +1,78 @@
+package Gateways;
+
+import Entities.ScheduleEntry;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Calendar;
+
+/**
+ * Gson adapter for ScheduleEntry, writing the same fields Gson's reflective adapter would, without reflection.
+ */
+public class ScheduleEntryAdapter extends TypeAdapter<ScheduleEntry> {
+    private final TypeAdapter<Calendar> calendars;
+
+    /**
+     * Constructor.
+     *
+     * @param calendars adapter the start time of an entry is written and read with.
+     */
+    public ScheduleEntryAdapter(TypeAdapter<Calendar> calendars) {
+        this.calendars = calendars;
+    }
+
+    @Override
+    public void write(JsonWriter out, ScheduleEntry value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("eventName").value(value.getEventName());
+        out.name("roomID").value(value.getRoomID());
+        out.name("startTime");
+        calendars.write(out, value.getStartTime());
+        out.name("duration").value(value.getDuration());
+        out.endObject();
+    }
+
+    @Override
+    public ScheduleEntry read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String eventName = null, roomID = null;
+        Calendar startTime = null;
+        int duration = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            String field = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "eventName":
+                    eventName = in.nextString();
+                    break;
+                case "roomID":
+                    roomID = in.nextString();
+                    break;
+                case "startTime":
+                    startTime = calendars.read(in);
+                    break;
+                case "duration":
+                    duration = in.nextInt();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new ScheduleEntry(eventName, roomID, startTime, duration);
+    }
+}
@@ -0,0 +1,191 @@
+package Gateways;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The secondary indexes of a gateway: for each index, a map from key to the ids of the objects having that key.
+ * <p>
+ * An index is built once by reading every object when it is registered, and is then kept up to date by the
+ * gateway calling {@link #update} and {@link #remove} on every write and delete, so a lookup costs
+ * O(result) rather than a scan of the collection.
+ *
+ * @param <T> objects being stored.
+ */
+public class SecondaryIndexes<T> {
+    private final Map<String, Index> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * One index: its extractor and, under its own lock, the key to ids map and its reverse.
+     */
+    private final class Index {
+        final Function<T, ? extends Collection<?>> extractor;
+        final Map<Object, NavigableSet<String>> idsByKey = new HashMap<>();
+        final Map<String, Collection<?>> keysById = new HashMap<>();
+        // ids written or deleted since the index was registered; the initial build must not overwrite them
+        Set<String> changedDuringBuild = new HashSet<>();
+
+        Index(Function<T, ? extends Collection<?>> extractor) {
+            this.extractor = extractor;
+        }
+
+        synchronized void put(String id, T obj, boolean fromBuild) {
+            if (fromBuild) {
+                if (changedDuringBuild.contains(id)) return;
+            } else if (changedDuringBuild != null) {
+                changedDuringBuild.add(id);
+            }
+            unindex(id);
+            Collection<?> keys = extractor.apply(obj);
+            if (keys == null) return;
+            keys = new ArrayList<>(keys);
+            for (Object key : keys) {
+                idsByKey.computeIfAbsent(key, k -> new TreeSet<>()).add(id);
+            }
+            keysById.put(id, keys);
+        }
+
+        synchronized void remove(String id) {
+            // the build may have read the object before it was deleted
+            if (changedDuringBuild != null) changedDuringBuild.add(id);
+            unindex(id);
+        }
+
+        private void unindex(String id) {
+            Collection<?> keys = keysById.remove(id);
+            if (keys == null) return;
+            for (Object key : keys) {
+                Set<String> ids = idsByKey.get(key);
+                if (ids == null) continue;
+                ids.remove(id);
+                if (ids.isEmpty()) idsByKey.remove(key);
+            }
+        }
+
+        synchronized List<String> get(Object key, String afterId, int limit) {
+            NavigableSet<String> ids = idsByKey.get(key);
+            List<String> page = new ArrayList<>();
+            if (ids == null) return page;
+            for (String id : afterId == null ? ids : ids.tailSet(afterId, false)) {
+                if (page.size() == limit) break;
+                page.add(id);
+            }
+            return page;
+        }
+
+        synchronized List<String> get(Object key) {
+            Set<String> ids = idsByKey.get(key);
+            return ids == null ? new ArrayList<>() : new ArrayList<>(ids);
+        }
+
+        synchronized void built() {
+            changedDuringBuild = null;
+        }
+    }
+
+    /**
+     * Registers an index and builds it from the objects currently stored, reading them in parallel.
+     * Does nothing if an index with the same name is already registered.
+     *
+     * @param name      name of the index.
+     * @param extractor gets the keys an object is indexed under.
+     * @param gateway   gateway whose objects are indexed.
+     */
+    public synchronized void register(String name, Function<T, ? extends Collection<?>> extractor,
+                                      IGateway<T> gateway) {
+        if (indexes.containsKey(name)) return;
+        build(name, extractor, gateway);
+    }
+
+    /**
+     * Builds every index again from the objects currently stored, e.g. after the gateway missed changes
+     * made by other processes. Lookups during the rebuild may miss objects not read yet.
+     *
+     * @param gateway gateway whose objects are indexed.
+     */
+    public synchronized void rebuild(IGateway<T> gateway) {
+        for (Map.Entry<String, Index> entry : new ArrayList<>(indexes.entrySet())) {
+            build(entry.getKey(), entry.getValue().extractor, gateway);
+        }
+    }
+
+    /**
+     * Replaces the index with name by a new one built from the objects currently stored, reading them in
+     * parallel. Writes and deletes made meanwhile go to the new index.
+     */
+    private void build(String name, Function<T, ? extends Collection<?>> extractor, IGateway<T> gateway) {
+        Index index = new Index(extractor);
+        indexes.put(name, index);
+
+        ScanPool.run(() -> {
+            gateway.getIds().parallelStream().forEach(id -> {
+                T obj = gateway.read(id);
+                if (obj != null) index.put(id, obj, true);
+            });
+            return null;
+        });
+        index.built();
+    }
+
+    /**
+     * @param name name of an index.
+     * @return true iff an index with that name is registered.
+     */
+    public boolean has(String name) {
+        return indexes.containsKey(name);
+    }
+
+    /**
+     * Re-indexes an object that was written.
+     *
+     * @param id  unique identifier.
+     * @param obj object as written.
+     */
+    public void update(String id, T obj) {
+        for (Index index : indexes.values()) {
+            index.put(id, obj, false);
+        }
+    }
+
+    /**
+     * Removes a deleted object from every index.
+     *
+     * @param id unique identifier.
+     */
+    public void remove(String id) {
+        for (Index index : indexes.values()) {
+            index.remove(id);
+        }
+    }
+
+    /**
+     * Gets the ids of the objects indexed under key.
+     *
+     * @param name name of the index.
+     * @param key  key looked up.
+     * @return list of ids; empty if there are none.
+     * @throws IllegalArgumentException if there is no index with that name.
+     */
+    public List<String> lookup(String name, Object key) {
+        Index index = indexes.get(name);
+        if (index == null) throw new IllegalArgumentException("No index named " + name);
+        return index.get(key);
+    }
+
+    /**
+     * Gets one page of the ids of the objects indexed under key, in increasing order.
+     *
+     * @param name    name of the index.
+     * @param key     key looked up.
+     * @param afterId the page starts after this id; null for the first page.
+     * @param limit   maximum number of ids returned.
+     * @return list of ids; fewer than limit iff there are no more.
+     * @throws IllegalArgumentException if there is no index with that name.
+     */
+    public List<String> lookup(String name, Object key, String afterId, int limit) {
+        Index index = indexes.get(name);
+        if (index == null) throw new IllegalArgumentException("No index named " + name);
+        return index.get(key, afterId, limit);
+    }
+}
@@ -0,0 +1,137 @@
+package Gateways;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Sequential reader over the records of a {@link LogDatabase} segment.
+ * <p>
+ * The segment is memory-mapped, so a full scan is a sequential walk through memory with no per-record
+ * system calls. The mapping stays readable even if the segment is closed or merged away while the reader
+ * is still in use. A reader must not be shared between threads.
+ */
+public class SegmentReader {
+    static final int HEADER_SIZE = 12;
+    static final int TOMBSTONE = -1;
+    static final int MERGE_MARKER = -2;
+
+    private final MappedByteBuffer buffer;
+    private final boolean verify;
+    private final CRC32 crc = new CRC32();
+    private byte[] scratch = new byte[256];
+
+    private long offset = -1;
+    private int keyLength;
+    private int valueLength;
+    private String key;
+
+    /**
+     * Constructor.
+     *
+     * @param channel segment being read.
+     * @param size    number of bytes of the segment to read.
+     * @param verify  whether records are checked against their checksum.
+     * @throws IOException if the segment could not be mapped.
+     */
+    public SegmentReader(FileChannel channel, long size, boolean verify) throws IOException {
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        this.verify = verify;
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return true iff there is a next record; false at the end of the segment or at a torn or corrupt record.
+     */
+    public boolean next() {
+        int position = offset < 0 ? 0 : (int) (offset + HEADER_SIZE + keyLength + Math.max(valueLength, 0));
+        if (position + HEADER_SIZE > buffer.limit()) return false;
+
+        int checksum = buffer.getInt(position);
+        int nextKeyLength = buffer.getInt(position + 4);
+        int nextValueLength = buffer.getInt(position + 8);
+        int bodyLength = HEADER_SIZE - 4 + nextKeyLength + Math.max(nextValueLength, 0);
+        if (nextKeyLength < 0 || nextValueLength < MERGE_MARKER
+                || (long) position + 4 + bodyLength > buffer.limit()) return false;
+
+        if (verify) {
+            byte[] body = copy(position + 4, bodyLength);
+            crc.reset();
+            crc.update(body, 0, bodyLength);
+            if ((int) crc.getValue() != checksum) return false;
+        }
+
+        offset = position;
+        keyLength = nextKeyLength;
+        valueLength = nextValueLength;
+        key = new String(copy(position + HEADER_SIZE, keyLength), 0, keyLength, StandardCharsets.UTF_8);
+        return true;
+    }
+
+    /**
+     * @return offset of the current record in the segment.
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * @return id of the current record.
+     */
+    public String key() {
+        return key;
+    }
+
+    /**
+     * @return length in bytes of the key of the current record.
+     */
+    public int keyLength() {
+        return keyLength;
+    }
+
+    /**
+     * @return length of the value of the current record; {@link #TOMBSTONE} if the record is a delete,
+     * {@link #MERGE_MARKER} if it marks a merged segment.
+     */
+    public int valueLength() {
+        return valueLength;
+    }
+
+    /**
+     * @return total length in bytes of the current record.
+     */
+    public long recordLength() {
+        return HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+    }
+
+    /**
+     * Copies the value of the current record.
+     *
+     * @return the value; null if the record is a delete or a merge marker.
+     */
+    public byte[] value() {
+        if (valueLength < 0) return null;
+        byte[] value = new byte[valueLength];
+        position(offset + HEADER_SIZE + keyLength).get(value);
+        return value;
+    }
+
+    /**
+     * Copies length bytes at position into a scratch buffer reused between records.
+     */
+    private byte[] copy(int position, int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        position(position).get(scratch, 0, length);
+        return scratch;
+    }
+
+    private MappedByteBuffer position(long position) {
+        buffer.position((int) position);
+        return buffer;
+    }
+}
@@ -0,0 +1,117 @@
+package Gateways;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Where a JsonDatabase keeps the file of each record.
+ * <p>
+ * The flat layout puts every record straight in the collection directory, e.g.
+ * {@code Messages/Messages-a-b.json}. The sharded layout spreads them over two levels of subdirectories
+ * named after a hash of the id, e.g. {@code Messages/7/e2/Messages-a-b.json}, so no directory grows
+ * past a few hundred entries even for very large collections. The fan-out is 16 by 256: 4096 leaf
+ * directories, few enough to each be watched for changes within common inotify limits.
+ */
+public class ShardLayout {
+    public static final String FLAT = "flat";
+    public static final String SHARDED = "sharded";
+
+    /**
+     * Number of levels of shard subdirectories below the collection directory.
+     */
+    public static final int DEPTH = 2;
+
+    private static final String SUFFIX = ".json";
+
+    private final File directory;
+    private final String prefix;
+    private final boolean sharded;
+
+    /**
+     * Constructor.
+     *
+     * @param directory  directory of the collection.
+     * @param objectName name of the object class being stored.
+     * @param sharded    true for the sharded layout; false for the flat one.
+     */
+    public ShardLayout(File directory, String objectName, boolean sharded) {
+        this.directory = directory;
+        this.prefix = objectName + "-";
+        this.sharded = sharded;
+    }
+
+    /**
+     * @param name {@link #FLAT} or {@link #SHARDED}.
+     * @return true iff name is the sharded layout.
+     * @throws IllegalArgumentException if name is neither.
+     */
+    public static boolean isSharded(String name) {
+        switch (name) {
+            case FLAT:
+                return false;
+            case SHARDED:
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown layout: " + name);
+        }
+    }
+
+    /**
+     * @return true iff records are kept in shard subdirectories.
+     */
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * Gets the file the record with id is written to.
+     *
+     * @param id unique identifier.
+     * @return the file in this layout.
+     */
+    public File file(String id) {
+        return sharded ? new File(shardOf(id), fileName(id)) : flatFile(id);
+    }
+
+    /**
+     * Gets the file the record with id has in the flat layout, where it may still be while a
+     * collection is being migrated to the sharded layout.
+     *
+     * @param id unique identifier.
+     * @return the file in the collection directory itself.
+     */
+    public File flatFile(String id) {
+        return new File(directory, fileName(id));
+    }
+
+    /**
+     * Gets the leaf directory the record with id belongs in, in the sharded layout.
+     *
+     * @param id unique identifier.
+     * @return the shard directory.
+     */
+    public File shardOf(String id) {
+        CRC32 crc = new CRC32();
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        crc.update(bytes, 0, bytes.length);
+        int hash = (int) crc.getValue();
+        return new File(new File(directory, Integer.toHexString((hash >>> 28) & 0xf)),
+                String.format("%02x", (hash >>> 20) & 0xff));
+    }
+
+    /**
+     * Gets the id stored in the file named fileName.
+     *
+     * @param fileName name of a file of the collection.
+     * @return the id; null if the file is not a record of this collection.
+     */
+    public String idOf(String fileName) {
+        if (!fileName.startsWith(prefix) || !fileName.endsWith(SUFFIX)) return null;
+        return fileName.substring(prefix.length(), fileName.length() - SUFFIX.length());
+    }
+
+    private String fileName(String id) {
+        return prefix + id + SUFFIX;
+    }
+}
@@ -0,0 +1,835 @@
+package Gateways;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A Database class that stores T type objects in an embedded SQL database, through JDBC.
+ * <p>
+ * Each collection is a table of (id, data) rows, data holding the object serialized by the database's
+ * {@link RecordCodec}. A secondary index registered with {@link #addIndex} is a column of that table holding
+ * the key of each row, with an SQL index on it; one registered with {@link #addMultiIndex} is a companion
+ * table of (key, id) rows. Both are updated in the same SQL transaction as the rows they index, and are
+ * rebuilt from the objects whenever they are registered, so keys written while an index was not registered
+ * (by an older program, or one not using it) do not go stale.
+ * <p>
+ * Lookups on those indexes, {@link #exists}, {@link #getIds} and {@link #readAll} are answered by the SQL
+ * database; arbitrary predicates are Java code it cannot evaluate, so {@link #filterStream} still reads
+ * every object.
+ * <p>
+ * Most existence checks are for ids that are not stored yet (a new username, a new room), so
+ * {@link #exists} first asks a {@link BloomFilter} of the ids, built from the table when the database is
+ * opened and added to on every insert, and only queries the table if the filter says the id may be there.
+ * The filter does not know of rows inserted by other processes; see {@link #enableProcessSharing}.
+ * <p>
+ * The database is given by a JDBC URL, e.g. {@code jdbc:sqlite:phase2/database/conference.db} or
+ * {@code jdbc:h2:./phase2/database/conference}; its driver must be on the classpath. No driver is shipped
+ * in phase2/lib, as the SQLite one is too large for the repository: download sqlite-jdbc (Maven Central,
+ * org.xerial:sqlite-jdbc:3.36.0.3) into phase2/lib before using the default URL. The driver is only loaded
+ * when a SqlDatabase is opened, i.e. when {@code conference.gateway} is {@code sql}, so the other gateways
+ * run without it. All databases with the same URL share one connection.
+ *
+ * @param <T> objects being stored.
+ */
+public class SqlDatabase<T> implements IGateway<T> {
+    public static final String DEFAULT_URL = "jdbc:sqlite:" + JsonDatabase.DIRECTORY_ROOT + "conference.db";
+    private static final int MAX_PARAMETERS = 500;
+    private static final int MIN_FILTER_CAPACITY = 1024;
+    private static final double FILTER_FALSE_POSITIVE_RATE = 0.01;
+    private static final Map<String, Connection> CONNECTIONS = new ConcurrentHashMap<>();
+
+    private final Connection connection;
+    private final RecordCodec<T> codec;
+    private final List<RecordCodec<T>> formats;
+    private final String name;
+    private final String table;
+    private final Map<String, Index> indexes = new ConcurrentHashMap<>();
+    // only the changes made through this database; other processes' writes are not seen
+    private final ChangeFeed changes = new ChangeFeed();
+    private final ByteCounters bytes = new ByteCounters();
+    // null once other processes may insert rows too
+    private volatile BloomFilter knownIds;
+    private boolean sharedWithProcesses;
+
+    /**
+     * A registered secondary index: its extractor and where its keys are kept, either a column of the
+     * table (single) or a companion table (multi).
+     */
+    private final class Index {
+        final Function<T, ? extends Collection<?>> extractor;
+        final boolean multi;
+        // unquoted name of the column, or of the companion table
+        final String column;
+        final String keyTable;
+
+        Index(String indexName, Function<T, ? extends Collection<?>> extractor, boolean multi) {
+            this.extractor = extractor;
+            this.multi = multi;
+            String sanitized = indexName.replaceAll("[^A-Za-z0-9_]", "_");
+            this.column = "ix_" + sanitized;
+            this.keyTable = name + "_ix_" + sanitized;
+        }
+
+        /**
+         * @return the quoted table the keys are in.
+         */
+        String keys() {
+            return multi ? "\"" + keyTable + "\"" : table;
+        }
+
+        /**
+         * @return the quoted column the keys are in.
+         */
+        String key() {
+            return multi ? "index_key" : "\"" + column + "\"";
+        }
+    }
+
+    /**
+     * Work done against the connection, possibly throwing SQLException.
+     */
+    private interface SqlWork<R> {
+        R run() throws SQLException;
+    }
+
+    /**
+     * Work done with the rows of a query.
+     */
+    private interface RowsReader<R> {
+        R read(ResultSet rows) throws SQLException;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param url        JDBC URL of the database.
+     * @param objectName the name representative of the object class being stored.
+     * @param type       type of object (e.g. if T = Event, then type = Event.class)
+     * @param codec      how objects are serialized; values written with other codecs are still read.
+     * @throws IllegalStateException if the database could not be opened, e.g. its driver is missing.
+     */
+    public SqlDatabase(String url, String objectName, Class<T> type, RecordCodec<T> codec) {
+        this.codec = codec;
+        this.formats = RecordCodec.all(type);
+        this.name = objectName.replaceAll("[^A-Za-z0-9_]", "_");
+        this.table = "\"" + name + "\"";
+        try {
+            this.connection = connect(url);
+            synchronized (connection) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + table
+                            + " (id VARCHAR(1024) PRIMARY KEY, data BLOB NOT NULL, version BIGINT NOT NULL DEFAULT 1)");
+                    if (!hasColumn(name, "version")) {
+                        // created before rows were versioned
+                        statement.executeUpdate("ALTER TABLE " + table + " ADD COLUMN version BIGINT NOT NULL DEFAULT 1");
+                    }
+                    // the single (index name, key, id) table secondary indexes used to be kept in
+                    statement.executeUpdate("DROP TABLE IF EXISTS \"" + name + "_index\"");
+                    statement.executeUpdate("DROP TABLE IF EXISTS \"" + name + "_indexes\"");
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not open " + url, e);
+        }
+        rebuildFilter();
+    }
+
+    /**
+     * Serializes and stores obj. If id already exists, replaces existing entry with new entry.
+     *
+     * @param obj object.
+     * @param id  unique identifier.
+     */
+    @Override
+    public void write(T obj, String id) {
+        writeAll(Collections.singletonMap(id, obj));
+    }
+
+    /**
+     * Writes many objects in a single SQL transaction.
+     *
+     * @param objects map from unique identifier to object.
+     */
+    @Override
+    public void writeAll(Map<String, T> objects) {
+        if (objects.isEmpty()) return;
+        Map<String, byte[]> values = ScanPool.run(() -> objects.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> codec.encode(e.getValue()))));
+        inTransaction(() -> {
+            upsert(values);
+            reindex(objects);
+            return null;
+        });
+        for (String id : objects.keySet()) {
+            changes.publish(id, ChangeListener.Kind.WRITTEN);
+        }
+    }
+
+    /**
+     * Applies the writes and deletes of a committed transaction in a single SQL transaction, which the SQL
+     * database makes durable itself.
+     *
+     * @param writes  map from unique identifier to object to write.
+     * @param deletes unique identifiers of the objects to delete.
+     * @throws IOException if the SQL transaction failed; none of them are applied then.
+     */
+    @Override
+    public void applyJournaled(Map<String, T> writes, Collection<String> deletes) throws IOException {
+        Map<String, byte[]> values = ScanPool.run(() -> writes.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> codec.encode(e.getValue()))));
+        List<String> deleted;
+        try {
+            deleted = inTransaction(() -> {
+                upsert(values);
+                reindex(writes);
+                List<String> existed = new ArrayList<>();
+                try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table + " WHERE id = ?")) {
+                    for (String id : deletes) {
+                        delete.setString(1, id);
+                        if (delete.executeUpdate() > 0) existed.add(id);
+                    }
+                }
+                removeFromIndexes(deletes);
+                return existed;
+            });
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getCause() != null ? e.getCause() : e);
+        }
+        for (String id : writes.keySet()) {
+            changes.publish(id, ChangeListener.Kind.WRITTEN);
+        }
+        for (String id : deleted) {
+            changes.publish(id, ChangeListener.Kind.DELETED);
+        }
+    }
+
+    /**
+     * Updates the row of every id in values, inserting those that have none.
+     */
+    private void upsert(Map<String, byte[]> values) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement("UPDATE " + table
+                + " SET data = ?, version = version + 1 WHERE id = ?");
+             PreparedStatement insert = insertStatement()) {
+            for (Map.Entry<String, byte[]> value : values.entrySet()) {
+                update.setBytes(1, value.getValue());
+                update.setString(2, value.getKey());
+                if (update.executeUpdate() == 0) {
+                    insert(insert, value.getKey(), value.getValue());
+                }
+                bytes.written(value.getValue().length);
+            }
+        }
+    }
+
+    /**
+     * Writes obj only if the row of id is still at expectedVersion, checked by the UPDATE itself, so this is
+     * also safe against other processes using the same database.
+     *
+     * @param id              unique identifier.
+     * @param expectedVersion version read with {@link #version}; {@link VersionTable#ABSENT} to only create.
+     * @param obj             object.
+     * @return true iff obj was written.
+     */
+    @Override
+    public boolean compareAndWrite(String id, long expectedVersion, T obj) {
+        byte[] value = codec.encode(obj);
+        boolean written = inTransaction(() -> {
+            if (expectedVersion == VersionTable.ABSENT) {
+                if (inTable(id)) return false;
+                try (PreparedStatement insert = insertStatement()) {
+                    insert(insert, id, value);
+                }
+            } else {
+                try (PreparedStatement update = connection.prepareStatement("UPDATE " + table
+                        + " SET data = ?, version = version + 1 WHERE id = ? AND version = ?")) {
+                    update.setBytes(1, value);
+                    update.setString(2, id);
+                    update.setLong(3, expectedVersion);
+                    if (update.executeUpdate() == 0) return false;
+                }
+            }
+            reindex(Collections.singletonMap(id, obj));
+            return true;
+        });
+        if (written) {
+            bytes.written(value.length);
+            changes.publish(id, ChangeListener.Kind.WRITTEN);
+        }
+        return written;
+    }
+
+    /**
+     * Gets the version of the object with id, as stored in its row.
+     *
+     * @param id unique identifier.
+     * @return version stamp; {@link VersionTable#ABSENT} if object DNE.
+     */
+    @Override
+    public long version(String id) {
+        return query("SELECT version FROM " + table + " WHERE id = ?", Collections.singletonList(id),
+                rows -> rows.next() ? rows.getLong(1) : VersionTable.ABSENT);
+    }
+
+    private PreparedStatement insertStatement() throws SQLException {
+        return connection.prepareStatement("INSERT INTO " + table + " (id, data, version) VALUES (?, ?, ?)");
+    }
+
+    /**
+     * Inserts a row. New rows start at the time they are inserted, in milliseconds, rather than at
+     * {@link VersionTable#INITIAL}, so a row deleted and inserted again does not get back a version that
+     * a reader may still hold.
+     */
+    private void insert(PreparedStatement insert, String id, byte[] value) throws SQLException {
+        insert.setString(1, id);
+        insert.setBytes(2, value);
+        insert.setLong(3, System.currentTimeMillis());
+        insert.executeUpdate();
+        BloomFilter filter = knownIds;
+        if (filter != null) {
+            filter.add(id);
+            if (filter.isFull()) rebuildFilter();
+        }
+    }
+
+    /**
+     * Builds the Bloom filter of ids from the table, with room for as many ids again. Holds the connection
+     * lock, so no row can be inserted in the meantime without being added to the new filter.
+     */
+    private void rebuildFilter() {
+        synchronized (connection) {
+            if (sharedWithProcesses) return;
+            List<String> ids = getIds();
+            BloomFilter filter = new BloomFilter(Math.max(2 * ids.size(), MIN_FILTER_CAPACITY),
+                    FILTER_FALSE_POSITIVE_RATE);
+            for (String id : ids) {
+                filter.add(id);
+            }
+            knownIds = filter;
+        }
+    }
+
+    /**
+     * Stops answering {@link #exists} from the Bloom filter of ids, for when other processes use the same
+     * SQL database and may insert ids this process never hears of. Every check then queries the table.
+     */
+    public void enableProcessSharing() {
+        synchronized (connection) {
+            sharedWithProcesses = true;
+            knownIds = null;
+        }
+    }
+
+    private void reindex(Map<String, T> objects) throws SQLException {
+        for (Index index : indexes.values()) {
+            index(index, objects);
+        }
+    }
+
+    private boolean hasColumn(String tableName, String column) throws SQLException {
+        try (ResultSet columns = connection.getMetaData().getColumns(null, null, tableName, null)) {
+            while (columns.next()) {
+                if (column.equalsIgnoreCase(columns.getString("COLUMN_NAME"))) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves object with id.
+     *
+     * @param id unique identifier.
+     * @return object with id; null if object DNE.
+     */
+    @Override
+    public T read(String id) {
+        return readAll(Collections.singletonList(id)).get(id);
+    }
+
+    /**
+     * Reads a single field of the object with id, skipping over the rest of its serialized form.
+     *
+     * @param id    unique identifier.
+     * @param field name of the field.
+     * @param type  type of the field.
+     * @return the value of the field; null if object DNE or has no such field.
+     */
+    @Override
+    public <F> F readField(String id, String field, Class<F> type) {
+        byte[] value = readValue(id);
+        if (value == null) return null;
+        return Projection.field(reader(value), field, type);
+    }
+
+    /**
+     * Counts the elements of a collection field of the object with id without deserializing them.
+     *
+     * @param id    unique identifier.
+     * @param field name of the field.
+     * @return number of elements; -1 if object DNE or has no such field.
+     */
+    @Override
+    public int readFieldSize(String id, String field) {
+        byte[] value = readValue(id);
+        if (value == null) return -1;
+        return Projection.size(reader(value), field);
+    }
+
+    /**
+     * Reads several fields of the object with id in one pass over its serialized form.
+     *
+     * @param id     unique identifier.
+     * @param fields the fields read; their names must differ.
+     * @return what was read of each field; null if object DNE.
+     */
+    @Override
+    public Projection.Values readFields(String id, Projection.Field<?>... fields) {
+        byte[] value = readValue(id);
+        return value == null ? null : Projection.fields(reader(value), fields);
+    }
+
+    private byte[] readValue(String id) {
+        byte[] value = query("SELECT data FROM " + table + " WHERE id = ?", Collections.singletonList(id),
+                rows -> rows.next() ? rows.getBytes(1) : null);
+        if (value != null) bytes.read(value.length);
+        return value;
+    }
+
+    /**
+     * Reads many objects with as few queries as possible.
+     *
+     * @param ids unique identifiers; duplicates are read once
+     * @return map from id to object, in the order of ids; ids of objects that DNE are left out
+     */
+    @Override
+    public Map<String, T> readAll(Collection<String> ids) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<String, byte[]> values = new HashMap<>();
+        for (int from = 0; from < distinct.size(); from += MAX_PARAMETERS) {
+            List<String> chunk = distinct.subList(from, Math.min(distinct.size(), from + MAX_PARAMETERS));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            values.putAll(query("SELECT id, data FROM " + table + " WHERE id IN (" + placeholders + ")",
+                    chunk, rows -> {
+                        Map<String, byte[]> found = new HashMap<>();
+                        while (rows.next()) {
+                            byte[] value = rows.getBytes(2);
+                            bytes.read(value.length);
+                            found.put(rows.getString(1), value);
+                        }
+                        return found;
+                    }));
+        }
+        Map<String, T> result = new LinkedHashMap<>();
+        for (String id : distinct) {
+            byte[] value = values.get(id);
+            if (value != null) result.put(id, decode(value));
+        }
+        return result;
+    }
+
+    /**
+     * Returns and deletes entry with id.
+     *
+     * @param id unique identifier
+     * @return object with id; null if object does not exist.
+     */
+    @Override
+    public T delete(String id) {
+        T obj = read(id);
+        if (obj == null) return null;
+        inTransaction(() -> {
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table + " WHERE id = ?")) {
+                delete.setString(1, id);
+                delete.executeUpdate();
+            }
+            removeFromIndexes(Collections.singleton(id));
+            return null;
+        });
+        changes.publish(id, ChangeListener.Kind.DELETED);
+        return obj;
+    }
+
+    /**
+     * @return counters of the bytes of the values read and written; values read by scans are not counted.
+     */
+    @Override
+    public ByteCounters getByteCounters() {
+        return bytes;
+    }
+
+    /**
+     * Registers listener for the writes and deletes made through this database. Rows changed by other
+     * processes sharing the SQL database are not reported.
+     *
+     * @param listener listener.
+     */
+    @Override
+    public void addListener(ChangeListener listener) {
+        changes.add(listener);
+    }
+
+    /**
+     * @param listener a listener registered with {@link #addListener}.
+     */
+    @Override
+    public void removeListener(ChangeListener listener) {
+        changes.remove(listener);
+    }
+
+    /**
+     * Returns a list of ids of objects stored in this database
+     *
+     * @return list of string ids.
+     */
+    @Override
+    public List<String> getIds() {
+        return query("SELECT id FROM " + table, Collections.emptyList(), SqlDatabase::ids);
+    }
+
+    /**
+     * Gets one page of the ids of objects stored in this database, in increasing order, with an ordered
+     * range query on the primary key.
+     *
+     * @param afterId the page starts after this id; null for the first page.
+     * @param limit   maximum number of ids returned.
+     * @return list of ids; fewer than limit iff there are no more.
+     */
+    @Override
+    public List<String> getIds(String afterId, int limit) {
+        return query("SELECT id FROM " + table + " WHERE id > ? ORDER BY id LIMIT " + limit,
+                Collections.singletonList(afterId == null ? "" : afterId), SqlDatabase::ids);
+    }
+
+    /**
+     * Checks if an object with id is stored, without reading it. Ids the Bloom filter of ids has never seen
+     * are answered without a query.
+     *
+     * @param id unique identifier.
+     * @return true iff an object with id exists.
+     */
+    @Override
+    public boolean exists(String id) {
+        BloomFilter filter = knownIds;
+        if (filter != null && !filter.mightContain(id)) return false;
+        return inTable(id);
+    }
+
+    /**
+     * Checks if the table has a row for id, bypassing the Bloom filter.
+     */
+    private boolean inTable(String id) {
+        return query("SELECT 1 FROM " + table + " WHERE id = ?", Collections.singletonList(id), ResultSet::next);
+    }
+
+    /**
+     * Gets a stream of T elements that match the predicate.
+     * @param predicate a predicate checked against each element to see if it should be included
+     * @return a stream of elements that match the predicate.
+     */
+    @Override
+    public Stream<T> filterStream(Predicate<T> predicate) {
+        List<byte[]> values = query("SELECT data FROM " + table, Collections.emptyList(), rows -> {
+            List<byte[]> found = new ArrayList<>();
+            while (rows.next()) {
+                found.add(rows.getBytes(1));
+            }
+            return found;
+        });
+        return values.stream().map(this::decode).filter(predicate);
+    }
+
+    /**
+     * Gets a list of T elements that match the predicate.
+     * @param predicate a predicate checked against each element to see if it should be included
+     * @return a list of elements that match the predicate
+     */
+    @Override
+    public List<T> filterList(Predicate<T> predicate) {
+        return filterStream(predicate).collect(Collectors.toList());
+    }
+
+    /**
+     * Registers a secondary index of the objects by a single key, kept in a column of the table. The column
+     * is filled in from the stored objects.
+     *
+     * @param name      name of the index.
+     * @param extractor gets the key an object is indexed under.
+     */
+    @Override
+    public void addIndex(String name, Function<T, ?> extractor) {
+        register(name, obj -> Collections.singletonList(extractor.apply(obj)), false);
+    }
+
+    /**
+     * Registers a secondary index of the objects by several keys each, kept in a companion table. The table
+     * is filled in from the stored objects.
+     *
+     * @param name      name of the index.
+     * @param extractor gets the keys an object is indexed under.
+     */
+    @Override
+    public void addMultiIndex(String name, Function<T, ? extends Collection<?>> extractor) {
+        register(name, extractor, true);
+    }
+
+    /**
+     * Creates the column or table of an index if needed and rebuilds it from every stored object, in one
+     * SQL transaction holding the connection, so no write can be left out of it.
+     */
+    private synchronized void register(String indexName, Function<T, ? extends Collection<?>> extractor,
+                                       boolean multi) {
+        if (indexes.containsKey(indexName)) return;
+        Index index = new Index(indexName, extractor, multi);
+        inTransaction(() -> {
+            try (Statement statement = connection.createStatement()) {
+                if (multi) {
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + index.keys()
+                            + " (index_key VARCHAR(1024) NOT NULL, id VARCHAR(1024) NOT NULL, PRIMARY KEY (index_key, id))");
+                    statement.executeUpdate("CREATE INDEX IF NOT EXISTS \"" + index.keyTable + "_id\" ON "
+                            + index.keys() + " (id)");
+                    statement.executeUpdate("DELETE FROM " + index.keys());
+                } else {
+                    if (!hasColumn(name, index.column)) {
+                        statement.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + index.key() + " VARCHAR(1024)");
+                    }
+                    statement.executeUpdate("CREATE INDEX IF NOT EXISTS \"" + index.keyTable + "_key\" ON "
+                            + table + " (" + index.key() + ", id)");
+                    statement.executeUpdate("UPDATE " + table + " SET " + index.key() + " = NULL");
+                }
+            }
+            index(index, readAll(getIds()));
+            return null;
+        });
+        indexes.put(indexName, index);
+    }
+
+    /**
+     * Gets the ids of the objects indexed under key, using the SQL index.
+     *
+     * @param name name of a registered index.
+     * @param key  key looked up.
+     * @return list of ids; empty if there are none.
+     * @throws IllegalArgumentException if there is no index with that name.
+     */
+    @Override
+    public List<String> lookup(String name, Object key) {
+        Index index = index(name);
+        return query("SELECT id FROM " + index.keys() + " WHERE " + index.key() + " = ? ORDER BY id",
+                Collections.singletonList(String.valueOf(key)), SqlDatabase::ids);
+    }
+
+    /**
+     * Gets one page of the ids of the objects indexed under key, in increasing order, using the SQL index.
+     *
+     * @param name    name of a registered index.
+     * @param key     key looked up.
+     * @param afterId the page starts after this id; null for the first page.
+     * @param limit   maximum number of ids returned.
+     * @return list of ids; fewer than limit iff there are no more.
+     * @throws IllegalArgumentException if there is no index with that name.
+     */
+    @Override
+    public List<String> lookup(String name, Object key, String afterId, int limit) {
+        Index index = index(name);
+        return query("SELECT id FROM " + index.keys() + " WHERE " + index.key() + " = ? AND id > ? ORDER BY id LIMIT "
+                + limit, Arrays.asList(String.valueOf(key), afterId == null ? "" : afterId), SqlDatabase::ids);
+    }
+
+    /**
+     * Reads one page of the objects matching predicate, in increasing order of id, fetching limit rows at a
+     * time with an ordered range query until the page is full.
+     *
+     * @param afterId   the page starts after this id; null for the first page.
+     * @param limit     maximum number of objects returned.
+     * @param predicate a predicate checked against each element to see if it should be included.
+     * @return map from id to object in increasing order of id; fewer than limit entries iff there are no more.
+     */
+    @Override
+    public Map<String, T> scan(String afterId, int limit, Predicate<T> predicate) {
+        Map<String, T> page = new LinkedHashMap<>();
+        String after = afterId == null ? "" : afterId;
+        while (page.size() < limit) {
+            Map<String, byte[]> rows = query("SELECT id, data FROM " + table + " WHERE id > ? ORDER BY id LIMIT " + limit,
+                    Collections.singletonList(after), found -> {
+                        Map<String, byte[]> values = new LinkedHashMap<>();
+                        while (found.next()) {
+                            values.put(found.getString(1), found.getBytes(2));
+                        }
+                        return values;
+                    });
+            for (Map.Entry<String, byte[]> row : rows.entrySet()) {
+                if (page.size() == limit) break;
+                T obj = decode(row.getValue());
+                if (predicate.test(obj)) page.put(row.getKey(), obj);
+                after = row.getKey();
+            }
+            if (rows.size() < limit) break;
+        }
+        return page;
+    }
+
+    private <R> R query(String sql, List<String> parameters, RowsReader<R> reader) {
+        synchronized (connection) {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < parameters.size(); i++) {
+                    statement.setString(i + 1, parameters.get(i));
+                }
+                try (ResultSet rows = statement.executeQuery()) {
+                    return reader.read(rows);
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs work in one SQL transaction, rolling it back if it fails.
+     */
+    private <R> R inTransaction(SqlWork<R> work) {
+        synchronized (connection) {
+            try {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    R result = work.run();
+                    connection.commit();
+                    return result;
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private Index index(String indexName) {
+        Index index = indexes.get(indexName);
+        if (index == null) throw new IllegalArgumentException("No index named " + indexName);
+        return index;
+    }
+
+    /**
+     * Removes ids from the companion tables of the registered multi-key indexes; single-key indexes go
+     * with the rows themselves.
+     */
+    private void removeFromIndexes(Collection<String> ids) throws SQLException {
+        for (Index index : indexes.values()) {
+            if (!index.multi) continue;
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + index.keys() + " WHERE id = ?")) {
+                for (String id : ids) {
+                    delete.setString(1, id);
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Stores the keys of objects in index, replacing those they had.
+     */
+    private void index(Index index, Map<String, T> objects) throws SQLException {
+        if (objects.isEmpty()) return;
+        if (!index.multi) {
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE " + table + " SET " + index.key() + " = ? WHERE id = ?")) {
+                for (Map.Entry<String, T> entry : objects.entrySet()) {
+                    Collection<?> keys = index.extractor.apply(entry.getValue());
+                    Object key = keys == null || keys.isEmpty() ? null : keys.iterator().next();
+                    update.setString(1, key == null ? null : String.valueOf(key));
+                    update.setString(2, entry.getKey());
+                    update.addBatch();
+                }
+                update.executeBatch();
+            }
+            return;
+        }
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + index.keys() + " WHERE id = ?");
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO " + index.keys() + " (index_key, id) VALUES (?, ?)")) {
+            for (Map.Entry<String, T> entry : objects.entrySet()) {
+                delete.setString(1, entry.getKey());
+                delete.addBatch();
+                Collection<?> keys = index.extractor.apply(entry.getValue());
+                if (keys == null) continue;
+                Set<String> distinct = new HashSet<>();
+                for (Object key : keys) {
+                    if (key != null) distinct.add(String.valueOf(key));
+                }
+                for (String key : distinct) {
+                    insert.setString(1, key);
+                    insert.setString(2, entry.getKey());
+                    insert.addBatch();
+                }
+            }
+            delete.executeBatch();
+            insert.executeBatch();
+        }
+    }
+
+    private T decode(byte[] value) {
+        return formatOf(value).decode(value, value.length);
+    }
+
+    private JsonReader reader(byte[] value) {
+        return formatOf(value).reader(value, value.length);
+    }
+
+    private RecordCodec<T> formatOf(byte[] value) {
+        if (codec.wrote(value, value.length)) return codec;
+        for (RecordCodec<T> format : formats) {
+            if (format.wrote(value, value.length)) return format;
+        }
+        return codec;
+    }
+
+    /**
+     * @param url JDBC URL of a database.
+     * @return true iff a driver for url is on the classpath.
+     */
+    public static boolean hasDriver(String url) {
+        try {
+            DriverManager.getDriver(url);
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static List<String> ids(ResultSet rows) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        while (rows.next()) {
+            ids.add(rows.getString(1));
+        }
+        return ids;
+    }
+
+    private static Connection connect(String url) throws SQLException {
+        Connection connection = CONNECTIONS.get(url);
+        if (connection != null) return connection;
+        synchronized (CONNECTIONS) {
+            connection = CONNECTIONS.get(url);
+            if (connection == null) {
+                if (!hasDriver(url)) {
+                    throw new SQLException("No JDBC driver for " + url + " on the classpath; for jdbc:sqlite: "
+                            + "download org.xerial:sqlite-jdbc:3.36.0.3 into phase2/lib");
+                }
+                connection = DriverManager.getConnection(url);
+                CONNECTIONS.put(url, connection);
+            }
+            return connection;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package Gateways;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A unit of work spanning any number of gateways: writes and deletes are buffered and then applied
+ * together by {@link #commit()}, so either all of them take effect or none do.
+ * <p>
+ * On commit the buffered operations are appended as a single record to a journal file and forced to disk;
+ * that record is the commit point. They are then applied with one {@link IGateway#applyJournaled} per
+ * gateway, the objects they wrote or deleted are forced to disk with {@link IGateway#checkpoint}, and only
+ * then is the record marked as applied, forcing the mark too. A record marked applied is thus never needed
+ * again: once the journal outgrows {@value #CHECKPOINT_BYTES} bytes, and when the program exits, it is
+ * cleared.
+ * <p>
+ * If a transaction could not be applied, {@link #commit()} throws and its record is left unmarked; the next
+ * commit applies it before anything else, and the journal is not cleared until it has been. When the first
+ * gateway of a program is created by {@link GatewayFactory}, unmarked records, left by a program that
+ * stopped while committing them, are applied too. Records marked applied are never replayed, so writes
+ * made outside a transaction after it committed are kept.
+ * <p>
+ * Only gateways created by {@link GatewayFactory} can take part. Commits are serialized with each other,
+ * also across processes sharing the database through an exclusive lock on the journal, but readers may see
+ * a transaction half applied while it commits.
+ */
+public class Transaction {
+    public static final String JOURNAL = JsonDatabase.DIRECTORY_ROOT + "transactions.journal";
+    private static final String USERS = JsonDatabase.DIRECTORY_ROOT + "transactions.users";
+    static final int CHECKPOINT_BYTES = 256 * 1024;
+    private static final int HEADER_SIZE = 9;
+    private static final byte JOURNALED = 0;
+    private static final byte APPLIED = 1;
+
+    // every process using the database holds a shared lock on USERS while it runs
+    private static FileChannel users;
+    private static FileLock usersLock;
+
+    private final List<Operation> operations = new ArrayList<>();
+    private boolean committed;
+
+    /**
+     * A buffered write (value non-null) or delete (value null) of one object.
+     */
+    private static final class Operation {
+        final String collection;
+        final String type;
+        final String id;
+        final JsonElement value;
+
+        Operation(String collection, String type, String id, JsonElement value) {
+            this.collection = collection;
+            this.type = type;
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A journal record: where it is in the journal, whether it was applied and, once read, its operations.
+     */
+    private static final class Record {
+        final long start;
+        final int length;
+        boolean applied;
+        List<Operation> operations;
+
+        Record(long start, int length, boolean applied) {
+            this.start = start;
+            this.length = length;
+            this.applied = applied;
+        }
+
+        long end() {
+            return start + HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * Buffers a write of obj with id into gateway.
+     *
+     * @param gateway gateway created by {@link GatewayFactory}.
+     * @param obj     object.
+     * @param id      unique identifier.
+     * @param <T>     objects stored by gateway.
+     * @return this transaction.
+     */
+    public <T> Transaction write(IGateway<T> gateway, T obj, String id) {
+        return add(gateway, id, gson().toJsonTree(obj));
+    }
+
+    /**
+     * Buffers a delete of the object with id from gateway.
+     *
+     * @param gateway gateway created by {@link GatewayFactory}.
+     * @param id      unique identifier.
+     * @param <T>     objects stored by gateway.
+     * @return this transaction.
+     */
+    public <T> Transaction delete(IGateway<T> gateway, String id) {
+        return add(gateway, id, null);
+    }
+
+    /**
+     * Makes every buffered operation durable with a single journal record, then applies them.
+     *
+     * @throws IllegalStateException if the transaction was already committed.
+     * @throws IOException           if an earlier transaction left in the journal could not be applied, in which
+     *                               case this one is not journaled; if the journal record could not be written,
+     *                               in which case nothing is applied; or if applying failed, in which case
+     *                               the record is kept and applied again by the next commit.
+     */
+    public void commit() throws IOException {
+        if (committed) throw new IllegalStateException("Transaction already committed");
+        committed = true;
+        if (operations.isEmpty()) return;
+
+        synchronized (Transaction.class) {
+            try (FileChannel journal = openJournal()) {
+                journal.lock();
+                List<Record> records = read(journal);
+                // left unapplied by a commit that failed, in this process or another one
+                for (Record record : records) {
+                    if (!record.applied) applyRecord(journal, record);
+                }
+
+                long start = records.isEmpty() ? 0 : records.get(records.size() - 1).end();
+                // anything after the last record was never completely written
+                if (journal.size() > start) journal.truncate(start);
+                byte[] body = encode(operations).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + body.length);
+                buffer.putInt(body.length).putInt(checksum(body)).put(JOURNALED).put(body).flip();
+                while (buffer.hasRemaining()) {
+                    journal.write(buffer, start + buffer.position());
+                }
+                journal.force(false);
+
+                Record record = new Record(start, body.length, false);
+                record.operations = operations;
+                applyRecord(journal, record);
+                if (journal.size() >= CHECKPOINT_BYTES) {
+                    checkpoint(journal);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the transactions left in the journal by a program that stopped while committing them, or
+     * that failed to apply them. A journal record that was not completely written was never committed and
+     * is discarded. If no other process is using the database, the journal is then cleared. It is cleared
+     * once more when the program exits.
+     */
+    static void recover() {
+        synchronized (Transaction.class) {
+            try {
+                File file = new File(USERS);
+                file.getParentFile().mkdirs();
+                users = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                FileLock alone = users.tryLock();
+
+                if (new File(JOURNAL).length() > 0) {
+                    try (FileChannel journal = openJournal()) {
+                        journal.lock();
+                        List<Record> records = read(journal);
+                        for (Record record : records) {
+                            if (!record.applied) applyRecord(journal, record);
+                        }
+                        if (alone != null) checkpoint(journal);
+                    }
+                }
+
+                if (alone != null) alone.release();
+                usersLock = users.lock(0, Long.MAX_VALUE, true);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(Transaction::checkpointQuietly, "transaction-checkpoint"));
+        }
+    }
+
+    /**
+     * Clears the journal if every record in it was applied.
+     */
+    private static void checkpointQuietly() {
+        synchronized (Transaction.class) {
+            if (new File(JOURNAL).length() == 0) return;
+            try (FileChannel journal = openJournal()) {
+                journal.lock();
+                List<Record> records = read(journal);
+                for (Record record : records) {
+                    if (!record.applied) return;
+                }
+                checkpoint(journal);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private Transaction add(IGateway<?> gateway, String id, JsonElement value) {
+        if (committed) throw new IllegalStateException("Transaction already committed");
+        String collection = GatewayFactory.nameOf(gateway);
+        if (collection == null) {
+            throw new IllegalArgumentException("Gateway was not created by GatewayFactory");
+        }
+        operations.add(new Operation(collection, GatewayFactory.typeOf(collection).getName(), id, value));
+        return this;
+    }
+
+    /**
+     * Applies the operations of record, forces the objects they wrote or deleted to disk, and then marks the
+     * record as applied and forces the mark. Were the mark not durable, or written before the objects were, a
+     * crash could make recovery replay the record over writes made after it.
+     *
+     * @throws IOException if applying or forcing failed; record is then left unmarked.
+     */
+    private static void applyRecord(FileChannel journal, Record record) throws IOException {
+        List<Operation> operations = operations(journal, record);
+        apply(operations);
+        force(operations);
+        journal.write(ByteBuffer.wrap(new byte[]{APPLIED}), record.start + HEADER_SIZE - 1);
+        journal.force(false);
+        record.applied = true;
+    }
+
+    /**
+     * Applies operations with one {@link IGateway#applyJournaled} per gateway. Later operations on an id
+     * replace earlier ones.
+     *
+     * @throws IOException if the operations of a gateway could not all be applied.
+     */
+    private static void apply(List<Operation> operations) throws IOException {
+        for (Map.Entry<String, Map<String, Operation>> entry : byCollection(operations).entrySet()) {
+            Map<String, Operation> ops = entry.getValue();
+            Class<Object> type = typeOf(ops.values().iterator().next());
+            IGateway<Object> gateway = GatewayFactory.create(entry.getKey(), type);
+
+            Map<String, Object> writes = new LinkedHashMap<>();
+            List<String> deletes = new ArrayList<>();
+            for (Operation op : ops.values()) {
+                if (op.value == null) {
+                    deletes.add(op.id);
+                } else {
+                    writes.put(op.id, gson().fromJson(op.value, type));
+                }
+            }
+            gateway.applyJournaled(writes, deletes);
+        }
+    }
+
+    /**
+     * Forces every object written or deleted by operations to disk, with one {@link IGateway#checkpoint} per
+     * gateway.
+     */
+    private static void force(List<Operation> operations) throws IOException {
+        for (Map.Entry<String, Map<String, Operation>> entry : byCollection(operations).entrySet()) {
+            Map<String, Operation> ops = entry.getValue();
+            GatewayFactory.create(entry.getKey(), typeOf(ops.values().iterator().next())).checkpoint(ops.keySet());
+        }
+    }
+
+    /**
+     * Clears the journal. Every record in it must have been applied, and so forced to disk already.
+     */
+    private static void checkpoint(FileChannel journal) throws IOException {
+        journal.truncate(0);
+        journal.force(false);
+    }
+
+    /**
+     * Groups operations by collection, keeping only the last operation on each id.
+     */
+    private static Map<String, Map<String, Operation>> byCollection(List<Operation> operations) {
+        Map<String, Map<String, Operation>> byCollection = new LinkedHashMap<>();
+        for (Operation op : operations) {
+            Map<String, Operation> ops = byCollection.computeIfAbsent(op.collection, c -> new LinkedHashMap<>());
+            ops.remove(op.id);
+            ops.put(op.id, op);
+        }
+        return byCollection;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<Object> typeOf(Operation op) {
+        try {
+            return (Class<Object>) Class.forName(op.type);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(List<Operation> operations) {
+        JsonArray array = new JsonArray();
+        for (Operation op : operations) {
+            JsonObject json = new JsonObject();
+            json.addProperty("collection", op.collection);
+            json.addProperty("type", op.type);
+            json.addProperty("id", op.id);
+            if (op.value != null) json.add("value", op.value);
+            array.add(json);
+        }
+        return gson().toJson(array);
+    }
+
+    /**
+     * Reads the headers of the records of the journal. Only the last record can have been left incomplete
+     * or corrupt by a program that stopped while appending it, since every commit checks the last record
+     * before appending after it, so only that record's body is read and checked here.
+     *
+     * @return the records, in the order they were committed.
+     */
+    private static List<Record> read(FileChannel journal) throws IOException {
+        List<Record> records = new ArrayList<>();
+        long size = journal.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            if (!readFully(journal, header, position)) break;
+            header.flip();
+            int length = header.getInt();
+            header.getInt();
+            boolean applied = header.get() == APPLIED;
+            if (length < 0 || position + HEADER_SIZE + (long) length > size) break;
+            Record record = new Record(position, length, applied);
+            records.add(record);
+            position = record.end();
+        }
+        if (!records.isEmpty()) {
+            Record last = records.get(records.size() - 1);
+            last.operations = readBody(journal, last);
+            if (last.operations == null) records.remove(records.size() - 1);
+        }
+        return records;
+    }
+
+    /**
+     * @return the operations of record, reading them from the journal if they were not yet.
+     * @throws IOException if the record is corrupt.
+     */
+    private static List<Operation> operations(FileChannel journal, Record record) throws IOException {
+        if (record.operations == null) {
+            record.operations = readBody(journal, record);
+            if (record.operations == null) throw new IOException("Corrupt journal record at " + record.start);
+        }
+        return record.operations;
+    }
+
+    /**
+     * @return the operations of record; null if its body does not match its checksum or is not valid.
+     */
+    private static List<Operation> readBody(FileChannel journal, Record record) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ByteBuffer body = ByteBuffer.allocate(record.length);
+        if (!readFully(journal, header, record.start) || !readFully(journal, body, record.start + HEADER_SIZE)) {
+            return null;
+        }
+        header.flip();
+        header.getInt();
+        if (checksum(body.array()) != header.getInt()) return null;
+        return decode(new String(body.array(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Fills buffer from the journal, starting at position.
+     *
+     * @return false if the journal ends first.
+     */
+    private static boolean readFully(FileChannel journal, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (journal.read(buffer, position + buffer.position()) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the operations of a journal record's body; null if it is not valid.
+     */
+    private static List<Operation> decode(String body) {
+        List<Operation> operations = new ArrayList<>();
+        try {
+            for (JsonElement element : JsonParser.parseString(body).getAsJsonArray()) {
+                JsonObject json = element.getAsJsonObject();
+                operations.add(new Operation(json.get("collection").getAsString(), json.get("type").getAsString(),
+                        json.get("id").getAsString(), json.get("value")));
+            }
+        } catch (JsonParseException | IllegalStateException e) {
+            return null;
+        }
+        return operations;
+    }
+
+    private static FileChannel openJournal() throws IOException {
+        File file = new File(JOURNAL);
+        file.getParentFile().mkdirs();
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    private static Gson gson() {
+        return GsonFactory.compact();
+    }
+}
@@ -0,0 +1,65 @@
+package Gateways;
+
+import Entities.User;
+import Util.UserType;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Gson adapter for User, writing the same fields Gson's reflective adapter would, without reflection.
+ */
+public class UserAdapter extends TypeAdapter<User> {
+    @Override
+    public void write(JsonWriter out, User value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("name").value(value.getName());
+        out.name("username").value(value.getUsername());
+        out.name("password").value(value.getPassword());
+        out.name("userType").value(value.getUserType() == null ? null : value.getUserType().name());
+        out.endObject();
+    }
+
+    @Override
+    public User read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String name = null, username = null, password = null;
+        UserType userType = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String field = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "name":
+                    name = in.nextString();
+                    break;
+                case "username":
+                    username = in.nextString();
+                    break;
+                case "password":
+                    password = in.nextString();
+                    break;
+                case "userType":
+                    userType = UserType.valueOf(in.nextString());
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new User(name, username, password, userType);
+    }
+}
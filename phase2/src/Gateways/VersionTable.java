@@ -0,0 +1,172 @@
+package Gateways;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Version stamps of the records of a collection, for {@link IGateway#compareAndWrite}.
+ * <p>
+ * A record that has not been written since the table was created is at version {@link #INITIAL}, or since
+ * {@link #invalidateAll} at the version it gave every record. Every write gives it the next stamp of a
+ * counter shared by the whole table. A record that DNE is at {@link #ABSENT}, so a delete simply drops its
+ * stamp: the table only holds records that exist, and since the counter never goes back, a record deleted
+ * and written again gets a stamp newer than any version read before the delete.
+ * <p>
+ * Writes made through {@link #write} and {@link #compareAndWrite} are serialized per id, by the lock of the
+ * id's stripe of {@link LockStripes}, never by a lock over the whole table. The writes themselves run
+ * holding only that lock, not inside the map, so slow I/O for one id never blocks the map for others.
+ */
+public class VersionTable {
+    public static final long ABSENT = 0;
+    public static final long INITIAL = 1;
+
+    private static final Map<String, VersionTable> TABLES = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong(INITIAL);
+    // version of the records not written since the table was created or last invalidated
+    private volatile long initial = INITIAL;
+    private final LockStripes locks = new LockStripes();
+
+    /**
+     * Gets the table shared by all gateways storing records into directory.
+     *
+     * @param directory directory of the collection.
+     * @return the shared table for that directory.
+     */
+    public static VersionTable forDirectory(File directory) {
+        return TABLES.computeIfAbsent(directory.getAbsolutePath(), k -> new VersionTable());
+    }
+
+    /**
+     * Gets the version of the record with id.
+     *
+     * @param id     unique identifier.
+     * @param exists true iff the record exists, checked before this call.
+     * @return the version; {@link #ABSENT} if the record DNE.
+     */
+    public long get(String id, boolean exists) {
+        if (!exists) return ABSENT;
+        Long version = versions.get(id);
+        return version == null ? initial : version;
+    }
+
+    /**
+     * Runs write, which writes or deletes the record with id, and then gives the record a new version. If
+     * write throws, the record keeps its version and the exception is passed on.
+     *
+     * @param id    unique identifier.
+     * @param write the write; must not use this table.
+     */
+    public void write(String id, Runnable write) {
+        Lock lock = locks.get(id).writeLock();
+        lock.lock();
+        try {
+            write.run();
+            versions.put(id, clock.incrementAndGet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs delete, which deletes the record with id, and then drops the record's stamp. If delete throws,
+     * the record keeps its version and the exception is passed on.
+     *
+     * @param id     unique identifier.
+     * @param delete the delete; must not use this table.
+     */
+    public void delete(String id, Runnable delete) {
+        Lock lock = locks.get(id).writeLock();
+        lock.lock();
+        try {
+            delete.run();
+            versions.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs write, which writes the record with id, iff the record is still at expected; the record is
+     * then given a new version. If write throws, the record keeps its version and the exception is passed on.
+     *
+     * @param id       unique identifier.
+     * @param expected version the record must be at.
+     * @param exists   checks whether the record exists.
+     * @param write    the write; must not use this table.
+     * @return true iff the record was at expected and write was run.
+     */
+    public boolean compareAndWrite(String id, long expected, BooleanSupplier exists, Runnable write) {
+        Lock lock = locks.get(id).writeLock();
+        lock.lock();
+        try {
+            if (get(id, exists.getAsBoolean()) != expected) return false;
+            write.run();
+            versions.put(id, clock.incrementAndGet());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the locks of the records with ids for a batch of writes made without {@link #write}, so that no
+     * {@link #compareAndWrite} of any of them comes in between the batch and its {@link #changed} calls.
+     *
+     * @param ids unique identifiers.
+     * @return the locks taken, to be passed to {@link #unlockAll}.
+     */
+    public List<Lock> lockAll(Collection<String> ids) {
+        return locks.lockAll(ids);
+    }
+
+    /**
+     * Releases locks taken by {@link #lockAll}.
+     *
+     * @param taken the locks.
+     */
+    public void unlockAll(List<Lock> taken) {
+        locks.unlockAll(taken);
+    }
+
+    /**
+     * Gives the record with id a new version, after it was written without {@link #write}.
+     *
+     * @param id unique identifier.
+     */
+    public void changed(String id) {
+        versions.put(id, clock.incrementAndGet());
+    }
+
+    /**
+     * Drops the stamp of the record with id, after it was deleted without {@link #delete}.
+     *
+     * @param id unique identifier.
+     */
+    public void deleted(String id) {
+        versions.remove(id);
+    }
+
+    /**
+     * @return number of records with a stamp of their own; all others are at the initial version or DNE.
+     */
+    public int size() {
+        return versions.size();
+    }
+
+    /**
+     * Gives every record a new version, e.g. after changes of other processes were missed, so that any
+     * {@link #compareAndWrite} expecting a version read before fails.
+     */
+    public void invalidateAll() {
+        initial = clock.incrementAndGet();
+        versions.clear();
+    }
+}
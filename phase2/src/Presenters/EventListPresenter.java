@@ -5,14 +5,24 @@ import Util.UserType;
 import ui.view.EventListView;
 import ui.view.View;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public class EventListPresenter implements Presenter {
-    private List<String> eventNames;
-    private List<String> vipEvents;
+    /**
+     * Number of events loaded at a time.
+     */
+    public static final int PAGE_SIZE = 50;
+
+    private EventController eventController;
+    private boolean vipFilter;
+    private Set<String> vipEvents;
     private MainPresenter mainPresenter;
     private String username;
     private UserType type;
+    private Consumer<String> eventListener;
 
     /**
      *  Constructor
@@ -24,18 +34,18 @@ public class EventListPresenter implements Presenter {
         this.mainPresenter = mainPresenter;
         this.username = username;
         this.type = type;
-        EventController ec = new EventController();
-        boolean vipFilter = type == UserType.VIP || type == UserType.ORGANIZER;
-        eventNames = ec.getEventNames(vipFilter);
-        vipEvents = ec.getVIPEventNames();
+        eventController = new EventController();
+        vipFilter = type == UserType.VIP || type == UserType.ORGANIZER;
+        vipEvents = new HashSet<>(eventController.getVIPEventNames());
     }
 
     /**
-     * gets event names
-     * @return event names
+     * gets one page of event names, in alphabetical order
+     * @param afterEvent the page starts after this event; null for the first page
+     * @return at most PAGE_SIZE event names; fewer iff there are no more
      */
-    public List<String> getEventNames() {
-        return eventNames;
+    public List<String> getEventNames(String afterEvent) {
+        return eventController.getEventNames(vipFilter, afterEvent, PAGE_SIZE);
     }
 
     /**
@@ -48,6 +58,47 @@ public class EventListPresenter implements Presenter {
         return vipEvents.contains(event);
     }
 
+    /**
+     * Re-reads an event that changed
+     *
+     * @param event event name
+     * @return true iff the event still exists and should be listed for this user
+     */
+    public boolean refreshEvent(String event) {
+        if (!eventController.eventExists(event)) {
+            vipEvents.remove(event);
+            return false;
+        }
+        boolean vip = eventController.isVIPEvent(event);
+        if (vip) {
+            vipEvents.add(event);
+        } else {
+            vipEvents.remove(event);
+        }
+        return vipFilter || !vip;
+    }
+
+    /**
+     * Starts telling the view about changed events, replacing the listener given before
+     *
+     * @param listener called from a background thread with the name of a changed event; with null if all
+     *                 events may have changed
+     */
+    public void watchEvents(Consumer<String> listener) {
+        stopWatching();
+        eventListener = listener;
+        eventController.addEventListener(listener);
+    }
+
+    /**
+     * Stops telling the view about changed events
+     */
+    public void stopWatching() {
+        if (eventListener == null) return;
+        eventController.removeEventListener(eventListener);
+        eventListener = null;
+    }
+
     /**
      * Goes to EventView for this event. (assumes it exists0
      *
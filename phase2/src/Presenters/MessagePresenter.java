@@ -6,6 +6,7 @@ import ui.view.MessageView;
 import ui.view.View;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * @author Chris and Nikita
@@ -14,6 +15,7 @@ public class MessagePresenter implements Presenter{
     private MessageController messageController;
     private String username;
     private MainPresenter mainPresenter;
+    private Consumer<String> conversationListener;
 
     /**
      * Constructor for Message presenter implements Presenter. Communicates with the view
@@ -113,6 +115,25 @@ public class MessagePresenter implements Presenter{
         return messageController.canMessage(username, otherUser);
     }
 
+    /**
+     * Starts telling the view about changed conversations, replacing the listener given before
+     * @param listener called from a background thread with the other user of a changed conversation;
+     *                 with null if all conversations may have changed
+     */
+    public void watchConversations(Consumer<String> listener) {
+        stopWatching();
+        conversationListener = listener;
+        messageController.addConversationListener(username, listener);
+    }
+
+    /**
+     * Stops telling the view about changed conversations
+     */
+    public void stopWatching() {
+        if (conversationListener == null) return;
+        messageController.removeConversationListener(conversationListener);
+        conversationListener = null;
+    }
 
     /**
      * Overrides a message view for the UI
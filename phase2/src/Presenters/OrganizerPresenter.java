@@ -12,6 +12,11 @@ import java.util.List;
  * Presenter for organizer
  */
 public class OrganizerPresenter implements Presenter {
+    /**
+     * Number of usernames of each type loaded at a time.
+     */
+    public static final int PAGE_SIZE = 50;
+
     private RoomController roomController;
     private MainPresenter mainPresenter;
     private AccountController accountController;
@@ -26,39 +31,14 @@ public class OrganizerPresenter implements Presenter {
     }
 
     /**
-     * Getter for list of all attendees in the conference app
-     *
-     * @return list of all usernames of attendees
-     */
-    public List<String> getAttendees() {
-        return accountController.getUsernamesOfType(UserType.ATTENDEE);
-    }
-
-    /**
-     * Getter for list of all speakers in the conference app
-     *
-     * @return list of all usernames of speakers
-     */
-    public List<String> getSpeakers() {
-        return accountController.getUsernamesOfType(UserType.SPEAKER);
-    }
-
-    /**
-     * Getter for list of all organizers in the conference app
-     *
-     * @return list of all usernames of organizers
-     */
-    public List<String> getOrganizers() {
-        return accountController.getUsernamesOfType(UserType.ORGANIZER);
-    }
-
-    /**
-     * Getter for list of all VIPs in the conference app
+     * Getter for one page of the usernames of a type of user in the conference app, in alphabetical order
      *
-     * @return list of all usernames of VIPs
+     * @param type          type of the users
+     * @param afterUsername the page starts after this username; null for the first page
+     * @return at most PAGE_SIZE usernames; fewer iff there are no more
      */
-    public List<String> getVips() {
-        return accountController.getUsernamesOfType(UserType.VIP);
+    public List<String> getUsernames(UserType type, String afterUsername) {
+        return accountController.getUsernamesOfType(type, afterUsername, PAGE_SIZE);
     }
 
     /**
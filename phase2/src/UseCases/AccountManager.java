@@ -1,7 +1,8 @@
 package UseCases;
 
 import Entities.User;
-import Gateways.JsonDatabase;
+import Gateways.GatewayFactory;
+import Gateways.IGateway;
 import Util.UserType;
 
 import java.io.Serializable;
@@ -9,7 +10,6 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * The use case class for creating and authenticating users.
@@ -17,13 +17,14 @@ import java.util.stream.Collectors;
  * @author Paya
  */
 public class AccountManager implements Serializable {
-    private JsonDatabase<User> userJsonDatabase;
+    private IGateway<User> userJsonDatabase;
 
     /**
      * Constructor for AccountManager
      */
     public AccountManager() {
-        userJsonDatabase = new JsonDatabase<>("User", User.class);
+        userJsonDatabase = GatewayFactory.create("User", User.class);
+        userJsonDatabase.addIndex("userType", User::getUserType);
     }
 
     /**
@@ -93,7 +94,7 @@ public class AccountManager implements Serializable {
      * @return true if user exists
      */
     public boolean userExists(String username) {
-        return userJsonDatabase.getIds().contains(username);
+        return userJsonDatabase.exists(username);
     }
 
     /**
@@ -102,9 +103,18 @@ public class AccountManager implements Serializable {
      * @return a list of usernames of specified type
      */
     public List<String> getUsernamesOfType(UserType userType) {
-        return userJsonDatabase.filterStream(u -> u.getUserType() == userType)
-                .map(User::getUsername)
-                .collect(Collectors.toList());
+        return userJsonDatabase.lookup("userType", userType);
+    }
+
+    /**
+     * Gets one page of the usernames of a specified UserType, in alphabetical order
+     * @param userType UserType of the users
+     * @param afterUsername the page starts after this username; null for the first page
+     * @param limit maximum number of usernames returned
+     * @return a list of usernames of specified type; fewer than limit iff there are no more
+     */
+    public List<String> getUsernamesOfType(UserType userType, String afterUsername, int limit) {
+        return userJsonDatabase.lookup("userType", userType, afterUsername, limit);
     }
 
     /**
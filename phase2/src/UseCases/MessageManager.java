@@ -2,12 +2,20 @@ package UseCases;
 
 import Entities.Conversation;
 import Entities.Message;
-import Gateways.JsonDatabase;
+import Gateways.ChangeListener;
+import Gateways.GatewayFactory;
+import Gateways.IGateway;
+import Gateways.VersionTable;
 
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 
 /**
@@ -19,15 +27,16 @@ import java.util.List;
  * @author Chris, Nikita and Parssa
  */
 public class MessageManager implements Serializable {
-    private JsonDatabase<Conversation> messageDatabase;
+    private IGateway<Conversation> messageDatabase;
     private AccountManager accountManager;
+    private final Map<Consumer<String>, ChangeListener> listeners = new ConcurrentHashMap<>();
 
     /**
      * Constructor.
      */
     public MessageManager() {
         this.accountManager = new AccountManager();
-        messageDatabase = new JsonDatabase("Messages", Conversation.class);
+        messageDatabase = GatewayFactory.create("Messages", Conversation.class);
     }
 
     /**
@@ -42,18 +51,45 @@ public class MessageManager implements Serializable {
     public boolean sendMessage(String sender, String recipient, String messageBody) {
         boolean hasMessaged = hasMessaged(sender, recipient);
         if (!hasMessaged) {
-            newConversation(sender, recipient);
+            // unless a concurrent first message created it already
+            messageDatabase.compareAndWrite(sender + "-" + recipient, VersionTable.ABSENT,
+                    new Conversation(sender, recipient));
         }
         Message message = new Message(sender, recipient, messageBody);
-        Conversation c = getConversation(sender, recipient);
-        c.addMessage(message);
         String convoID = getConvoID(sender, recipient);
         if (convoID == null) {
             System.out.println("gotcha!");
             convoID = sender + "-" + recipient;
         }
-        messageDatabase.write(c, convoID);
-        return true;
+        return messageDatabase.update(convoID, c -> {
+            c.addMessage(message);
+            return true;
+        });
+    }
+
+    /**
+     * Sends the same message from sender to each of recipients. All of the conversations are changed with
+     * one {@link IGateway#updateAll}, so they are written back together instead of once per recipient,
+     * and a message sent to one of them concurrently is not lost.
+     *
+     * @param sender      sender of message
+     * @param recipients  recipients of message
+     * @param messageBody body of message
+     */
+    public void sendMessages(String sender, Collection<String> recipients, String messageBody) {
+        Map<String, String> recipientOf = new LinkedHashMap<>();
+        for (String recipient : recipients) {
+            String convoID = getConvoID(sender, recipient);
+            recipientOf.put(convoID == null ? sender + "-" + recipient : convoID, recipient);
+        }
+        messageDatabase.updateAll(recipientOf.keySet(), (convoID, c) -> {
+            String recipient = recipientOf.get(convoID);
+            if (c == null) {
+                c = new Conversation(sender, recipient);
+            }
+            c.addMessage(new Message(sender, recipient, messageBody));
+            return c;
+        });
     }
 
     /**
@@ -129,7 +165,8 @@ public class MessageManager implements Serializable {
      * @return true if the conversation is read, otherwise, false if not read.
      */
     public boolean conversationIsRead(String convoID) {
-        return messageDatabase.read(convoID).getIsRead();
+        Boolean isRead = messageDatabase.readField(convoID, "isRead", Boolean.class);
+        return isRead != null && isRead;
     }
 
     /**
@@ -138,9 +175,10 @@ public class MessageManager implements Serializable {
      * @param conversationID ID of conversation
      */
     public void markAsRead(String conversationID) {
-        Conversation c = messageDatabase.read(conversationID);
-        c.markAsRead();
-        messageDatabase.write(c, conversationID);
+        messageDatabase.update(conversationID, c -> {
+            c.markAsRead();
+            return true;
+        });
     }
     /**
      * Deletes a list of messages
@@ -148,11 +186,12 @@ public class MessageManager implements Serializable {
      * @param messages list of messages
      */
     public void deleteMessages(List<Integer> messages, String user1, String user2) {
-        Conversation c = getConversation(user1, user2);
-        for (Integer messageID : messages) {
-            c.deleteMessage(messageID);
-        }
-        messageDatabase.write(c, getConvoID(user1, user2));
+        messageDatabase.update(getConvoID(user1, user2), c -> {
+            for (Integer messageID : messages) {
+                c.deleteMessage(messageID);
+            }
+            return true;
+        });
     }
 
     /**
@@ -184,6 +223,73 @@ public class MessageManager implements Serializable {
         return archived;
     }
 
+    /**
+     * Gets the archived messages between user and each of others, reading all of the conversations at once.
+     *
+     * @param user   the user
+     * @param others the users they may have conversations with
+     * @return list of archived messages, conversation by conversation in the order of others
+     */
+    public List<Message> getArchivedMessages(String user, List<String> others) {
+        List<String> convoIDs = new ArrayList<>();
+        for (String other : others) {
+            String convoID = getConvoID(user, other);
+            if (convoID != null) convoIDs.add(convoID);
+        }
+        List<Message> archived = new ArrayList<>();
+        for (Conversation c : messageDatabase.readAll(convoIDs).values()) {
+            for (Message m : c.getMessages()) {
+                if (m.getIsArchived()) {
+                    archived.add(m);
+                }
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * Registers listener to be told whenever a conversation of user changes (a message is sent or deleted,
+     * or it is read), including through other sessions and processes. The listener is called from a
+     * background thread with the username of the other user in the conversation, or with null if any of
+     * the conversations may have changed.
+     *
+     * @param user     the user whose conversations are watched
+     * @param listener called with the other user of a changed conversation
+     */
+    public void addConversationListener(String user, Consumer<String> listener) {
+        ChangeListener changeListener = (convoID, kind) -> {
+            if (convoID == null) {
+                listener.accept(null);
+                return;
+            }
+            // usernames cannot contain "-", so the id splits into the two users
+            int dash = convoID.indexOf('-');
+            if (dash < 0) return;
+            String user1 = convoID.substring(0, dash);
+            String user2 = convoID.substring(dash + 1);
+            if (user1.equals(user)) {
+                listener.accept(user2);
+            } else if (user2.equals(user)) {
+                listener.accept(user1);
+            }
+        };
+        if (listeners.putIfAbsent(listener, changeListener) == null) {
+            messageDatabase.addListener(changeListener);
+        }
+    }
+
+    /**
+     * Stops telling listener about changed conversations.
+     *
+     * @param listener a listener registered with addConversationListener
+     */
+    public void removeConversationListener(Consumer<String> listener) {
+        ChangeListener changeListener = listeners.remove(listener);
+        if (changeListener != null) {
+            messageDatabase.removeListener(changeListener);
+        }
+    }
+
     /**
      * Gets the conversation id between two users
      * @param user1 user one
@@ -191,15 +297,12 @@ public class MessageManager implements Serializable {
      * @return string of the conversation id
      */
     public String getConvoID(String user1, String user2) {
-        List<String> allIDs = messageDatabase.getIds();
-        for (String id : allIDs) {
-            int indexOfDash = id.indexOf("-");
-            String left = id.substring(0, indexOfDash);
-            String right = id.substring(indexOfDash + 1);
-
-            if ((left.equals(user1) && right.equals(user2)) || (left.equals(user2) && right.equals(user1))) {
-                return id;
-            }
+        // usernames cannot contain "-", so the id is either user1-user2 or user2-user1
+        if (messageDatabase.exists(user1 + "-" + user2)) {
+            return user1 + "-" + user2;
+        }
+        if (messageDatabase.exists(user2 + "-" + user1)) {
+            return user2 + "-" + user1;
         }
         return null;
     }
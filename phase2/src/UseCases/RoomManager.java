@@ -2,8 +2,8 @@ package UseCases;
 
 
 import Entities.Room;
+import Gateways.GatewayFactory;
 import Gateways.IGateway;
-import Gateways.JsonDatabase;
 
 import java.util.List;
 
@@ -14,7 +14,7 @@ public class RoomManager {
      * Constructor for EventManager
      */
     public RoomManager() {
-        roomJsonDatabase = new JsonDatabase<Room>("Room", Room.class);
+        roomJsonDatabase = GatewayFactory.create("Room", Room.class);
     }
 
     /**
@@ -46,7 +46,7 @@ public class RoomManager {
      * @return true if room exists
      */
     public boolean roomExists(String roomName) {
-        return roomJsonDatabase.getIds().contains(roomName);
+        return roomJsonDatabase.exists(roomName);
     }
 
     /**
@@ -2,40 +2,39 @@ package UseCases;
 
 import Entities.Event;
 import Entities.ScheduleEntry;
+import Gateways.ChangeListener;
+import Gateways.GatewayFactory;
 import Gateways.IGateway;
-import Gateways.JsonDatabase;
+import Gateways.Projection;
+import Gateways.Transaction;
 import ui.state.EventBundle;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * @author Haoming & Parssa
  */
 public class ScheduleManager implements Serializable {
+    private static final Projection.Field<Integer> CAPACITY = Projection.Field.value("eventCapacity", Integer.class);
+    private static final Projection.Field<Integer> ATTENDEES = Projection.Field.size("attendees");
+
     private IGateway<Event> eventJsonDatabase;
     private IGateway<ScheduleEntry> scheduleEntryJsonDatabase;
+    private final Map<Consumer<String>, ChangeListener> listeners = new ConcurrentHashMap<>();
 
 
     public ScheduleManager() {
 
-        eventJsonDatabase = new JsonDatabase<>("Event", Event.class);
-        scheduleEntryJsonDatabase = new JsonDatabase<>("Schedule Entry", ScheduleEntry.class);
-    }
-
-    /**
-     * Adds a new event to the schedule at a certain time in a room
-     *
-     * @param roomName  Room that the event is going inside
-     * @param eventName Event that is being added
-     * @param time      The time that the event is taking place
-     * @return true if the event was successfully added
-     */
-    private boolean addNewEvent(String roomName, String eventName, Calendar time, int duration) {
-        ScheduleEntry scheduleEntry = new ScheduleEntry(eventName, roomName, time, duration);
-        scheduleEntryJsonDatabase.write(scheduleEntry, eventName);
-        return true;
+        eventJsonDatabase = GatewayFactory.create("Event", Event.class);
+        scheduleEntryJsonDatabase = GatewayFactory.create("Schedule Entry", ScheduleEntry.class);
+        eventJsonDatabase.addMultiIndex("attendees", Event::getAttendees);
+        eventJsonDatabase.addMultiIndex("speakers", Event::getSpeakers);
+        eventJsonDatabase.addIndex("VIPOnly", Event::isVIPOnly);
+        scheduleEntryJsonDatabase.addIndex("roomID", ScheduleEntry::getRoomID);
     }
 
     /**
@@ -45,10 +44,7 @@ public class ScheduleManager implements Serializable {
      * @return list containing event names of event the attendee is in
      */
     public List<ScheduleEntry> getAttendeeEvents(String username) {
-        return eventJsonDatabase.filterStream(e -> e.getAttendees()
-                .contains(username))
-                .map(e -> scheduleEntryJsonDatabase.read(e.getName()))
-                .collect(Collectors.toList());
+        return new ArrayList<>(scheduleEntryJsonDatabase.readAll(eventJsonDatabase.lookup("attendees", username)).values());
     }
 
     /**
@@ -58,10 +54,7 @@ public class ScheduleManager implements Serializable {
      * @return List of ScheduleEntries containing only event's a Speaker is speaking at
      */
     public List<ScheduleEntry> getSpeakerEvents(String username) {
-        return eventJsonDatabase.filterStream(e -> e.getSpeakers()
-                .contains(username))
-                .map(e -> scheduleEntryJsonDatabase.read(e.getName()))
-                .collect(Collectors.toList());
+        return new ArrayList<>(scheduleEntryJsonDatabase.readAll(eventJsonDatabase.lookup("speakers", username)).values());
     }
 
     /**
@@ -71,8 +64,7 @@ public class ScheduleManager implements Serializable {
      * @return true if event exists
      */
     public boolean eventExists(String eventName) {
-        System.out.println(eventJsonDatabase.getIds());
-        return eventJsonDatabase.getIds().contains(eventName);
+        return eventJsonDatabase.exists(eventName);
     }
 
     /**
@@ -93,7 +85,48 @@ public class ScheduleManager implements Serializable {
      * @return true if the event is full
      */
     public boolean eventFull(String eventName) {
-        return eventJsonDatabase.read(eventName).isEventFull();
+        // both from the same version of the event, in one pass over it
+        Projection.Values event = eventJsonDatabase.readFields(eventName, CAPACITY, ATTENDEES);
+        if (event == null) return false;
+        Integer capacity = event.get(CAPACITY);
+        return capacity != null && event.get(ATTENDEES).intValue() == capacity;
+    }
+
+    /**
+     * Checks if an event is VIP only, without reading the rest of it
+     *
+     * @param eventName Name of event that is being checked
+     * @return true if the event exists and is VIP only
+     */
+    public boolean isVIPEvent(String eventName) {
+        Boolean vip = eventJsonDatabase.readField(eventName, "VIPOnly", Boolean.class);
+        return vip != null && vip;
+    }
+
+    /**
+     * Registers listener to be told whenever an event is created, changed or deleted, including through
+     * other sessions and processes. The listener is called from a background thread with the name of the
+     * event, or with null if any of the events may have changed.
+     *
+     * @param listener called with the name of a changed event
+     */
+    public void addEventListener(Consumer<String> listener) {
+        ChangeListener changeListener = (eventName, kind) -> listener.accept(eventName);
+        if (listeners.putIfAbsent(listener, changeListener) == null) {
+            eventJsonDatabase.addListener(changeListener);
+        }
+    }
+
+    /**
+     * Stops telling listener about changed events.
+     *
+     * @param listener a listener registered with addEventListener
+     */
+    public void removeEventListener(Consumer<String> listener) {
+        ChangeListener changeListener = listeners.remove(listener);
+        if (changeListener != null) {
+            eventJsonDatabase.removeListener(changeListener);
+        }
     }
 
     /**
@@ -138,8 +171,16 @@ public class ScheduleManager implements Serializable {
         event.setVIPOnly(isVIP);
         event.setEventCapacity(eventCapacity);
         event.setDescription(description);
-        eventJsonDatabase.write(event, eventName);
-        return addNewEvent(roomName, eventName, time, duration);
+        try {
+            new Transaction()
+                    .write(eventJsonDatabase, event, eventName)
+                    .write(scheduleEntryJsonDatabase, new ScheduleEntry(eventName, roomName, time, duration), eventName)
+                    .commit();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -163,13 +204,7 @@ public class ScheduleManager implements Serializable {
      * @return true if successfully removed from event
      */
     public boolean removeFromEvent(String username, String event) {
-        Event myEvent = eventJsonDatabase.read(event);
-        boolean t = myEvent.removeAttendeeFromEvent(username);
-        if (t) {
-            eventJsonDatabase.write(myEvent, event);
-            return true;
-        }
-        return false;
+        return eventJsonDatabase.update(event, myEvent -> myEvent.removeAttendeeFromEvent(username));
     }
 
     /**
@@ -180,13 +215,7 @@ public class ScheduleManager implements Serializable {
      * @return true if succesfully signed up for event
      */
     public boolean signUpForEvent(String username, String event) {
-        Event myEvent = eventJsonDatabase.read(event);
-        boolean t = myEvent.addAttendeeToEvent(username);
-        if (t) {
-            eventJsonDatabase.write(myEvent, event);
-            return true;
-        }
-        return false;
+        return eventJsonDatabase.update(event, myEvent -> myEvent.addAttendeeToEvent(username));
     }
 
     /**
@@ -198,10 +227,21 @@ public class ScheduleManager implements Serializable {
     public List<String> getEventNames(boolean vipFilter) {
         return vipFilter
                 ? eventJsonDatabase.getIds()
-                : eventJsonDatabase
-                .filterStream(e -> !(e.isVIPOnly()))
-                .map(Event::getName)
-                .collect(Collectors.toList());
+                : eventJsonDatabase.lookup("VIPOnly", false);
+    }
+
+    /**
+     * Returns one page of events in alphabetical order (vip events hidden unless vipFilter is true)
+     *
+     * @param vipFilter  true if vip events should be shown
+     * @param afterEvent the page starts after this event; null for the first page
+     * @param limit      maximum number of events returned
+     * @return list of event titles; fewer than limit iff there are no more.
+     */
+    public List<String> getEventNames(boolean vipFilter, String afterEvent, int limit) {
+        return vipFilter
+                ? eventJsonDatabase.getIds(afterEvent, limit)
+                : eventJsonDatabase.lookup("VIPOnly", false, afterEvent, limit);
     }
 
     /**
@@ -210,7 +250,7 @@ public class ScheduleManager implements Serializable {
      * @return list of vip event names.
      */
     public List<String> getVIPEventNames() {
-        return eventJsonDatabase.filterStream(Event::isVIPOnly).map(Event::getName).collect(Collectors.toList());
+        return eventJsonDatabase.lookup("VIPOnly", true);
     }
 
     /**
@@ -220,9 +260,8 @@ public class ScheduleManager implements Serializable {
      * @return a list of events occurring in that room
      */
     public HashMap<Calendar, Calendar> getRoomEvents(String roomID) {
-        List<ScheduleEntry> lst = scheduleEntryJsonDatabase.filterList(e -> e.getRoomID().equals(roomID));
         HashMap<Calendar, Calendar> map = new HashMap<>();
-        for (ScheduleEntry entry : lst) {
+        for (ScheduleEntry entry : scheduleEntryJsonDatabase.readAll(scheduleEntryJsonDatabase.lookup("roomID", roomID)).values()) {
             Calendar a = (Calendar) entry.getStartTime().clone();
             a.add(Calendar.MINUTE, entry.getDuration());
             map.put(entry.getStartTime(), a);
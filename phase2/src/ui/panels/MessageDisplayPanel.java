@@ -5,7 +5,9 @@ import ui.components.MessageComponent;
 
 import javax.swing.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -74,6 +76,31 @@ public class MessageDisplayPanel extends JPanel {
         addMessages(messages.toArray(msg));
     }
 
+    /**
+     * Replaces the messages shown with messages. Messages already shown keep their component, so they stay
+     * selected; nothing is redrawn if the messages are the same.
+     * @param messages the messages, in order
+     */
+    public void setMessages(List<Message> messages){
+        Map<Integer, MessageComponent> shown = new HashMap<>();
+        for (MessageComponent c : messageList) {
+            shown.put(c.getMessage().getId(), c);
+        }
+        List<MessageComponent> updated = new ArrayList<>();
+        for (Message message : messages) {
+            MessageComponent c = shown.remove(message.getId());
+            updated.add(c != null ? c : new MessageComponent(message));
+        }
+        if (updated.equals(messageList)) return;
+
+        removeAll();
+        messageList = updated;
+        for (MessageComponent c : updated) {
+            add(c);
+        }
+        refresh();
+    }
+
     /**
      * Deselects selected messages
      */
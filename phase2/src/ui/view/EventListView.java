@@ -4,40 +4,116 @@ import Presenters.EventListPresenter;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeMap;
 
 /**
  * A panel that lists all events.
  */
 public class EventListView extends JPanel implements View {
-    public EventListView(EventListPresenter presenter) {
-        List<String> eventNames = presenter.getEventNames();
+    private final EventListPresenter presenter;
+    private final JPanel panel = new JPanel();
+    private final GridBagConstraints cst = new GridBagConstraints();
+    private final JButton moreButton = new JButton("More events");
+    private final JLabel title = new JLabel("<html></h2>Events</h2></html>");
+    // buttons of the events loaded so far, in alphabetical order
+    private final TreeMap<String, JButton> buttons = new TreeMap<>();
+    private boolean more;
 
-        JPanel panel = new JPanel();
+    public EventListView(EventListPresenter presenter) {
+        this.presenter = presenter;
 
         panel.setLayout(new GridBagLayout());
-        GridBagConstraints cst = new GridBagConstraints();
         cst.gridy = 0;
         cst.gridx = 1;
         cst.fill = GridBagConstraints.BOTH;
         cst.insets = new Insets(7, 7, 7, 7);
 
-        panel.add(new JLabel("<html></h2>Events</h2></html>"), cst);
-        cst.gridy = 1;
+        moreButton.addActionListener(e -> addPage());
+        addPage();
+
+        JScrollPane scrollPane = new JScrollPane(panel);
+        scrollPane.createVerticalScrollBar();
+        add(scrollPane);
+    }
+
+    /**
+     * Starts showing changes to the events as they happen, once the view is on screen.
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        presenter.watchEvents(event -> SwingUtilities.invokeLater(() -> eventChanged(event)));
+    }
 
+    /**
+     * Stops showing changes once the view is taken off screen.
+     */
+    @Override
+    public void removeNotify() {
+        presenter.stopWatching();
+        super.removeNotify();
+    }
+
+    /**
+     * Adds the next page of events to the list, and a button for the page after it if there are more.
+     */
+    private void addPage() {
+        List<String> eventNames = presenter.getEventNames(buttons.isEmpty() ? null : buttons.lastKey());
         for (String event : eventNames) {
-            String buttonText = presenter.isVIP(event) ? "\u2605 " + event : event; // putting star before vip events
+            buttons.put(event, makeButton(event));
+        }
+        more = eventNames.size() == EventListPresenter.PAGE_SIZE;
+        layoutButtons();
+    }
 
-            JButton eventButton = new JButton(buttonText);
-            eventButton.addActionListener(e -> presenter.goToEvent(event));
+    /**
+     * Adds, relabels or removes the button of an event that changed. Events after the pages loaded so far
+     * are left for "More events".
+     *
+     * @param event name of the event; null to reload the list from the first page
+     */
+    private void eventChanged(String event) {
+        if (event == null) {
+            buttons.clear();
+            addPage();
+            return;
+        }
+        boolean listed = presenter.refreshEvent(event);
+        boolean loaded = !more || event.compareTo(buttons.lastKey()) <= 0;
+        if (listed && loaded) {
+            buttons.put(event, makeButton(event));
+        } else if (buttons.remove(event) == null) {
+            return;
+        }
+        layoutButtons();
+    }
+
+    private JButton makeButton(String event) {
+        String buttonText = presenter.isVIP(event) ? "\u2605 " + event : event; // putting star before vip events
+
+        JButton eventButton = new JButton(buttonText);
+        eventButton.addActionListener(e -> presenter.goToEvent(event));
+        return eventButton;
+    }
 
+    /**
+     * Lays out the title, the event buttons in order, and the more button if there are more events.
+     */
+    private void layoutButtons() {
+        panel.removeAll();
+        cst.gridy = 0;
+        panel.add(title, cst);
+        for (JButton eventButton : buttons.values()) {
+            cst.gridy++;
             panel.add(eventButton, cst);
+        }
+        if (more) {
             cst.gridy++;
+            panel.add(moreButton, cst);
         }
-        JScrollPane scrollPane = new JScrollPane(panel);
-        scrollPane.createVerticalScrollBar();
-        add(scrollPane);
+        panel.revalidate();
+        panel.repaint();
     }
 
 
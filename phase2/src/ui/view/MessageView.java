@@ -18,6 +18,7 @@ import java.util.List;
 public class MessageView extends JPanel implements View {
     private ButtonGroup senderButtonGroup = new ButtonGroup();
     private Map<String, MessageDisplayPanel> panelMap = new HashMap<>();
+    private Map<String, JToggleButton> buttonMap = new HashMap<>();
     private Set<String> conversations = new HashSet<>();
 
     private JPanel messageCards = new JPanel();
@@ -148,6 +149,50 @@ public class MessageView extends JPanel implements View {
     }
 
 
+    /**
+     * Starts showing changes to the conversations as they happen, once the view is on screen.
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        presenter.watchConversations(otherUser -> SwingUtilities.invokeLater(() -> conversationChanged(otherUser)));
+    }
+
+    /**
+     * Stops showing changes once the view is taken off screen.
+     */
+    @Override
+    public void removeNotify() {
+        presenter.stopWatching();
+        super.removeNotify();
+    }
+
+    /**
+     * Reloads the conversation with otherUser, which changed, or adds it if it is new.
+     *
+     * @param otherUser the other user of the conversation; null to reload every conversation
+     */
+    private void conversationChanged(String otherUser) {
+        if (otherUser == null) {
+            for (String person : new ArrayList<>(panelMap.keySet())) {
+                if (!person.equals("Archived")) conversationChanged(person);
+            }
+            panelMap.get("Archived").setMessages(presenter.getArchivedMessages());
+            return;
+        }
+        MessageDisplayPanel panel = panelMap.get(otherUser);
+        if (panel == null) {
+            addMessageToggleButton(otherUser, presenter.getConversation(otherUser));
+        } else {
+            panel.setMessages(presenter.getConversation(otherUser));
+            if (!otherUser.equals(selectedUsername) && !presenter.isRead(otherUser)) {
+                buttonBold(buttonMap.get(otherUser));
+            }
+        }
+        revalidate();
+        repaint();
+    }
+
     private void initMessages() {
         // Populate the inbox with actual information
 
@@ -206,6 +251,7 @@ public class MessageView extends JPanel implements View {
         });
 
         senderButtonGroup.add(senderButton);
+        buttonMap.put(text, senderButton);
         pplPanel.add(senderButton);
     }
 
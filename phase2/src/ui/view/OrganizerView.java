@@ -7,6 +7,7 @@ import Util.UserType;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
+import java.awt.event.ActionListener;
 import java.util.List;
 
 /**
@@ -18,20 +19,10 @@ public class OrganizerView extends JPanel implements View {
     private JButton newEventButton = new JButton("New Event");
 
 
-    // username lists:
-    private List<String> speakers;
-    private List<String> attendees;
-    private List<String> organizers;
-    private List<String> vips;
-
     private OrganizerPresenter presenter;
 
     public OrganizerView(OrganizerPresenter presenter) {
         this.presenter = presenter;
-        speakers = presenter.getSpeakers();
-        attendees = presenter.getAttendees();
-        organizers = presenter.getOrganizers();
-        vips = presenter.getVips();
 
         newRoomButton.addActionListener(e -> newRoom());
         newEventButton.addActionListener(e -> newEvent());
@@ -39,13 +30,13 @@ public class OrganizerView extends JPanel implements View {
         setBorder(new EmptyBorder(20, 20, 20, 20));
         JPanel usersPanel = new JPanel();
         usersPanel.setLayout(new BoxLayout(usersPanel, BoxLayout.PAGE_AXIS));
-        usersPanel.add(makeUserPanel(speakers, "Speakers"));
+        usersPanel.add(makeUserPanel(UserType.SPEAKER, "Speakers"));
         usersPanel.add(new JSeparator(SwingConstants.HORIZONTAL));
-        usersPanel.add(makeUserPanel(vips, "VIPs"));
+        usersPanel.add(makeUserPanel(UserType.VIP, "VIPs"));
         usersPanel.add(new JSeparator(SwingConstants.HORIZONTAL));
-        usersPanel.add(makeUserPanel(attendees, "Attendees"));
+        usersPanel.add(makeUserPanel(UserType.ATTENDEE, "Attendees"));
         usersPanel.add(new JSeparator(SwingConstants.HORIZONTAL));
-        usersPanel.add(makeUserPanel(organizers, "Organizers"));
+        usersPanel.add(makeUserPanel(UserType.ORGANIZER, "Organizers"));
 
         JScrollPane usersScroll = new JScrollPane(usersPanel);
         usersScroll.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
@@ -111,7 +102,7 @@ public class OrganizerView extends JPanel implements View {
     }
 
 
-    private JPanel makeUserPanel(List<String> usernames, String title) {
+    private JPanel makeUserPanel(UserType type, String title) {
         JPanel panel = new JPanel(new GridBagLayout());
         GridBagConstraints cst = new GridBagConstraints();
         cst.gridy = 0;
@@ -121,14 +112,33 @@ public class OrganizerView extends JPanel implements View {
         panel.add(new JLabel(String.format("<html><h3>%s</h3></html>", title)), cst);
         cst.gridy++;
 
+        addUserPage(panel, cst, new JButton("More"), type, null);
+        return panel;
+    }
+
+    /**
+     * Adds the next page of users of a type to their panel, and a button for the page after it if there are more.
+     */
+    private void addUserPage(JPanel panel, GridBagConstraints cst, JButton moreButton, UserType type, String afterUsername) {
+        panel.remove(moreButton);
+        for (ActionListener listener : moreButton.getActionListeners()) {
+            moreButton.removeActionListener(listener);
+        }
+        List<String> usernames = presenter.getUsernames(type, afterUsername);
+
         for (String username : usernames) {
             JButton userButton = new JButton(username);
             userButton.addActionListener(e -> presenter.goToUser(username));
             panel.add(userButton, cst);
             cst.gridy++;
         }
-
-        return panel;
+        if (usernames.size() == OrganizerPresenter.PAGE_SIZE) {
+            String last = usernames.get(usernames.size() - 1);
+            moreButton.addActionListener(e -> addUserPage(panel, cst, moreButton, type, last));
+            panel.add(moreButton, cst);
+        }
+        panel.revalidate();
+        panel.repaint();
     }
 
     @Override